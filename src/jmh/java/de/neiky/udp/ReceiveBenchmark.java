@@ -0,0 +1,109 @@
+package de.neiky.udp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the way of a message from {@link UdpSender#send(byte[])} to the
+ * handler of a {@link UdpReceiver} over loopback. Every operation sends one
+ * message and waits until the handler got it, so the sample time mode reports
+ * the p50, p99 and p999 latency of a round through the kernel and the receiver
+ * thread, and the throughput mode the messages per second a single producer
+ * gets through when it waits for each message.<br />
+ * A lost message ends the wait after {@value #TIMEOUT_NANOS} ns and is counted
+ * by the <code>lost</code> counter instead of blocking the benchmark.
+ *
+ * @author Michael Neike
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReceiveBenchmark {
+    private static final int RECEIVER_PORT = 12002;
+    private static final long TIMEOUT_NANOS = 100_000_000L;
+
+    @Param({"16", "256", "1024"})
+    public int payloadSize;
+
+    /** The handler the receiver delivers to: packet, message, buffer or text */
+    @Param({"packet", "message", "buffer", "text"})
+    public String handler;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private UdpReceiver receiver;
+    private UdpSender sender;
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        receiver = new UdpReceiver("localhost", RECEIVER_PORT).setMaxDatagramSize(payloadSize);
+        switch (handler) {
+            case "packet":
+                receiver.setPacketHandler(packet -> received.incrementAndGet());
+                break;
+            case "message":
+                receiver.setMessageHandler((address, port, message) -> received.incrementAndGet());
+                break;
+            case "buffer":
+                receiver.setBufferHandler((source, payload) -> received.incrementAndGet());
+                break;
+            case "text":
+                receiver.setTextHandler((source, text) -> received.incrementAndGet());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown handler " + handler + ".");
+        }
+        receiver.start();
+        sender = new UdpSenderBuilder().setRemoteAddress(InetAddress.getLoopbackAddress())
+                .setRemotePort(RECEIVER_PORT).build().openSocket();
+
+        bytes = new byte[payloadSize];
+        Arrays.fill(bytes, (byte) 'x');
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (lost.get() > 0) {
+            System.err.println(lost.get() + " messages lost.");
+        }
+        sender.close();
+        receiver.stop();
+    }
+
+    @Benchmark
+    public void sendAndReceive(Blackhole blackhole) throws IOException {
+        long expected = received.get() + 1;
+        sender.send(bytes);
+
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (received.get() < expected) {
+            if (System.nanoTime() - deadline > 0) {
+                lost.incrementAndGet();
+                return;
+            }
+            blackhole.consumeCPU(1);
+        }
+    }
+}
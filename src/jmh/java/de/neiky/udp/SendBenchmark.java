@@ -0,0 +1,94 @@
+package de.neiky.udp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast a {@link UdpSender} hands datagrams to the kernel over
+ * loopback. A {@link UdpReceiver} drains the socket, so the kernel buffer does
+ * not fill up, but the benchmark does not wait for it.<br />
+ * Throughput is reported in messages per second, the sample time mode reports
+ * the p50, p99 and p999 latency of a single send.
+ *
+ * @author Michael Neike
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendBenchmark {
+    private static final int RECEIVER_PORT = 12001;
+
+    @Param({"16", "256", "1024", "8192"})
+    public int payloadSize;
+
+    /** The number of channels of the sender, see {@link UdpSender#setChannelCount(int)} */
+    @Param({"1", "4"})
+    public int channelCount;
+
+    private final LongAdder received = new LongAdder();
+    private UdpReceiver receiver;
+    private UdpSender sender;
+    private String message;
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        receiver = new UdpReceiver("localhost", RECEIVER_PORT).setMaxDatagramSize(payloadSize)
+                .setBufferHandler((source, payload) -> received.increment()).start();
+        sender = new UdpSenderBuilder().setRemoteAddress(InetAddress.getLoopbackAddress())
+                .setRemotePort(RECEIVER_PORT).setChannelCount(channelCount).build().openSocket();
+
+        char[] chars = new char[payloadSize];
+        Arrays.fill(chars, 'x');
+        message = new String(chars);
+        bytes = new byte[payloadSize];
+        Arrays.fill(bytes, (byte) 'x');
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sender.close();
+        receiver.stop();
+    }
+
+    @Benchmark
+    public UdpSender sendString() throws IOException {
+        return sender.send(message);
+    }
+
+    @Benchmark
+    public UdpSender sendBytes() throws IOException {
+        return sender.send(bytes);
+    }
+
+    /**
+     * Four producer threads share the sender, which shows how well its
+     * channels spread the contention.
+     */
+    @Benchmark
+    @Threads(4)
+    public UdpSender sendBytesContended() throws IOException {
+        return sender.send(bytes);
+    }
+}
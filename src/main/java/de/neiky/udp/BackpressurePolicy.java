@@ -0,0 +1,22 @@
+package de.neiky.udp;
+
+/**
+ * Defines what happens when a bounded queue between a producer and its
+ * consumers is full.
+ *
+ * @author Michael Neike
+ */
+public enum BackpressurePolicy {
+    /**
+     * Discard the element that is about to be added.
+     */
+    DROP_NEWEST,
+    /**
+     * Discard the oldest element that has not been taken by a consumer yet.
+     */
+    DROP_OLDEST,
+    /**
+     * Wait until a consumer has freed a slot.
+     */
+    BLOCK
+}
@@ -0,0 +1,140 @@
+package de.neiky.udp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size pool of direct {@link ByteBuffer}s used by the receive loop.
+ * All buffers are allocated up front; acquiring and releasing a buffer never
+ * allocates, so the pool can be used on the hot path of the receiver.<br />
+ * The pool is a bounded lock-free queue and may be shared between the thread
+ * receiving datagrams and the threads handling them.
+ *
+ * @author Michael Neike
+ */
+final class BufferPool {
+    private final PooledBuffer[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Constructor for BufferPool.
+     *
+     * @param size       The number of buffers in the pool. Rounded up to the
+     *                   next power of two.
+     * @param bufferSize The capacity of every buffer in bytes.
+     */
+    BufferPool(int size, int bufferSize) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Pool size must be greater than 0.");
+        }
+        int capacity = Integer.highestOneBit(size - 1) << 1;
+        if (capacity < 1) {
+            capacity = 1;
+        }
+        this.slots = new PooledBuffer[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new PooledBuffer(ByteBuffer.allocateDirect(bufferSize));
+            sequences.set(i, i + 1);
+        }
+        tail.set(capacity);
+    }
+
+    /**
+     * Takes a buffer out of the pool.
+     *
+     * @return a free buffer or <code>null</code> if all buffers are in use.
+     */
+    PooledBuffer acquire() {
+        while (true) {
+            long position = head.get();
+            int index = (int) (position & mask);
+            long delta = sequences.get(index) - (position + 1);
+            if (delta == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    PooledBuffer buffer = slots[index];
+                    sequences.lazySet(index, position + mask + 1);
+                    return buffer;
+                }
+            } else if (delta < 0) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     *
+     * @param buffer The buffer previously taken by {@link #acquire()}.
+     */
+    void release(PooledBuffer buffer) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long delta = sequences.get(index) - position;
+            if (delta == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = buffer;
+                    sequences.lazySet(index, position + 1);
+                    return;
+                }
+            } else if (delta < 0) {
+                throw new IllegalStateException("Buffer released more than once.");
+            }
+        }
+    }
+
+    /**
+     * @return the number of buffers in the pool.
+     */
+    int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * A direct buffer together with a read-only view on it. The view is
+     * created once and handed to the handlers after every receive, so no
+     * wrapper has to be allocated per datagram.
+     */
+    static final class PooledBuffer {
+        private final ByteBuffer buffer;
+        private final ByteBuffer view;
+
+        PooledBuffer(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.view = buffer.asReadOnlyBuffer();
+        }
+
+        /**
+         * @return the cleared writable buffer, ready to receive a datagram.
+         */
+        ByteBuffer clear() {
+            buffer.clear();
+            return buffer;
+        }
+
+        /**
+         * Resets the read-only view to the bytes written since the last
+         * {@link #clear()}.
+         *
+         * @return the read-only view.
+         */
+        ByteBuffer view() {
+            view.limit(buffer.position()).position(0);
+            return view;
+        }
+
+        /**
+         * @return the number of bytes written since the last {@link #clear()}.
+         */
+        int length() {
+            return buffer.position();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package de.neiky.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Appends received datagrams to memory-mapped segment files, so the traffic
+ * a {@link UdpReceiver} saw can be replayed later with
+ * {@link UdpSender#replay(CaptureReader, double)}. Appending copies the
+ * datagram into the mapped segment and does not call into the kernel; a new
+ * segment is started when the current one is full. The segments are named
+ * <code>capture-000000.log</code>, <code>capture-000001.log</code> and so on;
+ * a new log continues after the segments already in the directory.<br />
+ * Every record consists of a {@value #HEADER_LENGTH} byte header followed by
+ * the datagram:
+ * <pre>
+ * int   record length, header included, 0 marks the end of the segment
+ * long  receive time in nanoseconds since the epoch
+ * short source port
+ * byte  length of the source address, 4 or 16
+ * byte  reserved
+ * 16    source address
+ * </pre>
+ * A log may be shared by several receivers.
+ *
+ * @author Michael Neike
+ */
+public class CaptureLog implements AutoCloseable {
+    /** The length of the record header */
+    public static final int HEADER_LENGTH = 32;
+    /** The size of a segment unless given otherwise: 64 MiB */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    static final int MIN_SEGMENT_SIZE = 128 << 10;
+    private static final String PREFIX = "capture-";
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long baseMillis = System.currentTimeMillis();
+    private final long baseNanos = System.nanoTime();
+    private int maxSegments;
+    private final int firstIndex;
+    private int segmentIndex;
+    private MappedByteBuffer segment;
+    private long records;
+    private boolean closed;
+
+    /**
+     * Constructor for CaptureLog with segments of
+     * {@value #DEFAULT_SEGMENT_SIZE} bytes.
+     *
+     * @param directory The directory the segments are written to. It is
+     *                  created if it does not exist.
+     * @throws IOException if the first segment could not be created.
+     */
+    public CaptureLog(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructor for CaptureLog.
+     *
+     * @param directory   The directory the segments are written to. It is
+     *                    created if it does not exist.
+     * @param segmentSize The size of a segment file in bytes, at least 128 KiB
+     *                    so the largest datagram fits.
+     * @throws IOException if the first segment could not be created.
+     */
+    public CaptureLog(Path directory, int segmentSize) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("Given directory must not be NULL.");
+        }
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be at least " + MIN_SEGMENT_SIZE + " bytes.");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        Files.createDirectories(directory);
+        List<Path> existing = segments(directory);
+        firstIndex = existing.isEmpty() ? 0 : index(existing.get(existing.size() - 1)) + 1;
+        segmentIndex = firstIndex;
+        segment = map(segmentIndex);
+    }
+
+    /**
+     * Limits the number of segments kept on disk. When a new segment is
+     * started, the oldest segments of this log are deleted.
+     *
+     * @param maxSegments The number of segments to keep, 0 to keep all, which
+     *                    is the default.
+     * @return this CaptureLog.
+     */
+    public synchronized CaptureLog setMaxSegments(int maxSegments) {
+        if (maxSegments < 0) {
+            throw new IllegalArgumentException("Max segments must not be negative.");
+        }
+        this.maxSegments = maxSegments;
+
+        return this;
+    }
+
+    /**
+     * Appends a datagram.
+     *
+     * @param source   The remote address of the sender.
+     * @param datagram The datagram, from its position to its limit. Its
+     *                 position is not changed.
+     * @throws IOException if a new segment could not be created.
+     */
+    public synchronized void append(InetSocketAddress source, ByteBuffer datagram) throws IOException {
+        if (closed) {
+            throw new IOException("Capture log is closed.");
+        }
+        int length = HEADER_LENGTH + datagram.remaining();
+        if (length > segmentSize) {
+            throw new IllegalArgumentException("Datagram does not fit into a segment.");
+        }
+        if (length > segment.remaining()) {
+            roll();
+        }
+
+        int start = segment.position();
+        long timestamp = baseMillis * 1_000_000L + (System.nanoTime() - baseNanos);
+        byte[] address = source.getAddress().getAddress();
+        segment.putLong(start + 4, timestamp)
+                .putShort(start + 12, (short) source.getPort())
+                .put(start + 14, (byte) address.length);
+        segment.position(start + 16);
+        segment.put(address);
+        segment.position(start + HEADER_LENGTH);
+        int position = datagram.position();
+        segment.put(datagram);
+        datagram.position(position);
+        // the length is written last, so a reader never sees half a record
+        segment.putInt(start, length);
+        records++;
+    }
+
+    /**
+     * @return the number of datagrams appended.
+     */
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * @return the directory the segments are written to.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Writes the current segment to disk. The log cannot be appended to
+     * afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            segment.force();
+        }
+    }
+
+    private void roll() throws IOException {
+        segment.force();
+        segmentIndex++;
+        segment = map(segmentIndex);
+        if (maxSegments > 0 && segmentIndex - maxSegments >= firstIndex) {
+            Files.deleteIfExists(segmentPath(directory, segmentIndex - maxSegments));
+        }
+    }
+
+    private MappedByteBuffer map(int index) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(directory, index),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    /**
+     * @param directory The directory of a capture log.
+     * @return the segment files in the directory, oldest first.
+     * @throws IOException if the directory could not be read.
+     */
+    static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "[0-9]*" + SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        // the index has a fixed width, so the names sort by index
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static Path segmentPath(Path directory, int index) {
+        return directory.resolve(String.format("%s%06d%s", PREFIX, index, SUFFIX));
+    }
+
+    private static int index(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
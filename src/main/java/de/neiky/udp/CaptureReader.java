@@ -0,0 +1,137 @@
+package de.neiky.udp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Reads the datagrams written by a {@link CaptureLog}, oldest first:
+ * <pre>
+ * try (CaptureReader reader = new CaptureReader(directory)) {
+ *     while (reader.next()) {
+ *         ByteBuffer datagram = reader.getPayload();
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * The segments are mapped read-only and the payload is a view on the mapped
+ * segment, so reading does not copy the datagrams. The view is reused for the
+ * next record.
+ *
+ * @author Michael Neike
+ */
+public class CaptureReader implements AutoCloseable {
+    private final List<Path> segments;
+    private int segmentIndex = -1;
+    private MappedByteBuffer segment;
+    private ByteBuffer payload;
+    private int next;
+    private long timestamp;
+    private final byte[] address4 = new byte[4];
+    private final byte[] address16 = new byte[16];
+    private InetSocketAddress source;
+
+    /**
+     * Constructor for CaptureReader.
+     *
+     * @param directory The directory of the capture log.
+     * @throws IOException if the directory could not be read.
+     */
+    public CaptureReader(Path directory) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("Given directory must not be NULL.");
+        }
+        this.segments = CaptureLog.segments(directory);
+    }
+
+    /**
+     * Moves to the next datagram.
+     *
+     * @return <code>false</code> if there is no further datagram.
+     * @throws IOException if a segment could not be mapped or is corrupt.
+     */
+    public boolean next() throws IOException {
+        while (segment == null || !hasRecord()) {
+            if (segmentIndex + 1 >= segments.size()) {
+                return false;
+            }
+            segmentIndex++;
+            segment = map(segments.get(segmentIndex));
+            payload = segment.asReadOnlyBuffer();
+            next = 0;
+        }
+
+        int start = next;
+        int length = segment.getInt(start);
+        timestamp = segment.getLong(start + 4);
+        int port = segment.getShort(start + 12) & 0xFFFF;
+        byte[] address = segment.get(start + 14) == 16 ? address16 : address4;
+        for (int i = 0; i < address.length; i++) {
+            address[i] = segment.get(start + 16 + i);
+        }
+        source = new InetSocketAddress(InetAddress.getByAddress(address), port);
+        payload.limit(start + length).position(start + CaptureLog.HEADER_LENGTH);
+        next = start + length;
+        return true;
+    }
+
+    /**
+     * @return the time the current datagram was received, in nanoseconds
+     * since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the remote address the current datagram was received from.
+     */
+    public InetSocketAddress getSource() {
+        return source;
+    }
+
+    /**
+     * @return a read-only view on the current datagram, reused for the next
+     * one.
+     */
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+
+    /**
+     * Releases the current segment. The mapping itself is released by the
+     * garbage collector.
+     */
+    @Override
+    public void close() {
+        segment = null;
+        payload = null;
+        segmentIndex = segments.size();
+    }
+
+    private boolean hasRecord() throws IOException {
+        if (next + CaptureLog.HEADER_LENGTH > segment.capacity()) {
+            return false;
+        }
+        int length = segment.getInt(next);
+        if (length == 0) {
+            return false;
+        }
+        if (length < CaptureLog.HEADER_LENGTH || next + length > segment.capacity()) {
+            throw new IOException("Corrupt record in " + segments.get(segmentIndex) + " at " + next + ".");
+        }
+        return true;
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
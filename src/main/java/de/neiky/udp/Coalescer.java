@@ -0,0 +1,135 @@
+package de.neiky.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the framed messages of one {@link UdpSender} to one destination in
+ * a datagram until the datagram is full or the first message waited for the
+ * maximum delay. The receiver unpacks the frames one by one, so coalescing is
+ * transparent to its handlers.
+ *
+ * @author Michael Neike
+ */
+final class Coalescer {
+    private final UdpSender sender;
+    private final InetSocketAddress target;
+    private final FrameCodec framing;
+    private final ByteBuffer datagram;
+    private final int prefix;
+    private final long maxDelayNanos;
+    private final ScheduledExecutorService scheduler;
+    /** counts the flushed datagrams, so a late timer does not flush the next one */
+    private long generation;
+
+    /**
+     * Constructor for Coalescer.
+     *
+     * @param sender        The sender the datagrams are sent with.
+     * @param target        The destination.
+     * @param framing       The frame codec of the sender.
+     * @param size          The largest datagram sent.
+     * @param prefix        The number of bytes reserved for the fragment
+     *                      header, 0 if the sender does not fragment.
+     * @param maxDelayNanos The longest time a message waits in the datagram.
+     * @param scheduler     The scheduler running the delayed flushes.
+     */
+    Coalescer(UdpSender sender, InetSocketAddress target, FrameCodec framing, int size, int prefix,
+              long maxDelayNanos, ScheduledExecutorService scheduler) {
+        this.sender = sender;
+        this.target = target;
+        this.framing = framing;
+        this.datagram = ByteBuffer.allocateDirect(size);
+        this.prefix = prefix;
+        this.maxDelayNanos = maxDelayNanos;
+        this.scheduler = scheduler;
+        this.datagram.position(prefix);
+    }
+
+    /**
+     * Appends a message to the datagram. Sends the datagram first if the
+     * message does not fit, and afterwards if no further frame fits.
+     *
+     * @param message The message, from its position to its limit. Its
+     *                position is not changed.
+     * @param framed  Whether the message already starts with its frame header.
+     * @return <code>false</code> if the message does not fit into an empty
+     * datagram and has to be sent on its own; the collected messages are sent
+     * before.
+     * @throws IOException if an I/O error occurs.
+     */
+    synchronized boolean add(ByteBuffer message, boolean framed) throws IOException {
+        int headerLength = framing.headerLength();
+        int frameLength = message.remaining() + (framed ? 0 : headerLength);
+        if (frameLength > datagram.capacity() - prefix) {
+            // keeps the order of the messages
+            flush();
+            return false;
+        }
+        if (frameLength > datagram.remaining()) {
+            flush();
+        }
+
+        boolean first = datagram.position() == prefix;
+        int position = message.position();
+        if (!framed) {
+            framing.writeHeader(datagram, datagram.position(), message.remaining());
+            datagram.position(datagram.position() + headerLength);
+        }
+        datagram.put(message);
+        message.position(position);
+
+        if (datagram.remaining() <= headerLength) {
+            flush();
+        } else if (first) {
+            schedule(generation);
+        }
+        return true;
+    }
+
+    /**
+     * Sends the collected messages, if any.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    synchronized void flush() throws IOException {
+        if (datagram.position() == prefix) {
+            return;
+        }
+        generation++;
+        datagram.flip();
+        if (prefix > 0) {
+            // a single fragment holding all frames
+            datagram.putInt(0, 0).putInt(4, datagram.limit() - prefix)
+                    .putShort(8, (short) 0).putShort(10, (short) 1);
+        }
+        try {
+            sender.transmitDatagram(datagram, target);
+        } finally {
+            datagram.clear().position(prefix);
+        }
+    }
+
+    private void schedule(long expected) {
+        try {
+            scheduler.schedule(() -> flushIfCurrent(expected), maxDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // the sender is closing and flushes itself
+        }
+    }
+
+    private synchronized void flushIfCurrent(long expected) {
+        if (generation != expected) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
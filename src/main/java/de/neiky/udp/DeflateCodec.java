@@ -0,0 +1,142 @@
+package de.neiky.udp;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses payloads with Deflate, without the zlib header and checksum,
+ * which the UDP checksum makes redundant. Every thread keeps its own
+ * {@link Deflater} and {@link Inflater}, which are reset for the next
+ * message instead of allocated anew, so neither encoding nor decoding
+ * allocates. Heap buffers are passed to them through their arrays, direct
+ * buffers are copied through arrays kept per thread as well.<br />
+ * Deflate pays off for text-like payloads such as Virtuos variable tables;
+ * a payload that does not get smaller is sent as it is.
+ *
+ * @author Michael Neike
+ */
+public final class DeflateCodec implements PayloadCodec {
+    /** The flag byte of messages compressed with Deflate */
+    public static final int ID = 1;
+
+    private final ThreadLocal<Deflater> deflater;
+    private final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(() -> new Inflater(true));
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * Constructor for DeflateCodec, using {@link Deflater#BEST_SPEED}.
+     */
+    public DeflateCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Constructor for DeflateCodec.
+     *
+     * @param level The compression level, between 0 and 9.
+     */
+    public DeflateCodec(int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Level must be between 0 and 9.");
+        }
+        this.deflater = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    }
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public boolean encode(ByteBuffer payload, ByteBuffer target) {
+        Deflater current = deflater.get();
+        Scratch arrays = scratch.get();
+        current.reset();
+        int length = payload.remaining();
+        if (payload.hasArray()) {
+            current.setInput(payload.array(), payload.arrayOffset() + payload.position(), length);
+        } else {
+            byte[] input = arrays.input(length);
+            payload.get(input, 0, length);
+            current.setInput(input, 0, length);
+        }
+        current.finish();
+        while (!current.finished()) {
+            if (!target.hasRemaining()) {
+                return false;
+            }
+            if (target.hasArray()) {
+                int written = current.deflate(target.array(), target.arrayOffset() + target.position(), target.remaining());
+                target.position(target.position() + written);
+            } else {
+                byte[] output = arrays.output(target.remaining());
+                target.put(output, 0, current.deflate(output, 0, target.remaining()));
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean decode(ByteBuffer encoded, ByteBuffer target) {
+        Inflater current = inflater.get();
+        Scratch arrays = scratch.get();
+        current.reset();
+        int length = encoded.remaining();
+        if (encoded.hasArray()) {
+            current.setInput(encoded.array(), encoded.arrayOffset() + encoded.position(), length);
+        } else {
+            byte[] input = arrays.input(length);
+            encoded.get(input, 0, length);
+            current.setInput(input, 0, length);
+        }
+        try {
+            while (!current.finished()) {
+                if (!target.hasRemaining() || inflate(current, target, arrays) == 0
+                        && (current.needsInput() || current.needsDictionary())) {
+                    return false;
+                }
+            }
+        } catch (DataFormatException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private static int inflate(Inflater inflater, ByteBuffer target, Scratch arrays) throws DataFormatException {
+        int written;
+        if (target.hasArray()) {
+            written = inflater.inflate(target.array(), target.arrayOffset() + target.position(), target.remaining());
+            target.position(target.position() + written);
+        } else {
+            byte[] output = arrays.output(target.remaining());
+            written = inflater.inflate(output, 0, target.remaining());
+            target.put(output, 0, written);
+        }
+        return written;
+    }
+
+    /**
+     * The arrays a thread copies direct buffers through. They grow to the
+     * largest message and are kept.
+     */
+    private static final class Scratch {
+        private byte[] input = new byte[0];
+        private byte[] output = new byte[0];
+
+        private byte[] input(int length) {
+            if (input.length < length) {
+                input = new byte[length];
+            }
+            return input;
+        }
+
+        private byte[] output(int length) {
+            if (output.length < length) {
+                output = new byte[length];
+            }
+            return output;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package de.neiky.udp;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches resolved host names for the {@link UdpSender}. A host name is only
+ * resolved on the calling thread the first time it is used. Afterwards it is
+ * re-resolved in the background once its time to live has passed, so the
+ * send path never waits for a DNS lookup. If re-resolving fails, the last
+ * known address is kept. Hosts that were not looked up for the idle time
+ * and have no endpoints are evicted.
+ *
+ * @author Michael Neike
+ */
+public class DestinationCache implements AutoCloseable {
+    /**
+     * The default time to live of a resolved address in milliseconds.
+     */
+    public static final long DEFAULT_TTL_MILLIS = 60_000L;
+    /**
+     * The default time in milliseconds after which an unused host is evicted.
+     */
+    public static final long DEFAULT_IDLE_MILLIS = 600_000L;
+
+    private static volatile DestinationCache defaultCache;
+
+    private final long ttlMillis;
+    private final long idleMillis;
+    private final ConcurrentHashMap<String, CachedHost> entries = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refresher;
+
+    /**
+     * Constructor for DestinationCache using {@link #DEFAULT_TTL_MILLIS}.
+     */
+    public DestinationCache() {
+        this(DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Parameterized constructor for DestinationCache.
+     *
+     * @param ttlMillis The time in milliseconds after which a resolved address
+     *                  is resolved again.
+     */
+    public DestinationCache(long ttlMillis) {
+        this(ttlMillis, Math.max(DEFAULT_IDLE_MILLIS, ttlMillis));
+    }
+
+    /**
+     * Parameterized constructor for DestinationCache.
+     *
+     * @param ttlMillis  The time in milliseconds after which a resolved address
+     *                   is resolved again.
+     * @param idleMillis The time in milliseconds after which a host that was
+     *                   not looked up and has no endpoints is evicted.
+     */
+    public DestinationCache(long ttlMillis, long idleMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Time to live must be greater than 0.");
+        }
+        if (idleMillis <= 0) {
+            throw new IllegalArgumentException("Idle time must be greater than 0.");
+        }
+        this.ttlMillis = ttlMillis;
+        this.idleMillis = idleMillis;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DestinationCache");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // checking at half the time to live re-resolves an address at most
+        // 1.5 times its time to live after it was resolved
+        long period = Math.max(1L, ttlMillis / 2);
+        this.refresher.scheduleWithFixedDelay(this::refresh, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the cache shared by all senders that were not given a cache of
+     * their own.
+     */
+    public static DestinationCache getDefault() {
+        DestinationCache cache = defaultCache;
+        if (cache == null) {
+            synchronized (DestinationCache.class) {
+                cache = defaultCache;
+                if (cache == null) {
+                    cache = new DestinationCache();
+                    defaultCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the address of the host, resolving it only if it is not cached
+     * yet.
+     *
+     * @param host The host name or ip address.
+     * @return the cached address.
+     * @throws UnknownHostException if no IP address for the host could be found, or if a
+     *                              scope_id was specified for a global IPv6 address.
+     */
+    public InetAddress resolve(String host) throws UnknownHostException {
+        return entry(host).address;
+    }
+
+    /**
+     * Returns an endpoint for the host and port. The endpoint follows the
+     * address of the host when it is re-resolved.
+     *
+     * @param host The host name or ip address.
+     * @param port The port of the destination.
+     * @return the endpoint.
+     * @throws UnknownHostException if no IP address for the host could be found, or if a
+     *                              scope_id was specified for a global IPv6 address.
+     */
+    public Endpoint endpoint(String host, int port) throws UnknownHostException {
+        CachedHost entry = entry(host);
+        synchronized (entry) {
+            for (Endpoint endpoint : entry.endpoints) {
+                if (endpoint.getPort() == port) {
+                    return endpoint;
+                }
+            }
+            Endpoint endpoint = new Endpoint(host, entry.address, port);
+            entry.endpoints.add(endpoint);
+            return endpoint;
+        }
+    }
+
+    /**
+     * Removes the host from the cache. Endpoints created for it keep their
+     * last address but are no longer updated.
+     *
+     * @param host The host name or ip address.
+     */
+    public void evict(String host) {
+        entries.remove(host);
+    }
+
+    /**
+     * @return the time in milliseconds after which an address is resolved
+     * again.
+     */
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * @return the time in milliseconds after which an unused host is
+     * evicted.
+     */
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    /**
+     * Stops re-resolving the cached host names in the background.
+     */
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+    }
+
+    private CachedHost entry(String host) throws UnknownHostException {
+        if (host == null) {
+            throw new UnknownHostException("No host given.");
+        }
+        CachedHost entry = entries.get(host);
+        if (entry == null) {
+            // resolve outside of the map to not block other hosts
+            CachedHost resolved = new CachedHost(InetAddress.getByName(host));
+            entry = entries.putIfAbsent(host, resolved);
+            if (entry == null) {
+                entry = resolved;
+            }
+        }
+        entry.usedAt = System.currentTimeMillis();
+        return entry;
+    }
+
+    /**
+     * Evicts the idle hosts and re-resolves every other host whose time to
+     * live has passed.
+     */
+    private void refresh() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, CachedHost> cached : entries.entrySet()) {
+            CachedHost entry = cached.getValue();
+            if (now - entry.usedAt >= idleMillis) {
+                // an endpoint is only added while holding the entry
+                synchronized (entry) {
+                    if (entry.endpoints.isEmpty()) {
+                        entries.remove(cached.getKey(), entry);
+                        continue;
+                    }
+                }
+            }
+            if (now - entry.resolvedAt < ttlMillis) {
+                continue;
+            }
+            try {
+                InetAddress address = InetAddress.getByName(cached.getKey());
+                entry.address = address;
+                for (Endpoint endpoint : entry.endpoints) {
+                    endpoint.update(address);
+                }
+            } catch (UnknownHostException e) {
+                System.err.println("Could not re-resolve " + cached.getKey() + ", keeping " + entry.address);
+            }
+            entry.resolvedAt = now;
+        }
+    }
+
+    /**
+     * The resolved address of a host and the endpoints following it.
+     */
+    private static final class CachedHost {
+        private final List<Endpoint> endpoints = new CopyOnWriteArrayList<>();
+        private volatile InetAddress address;
+        private volatile long resolvedAt;
+        private volatile long usedAt;
+
+        private CachedHost(InetAddress address) {
+            this.address = address;
+            this.resolvedAt = System.currentTimeMillis();
+            this.usedAt = resolvedAt;
+        }
+    }
+}
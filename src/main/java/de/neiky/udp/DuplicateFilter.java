@@ -0,0 +1,315 @@
+package de.neiky.udp;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drops messages a source sent more than once before they reach the handlers
+ * of a {@link UdpReceiver}, e.g. the retransmissions field devices send for
+ * robustness, see {@link UdpReceiver#setDuplicateFilter(DuplicateFilter)}.
+ * Every source gets a window of fixed size, so the memory is bounded by the
+ * window size times the number of sources:
+ * <ul>
+ * <li>{@link #bySequence(SequenceReader, int, long)} keys the messages on a
+ * sequence number the source writes into them. The window is a bitmap of the
+ * sequence numbers below the highest one received, in the style of the
+ * anti-replay window of IPsec: a sequence number that was received or is
+ * older than the window is dropped.</li>
+ * <li>{@link #byPayloadHash(int, long)} keys the messages on a 64 bit hash
+ * of their payload. The window holds the hashes of the last messages of the
+ * source; a message is dropped if the same payload arrived within the
+ * eviction time.</li>
+ * </ul>
+ * The window of a source that sent nothing for the eviction time is
+ * discarded, so a restarted device may start its sequence numbers anew. If
+ * the given number of sources is tracked already, the messages of a new
+ * source pass unfiltered.
+ *
+ * @author Michael Neike
+ */
+public final class DuplicateFilter {
+    /** Returned by a {@link SequenceReader} for a message without sequence number */
+    public static final long NO_SEQUENCE = -1L;
+    private static final int DEFAULT_MAX_SOURCES = 4096;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final SequenceReader sequenceReader;
+    private final int windowSize;
+    private final long evictionNanos;
+    private int maxSources = DEFAULT_MAX_SOURCES;
+    private final Map<InetSocketAddress, Window> windows = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+    private final LongAdder duplicates = new LongAdder();
+
+    private DuplicateFilter(SequenceReader sequenceReader, int windowSize, long evictionMillis) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size must be greater than 0.");
+        }
+        if (evictionMillis <= 0) {
+            throw new IllegalArgumentException("Eviction time must be positive.");
+        }
+        this.sequenceReader = sequenceReader;
+        this.windowSize = windowSize;
+        this.evictionNanos = TimeUnit.MILLISECONDS.toNanos(evictionMillis);
+    }
+
+    /**
+     * Creates a filter keyed on the sequence numbers of the messages.
+     *
+     * @param sequenceReader Reads the sequence number from a message.
+     * @param windowSize     The number of sequence numbers below the highest
+     *                       one that are remembered, rounded up to a multiple
+     *                       of 64.
+     * @param evictionMillis The time after which the window of an idle
+     *                       source is discarded, in milliseconds.
+     * @return the filter.
+     */
+    public static DuplicateFilter bySequence(SequenceReader sequenceReader, int windowSize, long evictionMillis) {
+        if (sequenceReader == null) {
+            throw new IllegalArgumentException("Given sequence reader must not be NULL.");
+        }
+        return new DuplicateFilter(sequenceReader, windowSize, evictionMillis);
+    }
+
+    /**
+     * Creates a filter keyed on a hash of the payloads of the messages.
+     *
+     * @param windowSize     The number of messages per source that are
+     *                       remembered.
+     * @param evictionMillis The time within which an equal payload is a
+     *                       duplicate, in milliseconds.
+     * @return the filter.
+     */
+    public static DuplicateFilter byPayloadHash(int windowSize, long evictionMillis) {
+        return new DuplicateFilter(null, windowSize, evictionMillis);
+    }
+
+    /**
+     * Sets the number of sources a window is kept for. Defaults to 4096.
+     *
+     * @param maxSources The number of sources.
+     * @return this DuplicateFilter.
+     */
+    public DuplicateFilter setMaxSources(int maxSources) {
+        if (maxSources <= 0) {
+            throw new IllegalArgumentException("Max sources must be greater than 0.");
+        }
+        this.maxSources = maxSources;
+
+        return this;
+    }
+
+    /**
+     * @return the number of messages dropped as duplicates.
+     */
+    public long getDuplicateCount() {
+        return duplicates.sum();
+    }
+
+    /**
+     * @return the number of sources a window is kept for.
+     */
+    public int getSourceCount() {
+        return windows.size();
+    }
+
+    /**
+     * Remembers the message and tells whether it is new.
+     *
+     * @param source  The remote address of the sender.
+     * @param payload The message, from its position to its limit. Its
+     *                position is not changed.
+     * @return <code>false</code> if the message is a duplicate.
+     */
+    boolean accept(InetSocketAddress source, ByteBuffer payload) {
+        long now = System.nanoTime();
+        long key;
+        if (sequenceReader != null) {
+            int position = payload.position();
+            key = sequenceReader.sequence(source, payload);
+            payload.position(position);
+            if (key < 0) {
+                return true;
+            }
+        } else {
+            key = hash(payload);
+        }
+        sweep(now);
+
+        Window window = windows.get(source);
+        if (window == null) {
+            if (windows.size() >= maxSources) {
+                return true;
+            }
+            window = windows.computeIfAbsent(source,
+                    address -> sequenceReader != null ? new SequenceWindow(windowSize) : new HashWindow(windowSize));
+        }
+        boolean accepted;
+        synchronized (window) {
+            if (now - window.lastSeen > evictionNanos) {
+                window.reset();
+            }
+            window.lastSeen = now;
+            accepted = window.mark(key, now);
+        }
+        if (!accepted) {
+            duplicates.increment();
+        }
+        return accepted;
+    }
+
+    /**
+     * Discards the windows of idle sources, at most once per eviction time.
+     */
+    private void sweep(long now) {
+        long next = nextSweep.get();
+        if (now - next < 0 || !nextSweep.compareAndSet(next, now + evictionNanos)) {
+            return;
+        }
+        windows.values().removeIf(window -> {
+            synchronized (window) {
+                return now - window.lastSeen > evictionNanos;
+            }
+        });
+    }
+
+    private static long hash(ByteBuffer payload) {
+        // FNV-1a
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = payload.position(); i < payload.limit(); i++) {
+            hash = (hash ^ (payload.get(i) & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Reads the sequence number from a received message.
+     */
+    @FunctionalInterface
+    public interface SequenceReader {
+        /**
+         * @param source  The remote address of the sender.
+         * @param payload The received message. Its position may be changed.
+         * @return the sequence number, or {@link DuplicateFilter#NO_SEQUENCE}
+         * (or any negative number) if the message has none and is not
+         * filtered.
+         */
+        long sequence(InetSocketAddress source, ByteBuffer payload);
+    }
+
+    /**
+     * The window of one source, guarded by its monitor.
+     */
+    private abstract static class Window {
+        private long lastSeen = System.nanoTime();
+
+        abstract void reset();
+
+        abstract boolean mark(long key, long now);
+    }
+
+    /**
+     * A bitmap of the sequence numbers below the highest one received. The
+     * bit of a sequence number is at its position modulo the window size, so
+     * sliding the window only clears the bits it passes.
+     */
+    private static final class SequenceWindow extends Window {
+        private final long[] bits;
+        private final int size;
+        private long highest = -1L;
+
+        private SequenceWindow(int windowSize) {
+            this.bits = new long[(windowSize + Long.SIZE - 1) / Long.SIZE];
+            this.size = bits.length * Long.SIZE;
+        }
+
+        @Override
+        void reset() {
+            highest = -1L;
+        }
+
+        @Override
+        boolean mark(long sequence, long now) {
+            if (highest < 0) {
+                Arrays.fill(bits, 0L);
+                highest = sequence;
+                set(sequence);
+                return true;
+            }
+            if (sequence > highest) {
+                if (sequence - highest >= size) {
+                    Arrays.fill(bits, 0L);
+                } else {
+                    for (long s = highest + 1; s < sequence; s++) {
+                        clear(s);
+                    }
+                }
+                highest = sequence;
+                set(sequence);
+                return true;
+            }
+            // older than the window or received before
+            if (highest - sequence >= size || isSet(sequence)) {
+                return false;
+            }
+            set(sequence);
+            return true;
+        }
+
+        private void set(long sequence) {
+            int bit = (int) (sequence % size);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+
+        private void clear(long sequence) {
+            int bit = (int) (sequence % size);
+            bits[bit >>> 6] &= ~(1L << bit);
+        }
+
+        private boolean isSet(long sequence) {
+            int bit = (int) (sequence % size);
+            return (bits[bit >>> 6] & (1L << bit)) != 0;
+        }
+    }
+
+    /**
+     * A ring of the hashes of the last messages and their arrival times.
+     */
+    private final class HashWindow extends Window {
+        private final long[] hashes;
+        private final long[] times;
+        private int next;
+        private int count;
+
+        private HashWindow(int windowSize) {
+            this.hashes = new long[windowSize];
+            this.times = new long[windowSize];
+        }
+
+        @Override
+        void reset() {
+            count = 0;
+        }
+
+        @Override
+        boolean mark(long hash, long now) {
+            for (int i = 0; i < count; i++) {
+                if (hashes[i] == hash && now - times[i] <= evictionNanos) {
+                    return false;
+                }
+            }
+            hashes[next] = hash;
+            times[next] = now;
+            next = next + 1 == hashes.length ? 0 : next + 1;
+            count = Math.min(count + 1, hashes.length);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package de.neiky.udp;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * A resolved destination of a {@link UdpSender}. An Endpoint is created once
+ * and passed to the send methods, so sending to it neither resolves a host
+ * name nor creates an address object.<br />
+ * Endpoints created by a {@link DestinationCache} follow the address of their
+ * host name when the cache re-resolves it in the background.
+ *
+ * @author Michael Neike
+ */
+public final class Endpoint {
+    private final String host;
+    private final int port;
+    private volatile InetSocketAddress address;
+
+    Endpoint(String host, InetAddress address, int port) {
+        if (port <= 0) {
+            throw new IllegalArgumentException("Port must be greater than 0.");
+        }
+        this.host = host;
+        this.port = port;
+        this.address = new InetSocketAddress(address, port);
+    }
+
+    /**
+     * Creates an endpoint for a fixed address.
+     *
+     * @param address The address of the destination.
+     * @param port    The port of the destination.
+     * @return the endpoint.
+     */
+    public static Endpoint of(InetAddress address, int port) {
+        if (address == null) {
+            throw new IllegalArgumentException("Address must not be NULL.");
+        }
+        return new Endpoint(null, address, port);
+    }
+
+    /**
+     * Creates an endpoint for a fixed, resolved socket address.
+     *
+     * @param address The socket address of the destination.
+     * @return the endpoint.
+     */
+    public static Endpoint of(InetSocketAddress address) {
+        if (address == null || address.isUnresolved()) {
+            throw new IllegalArgumentException("Address must be resolved.");
+        }
+        return new Endpoint(null, address.getAddress(), address.getPort());
+    }
+
+    /**
+     * @return the current socket address of the destination.
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the host name this endpoint was resolved from, or
+     * <code>null</code> if it was created for a fixed address.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return the port of the destination.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Points the endpoint to a new address, if it changed.
+     *
+     * @param resolved The new address of the host.
+     */
+    void update(InetAddress resolved) {
+        if (!resolved.equals(address.getAddress())) {
+            address = new InetSocketAddress(resolved, port);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return address.toString();
+    }
+}
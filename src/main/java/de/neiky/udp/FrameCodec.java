@@ -0,0 +1,37 @@
+package de.neiky.udp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Describes how messages are framed inside a datagram. A frame consists of a
+ * fixed-size header followed by the payload. A datagram may carry several
+ * frames back to back.
+ *
+ * @author Michael Neike
+ */
+public interface FrameCodec {
+    /**
+     * @return the number of bytes of the header preceding every payload.
+     */
+    int headerLength();
+
+    /**
+     * Writes the header of a frame at the given index without changing the
+     * position of the buffer.
+     *
+     * @param frame         The buffer the frame is written to.
+     * @param index         The index of the first header byte.
+     * @param payloadLength The number of payload bytes following the header.
+     */
+    void writeHeader(ByteBuffer frame, int index, int payloadLength);
+
+    /**
+     * Reads the header of the frame starting at the position of the buffer and
+     * moves the position to the first payload byte.
+     *
+     * @param datagram The received datagram.
+     * @return the number of payload bytes, or -1 if the header is invalid or
+     * announces more bytes than remaining in the datagram.
+     */
+    int readHeader(ByteBuffer datagram);
+}
@@ -0,0 +1,185 @@
+package de.neiky.udp;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import de.neiky.udp.BufferPool.PooledBuffer;
+
+/**
+ * A preallocated ring of receive buffers handing datagrams from one receiving
+ * thread to a pool of handler threads. The receiving thread writes directly
+ * into the slot it claimed, so a datagram is never copied on its way to the
+ * handler.<br />
+ * There must only be a single producer per ring; any number of consumers may
+ * take slots concurrently.
+ *
+ * @author Michael Neike
+ */
+final class HandoffRing {
+    private static final int FREE = 0;
+    private static final int PUBLISHED = 1;
+    private static final int CONSUMING = 2;
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = 50_000L;
+
+    private final PooledBuffer[] buffers;
+    private final InetSocketAddress[] sources;
+    private final AtomicIntegerArray states;
+    private final int mask;
+    private final BackpressurePolicy policy;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Constructor for HandoffRing.
+     *
+     * @param capacity   The number of slots, rounded up to the next power of
+     *                   two.
+     * @param bufferSize The capacity of every slot in bytes.
+     * @param policy     What to do when all slots are taken.
+     */
+    HandoffRing(int capacity, int bufferSize, BackpressurePolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Ring capacity must be greater than 0.");
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.buffers = new PooledBuffer[size];
+        this.sources = new InetSocketAddress[size];
+        this.states = new AtomicIntegerArray(size);
+        this.mask = size - 1;
+        this.policy = policy;
+
+        for (int i = 0; i < size; i++) {
+            buffers[i] = new PooledBuffer(ByteBuffer.allocateDirect(bufferSize));
+        }
+    }
+
+    /**
+     * Claims the next slot for writing. Must only be called by the producer.
+     *
+     * @return the index of the claimed slot, or -1 if the datagram has to be
+     * dropped or the calling thread was interrupted while waiting.
+     */
+    int claim() {
+        long position = head.get();
+        int index = (int) (position & mask);
+        int idle = 0;
+
+        while (states.get(index) != FREE) {
+            if (policy == BackpressurePolicy.DROP_NEWEST) {
+                dropped.incrementAndGet();
+                return -1;
+            }
+            if (policy == BackpressurePolicy.DROP_OLDEST) {
+                long oldest = position - buffers.length;
+                if (tail.compareAndSet(oldest, oldest + 1)) {
+                    // the slot was never taken by a consumer, reuse it
+                    dropped.incrementAndGet();
+                    states.set(index, FREE);
+                    break;
+                }
+            }
+            // the slot is being consumed, wait until it is released
+            if (Thread.currentThread().isInterrupted()) {
+                return -1;
+            }
+            idle = idle(idle);
+        }
+
+        return index;
+    }
+
+    /**
+     * @param index The index returned by {@link #claim()}.
+     * @return the buffer of the slot.
+     */
+    PooledBuffer buffer(int index) {
+        return buffers[index];
+    }
+
+    /**
+     * Makes a claimed slot visible to the consumers. Must only be called by
+     * the producer.
+     *
+     * @param index  The index returned by {@link #claim()}.
+     * @param source The remote address of the sender.
+     */
+    void publish(int index, InetSocketAddress source) {
+        sources[index] = source;
+        states.set(index, PUBLISHED);
+        head.lazySet(head.get() + 1);
+    }
+
+    /**
+     * Takes the oldest published slot and hands it to the handler, waiting
+     * for one to be published if the ring is empty.
+     *
+     * @param handler The handler to run for the datagram.
+     * @return <code>false</code> if the calling thread was interrupted while
+     * waiting.
+     */
+    boolean consume(Consumer handler) {
+        int idle = 0;
+        while (true) {
+            long position = tail.get();
+            if (position < head.get()) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    int index = (int) (position & mask);
+                    states.set(index, CONSUMING);
+                    try {
+                        handler.accept(sources[index], buffers[index]);
+                    } finally {
+                        states.set(index, FREE);
+                    }
+                    return true;
+                }
+            } else {
+                if (Thread.currentThread().isInterrupted()) {
+                    return false;
+                }
+                idle = idle(idle);
+            }
+        }
+    }
+
+    /**
+     * @return the number of datagrams waiting to be handled.
+     */
+    int depth() {
+        return (int) Math.max(0, head.get() - tail.get());
+    }
+
+    /**
+     * @return the number of datagrams dropped because the ring was full.
+     */
+    long dropped() {
+        return dropped.get();
+    }
+
+    private static int idle(int idle) {
+        if (idle < SPIN_TRIES) {
+            // busy spin
+        } else if (idle < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+            return idle;
+        }
+        return idle + 1;
+    }
+
+    /**
+     * Callback for a datagram taken from the ring.
+     */
+    @FunctionalInterface
+    interface Consumer {
+        void accept(InetSocketAddress source, PooledBuffer buffer);
+    }
+}
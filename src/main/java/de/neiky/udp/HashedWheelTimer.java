@@ -0,0 +1,159 @@
+package de.neiky.udp;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A timer for many short timeouts that are usually cancelled before they
+ * expire, in the style of Netty's HashedWheelTimer. Timeouts are hashed by
+ * their deadline into the buckets of a wheel, which a single thread advances
+ * by one bucket per tick, so adding and cancelling a timeout is O(1) and does
+ * not lock. A timeout expires up to one tick late.<br />
+ * New timeouts are handed to the wheel thread through a lock-free queue; a
+ * cancelled timeout stays in its bucket until the wheel passes it.
+ *
+ * @author Michael Neike
+ */
+final class HashedWheelTimer {
+    private final long tickNanos;
+    private final Timeout[] wheel;
+    private final int mask;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private final long start = System.nanoTime();
+    private volatile boolean stopped;
+
+    /**
+     * Constructor for HashedWheelTimer, starts the wheel thread.
+     *
+     * @param tick      The duration of a tick.
+     * @param unit      The unit of the tick.
+     * @param wheelSize The number of buckets, rounded up to a power of two.
+     * @param name      The name of the wheel thread.
+     */
+    HashedWheelTimer(long tick, TimeUnit unit, int wheelSize, String name) {
+        if (tick <= 0) {
+            throw new IllegalArgumentException("Tick must be positive.");
+        }
+        if (wheelSize <= 0 || wheelSize > 1 << 20) {
+            throw new IllegalArgumentException("Wheel size must be between 1 and " + (1 << 20) + ".");
+        }
+        this.tickNanos = unit.toNanos(tick);
+        int size = Integer.highestOneBit(wheelSize * 2 - 1);
+        this.wheel = new Timeout[size];
+        this.mask = size - 1;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Schedules a task.
+     *
+     * @param task  The task, run on the wheel thread, so it must not block.
+     * @param delay The delay.
+     * @param unit  The unit of the delay.
+     * @return the timeout, which can be cancelled.
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (stopped) {
+            throw new IllegalStateException("Timer is stopped.");
+        }
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(delay));
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the wheel thread. Pending timeouts do not expire anymore.
+     */
+    void stop() {
+        stopped = true;
+        thread.interrupt();
+    }
+
+    private void run() {
+        long tick = 0;
+        while (!stopped) {
+            long deadline = start + (tick + 1) * tickNanos;
+            long wait;
+            while ((wait = deadline - System.nanoTime()) > 0 && !stopped) {
+                LockSupport.parkNanos(wait);
+            }
+            if (stopped) {
+                return;
+            }
+            transferAdded(tick);
+            expire(tick & mask);
+            tick++;
+        }
+    }
+
+    private void transferAdded(long tick) {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long ticks = Math.max(tick, (timeout.deadline - start) / tickNanos);
+            timeout.rounds = (ticks - tick) / wheel.length;
+            int bucket = (int) (ticks & mask);
+            timeout.next = wheel[bucket];
+            wheel[bucket] = timeout;
+        }
+    }
+
+    private void expire(long bucket) {
+        Timeout previous = null;
+        Timeout timeout = wheel[(int) bucket];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            boolean remove = timeout.cancelled || timeout.rounds <= 0;
+            if (remove) {
+                if (previous == null) {
+                    wheel[(int) bucket] = next;
+                } else {
+                    previous.next = next;
+                }
+                timeout.next = null;
+                if (!timeout.cancelled) {
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        System.err.println(e.getMessage());
+                    }
+                }
+            } else {
+                timeout.rounds--;
+                previous = timeout;
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * A scheduled task.
+     */
+    static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        /** the number of wheel turns left, owned by the wheel thread */
+        private long rounds;
+        private Timeout next;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the task, if it did not run yet.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package de.neiky.udp;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Routes messages by an unsigned one or two byte field at a fixed offset of
+ * the message, e.g. a message type. The handlers are kept in an array
+ * indexed by the value of the field, so a lookup is a single array access.
+ * The handler gets the whole message, the field included. A message too
+ * short to hold the field has no route; see {@link Router}.
+ *
+ * @author Michael Neike
+ */
+public class HeaderRouter extends Router {
+    private final int offset;
+    private final int width;
+    private volatile UdpReceiver.BufferHandler[] routes;
+
+    /**
+     * Constructor for HeaderRouter.
+     *
+     * @param offset The offset of the field from the start of the message.
+     * @param width  The length of the field, 1 or 2 bytes. A two byte field is
+     *               read in network byte order.
+     */
+    public HeaderRouter(int offset, int width) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative.");
+        }
+        if (width != 1 && width != 2) {
+            throw new IllegalArgumentException("Width must be 1 or 2 bytes.");
+        }
+        this.offset = offset;
+        this.width = width;
+        this.routes = new UdpReceiver.BufferHandler[1 << (8 * width)];
+    }
+
+    /**
+     * Adds or replaces the route for a value of the field.
+     *
+     * @param value   The value of the field.
+     * @param handler The handler of the messages.
+     * @return this HeaderRouter.
+     */
+    public synchronized HeaderRouter addRoute(int value, UdpReceiver.BufferHandler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("Given handler must not be NULL.");
+        }
+        checkValue(value);
+        UdpReceiver.BufferHandler[] copy = routes.clone();
+        copy[value] = handler;
+        routes = copy;
+
+        return this;
+    }
+
+    /**
+     * @param value The value of the field to remove the route of.
+     * @return this HeaderRouter.
+     */
+    public synchronized HeaderRouter removeRoute(int value) {
+        checkValue(value);
+        if (routes[value] != null) {
+            UdpReceiver.BufferHandler[] copy = routes.clone();
+            copy[value] = null;
+            routes = copy;
+        }
+
+        return this;
+    }
+
+    @Override
+    protected UdpReceiver.BufferHandler route(InetSocketAddress source, ByteBuffer payload) {
+        if (payload.remaining() < offset + width) {
+            return null;
+        }
+        int index = payload.position() + offset;
+        int value = width == 1 ? payload.get(index) & 0xFF : payload.getShort(index) & 0xFFFF;
+        return routes[value];
+    }
+
+    private void checkValue(int value) {
+        if (value < 0 || value >= routes.length) {
+            throw new IllegalArgumentException("Value must be between 0 and " + (routes.length - 1) + ".");
+        }
+    }
+}
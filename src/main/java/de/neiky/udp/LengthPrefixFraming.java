@@ -0,0 +1,35 @@
+package de.neiky.udp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames every message with a 4 byte big-endian header holding the number of
+ * payload bytes.
+ *
+ * @author Michael Neike
+ */
+public final class LengthPrefixFraming implements FrameCodec {
+    private static final int HEADER_LENGTH = 4;
+
+    @Override
+    public int headerLength() {
+        return HEADER_LENGTH;
+    }
+
+    @Override
+    public void writeHeader(ByteBuffer frame, int index, int payloadLength) {
+        frame.putInt(index, payloadLength);
+    }
+
+    @Override
+    public int readHeader(ByteBuffer datagram) {
+        if (datagram.remaining() < HEADER_LENGTH) {
+            return -1;
+        }
+        int length = datagram.getInt();
+        if (length < 0 || length > datagram.remaining()) {
+            return -1;
+        }
+        return length;
+    }
+}
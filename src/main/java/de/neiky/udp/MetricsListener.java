@@ -0,0 +1,67 @@
+package de.neiky.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Receives the events counted by {@link UdpMetrics}, e.g. to forward them to
+ * a metrics library. The methods are called on the sending, receiving and
+ * handler threads and have to return quickly. All methods do nothing by
+ * default.
+ *
+ * @author Michael Neike
+ */
+public interface MetricsListener {
+    /**
+     * Called after a datagram was sent.
+     *
+     * @param target The address of the destination.
+     * @param bytes  The number of bytes sent.
+     */
+    default void datagramSent(InetSocketAddress target, int bytes) {
+    }
+
+    /**
+     * Called if a datagram could not be sent.
+     *
+     * @param target The address of the destination.
+     * @param cause  The error.
+     */
+    default void sendFailed(InetSocketAddress target, IOException cause) {
+    }
+
+    /**
+     * Called after a datagram was received, before it is handled.
+     *
+     * @param source The remote address of the sender.
+     * @param bytes  The number of bytes received.
+     */
+    default void datagramReceived(InetSocketAddress source, int bytes) {
+    }
+
+    /**
+     * Called if receiving failed.
+     *
+     * @param cause The error.
+     */
+    default void receiveFailed(IOException cause) {
+    }
+
+    /**
+     * Called if a datagram was discarded because it was larger than the max
+     * datagram size of the receiver.
+     *
+     * @param source The remote address of the sender.
+     */
+    default void datagramTruncated(InetSocketAddress source) {
+    }
+
+    /**
+     * Called after the handlers handled a datagram.
+     *
+     * @param source The remote address of the sender.
+     * @param nanos  The time the handlers took.
+     */
+    default void datagramHandled(InetSocketAddress source, long nanos) {
+    }
+}
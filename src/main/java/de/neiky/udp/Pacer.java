@@ -0,0 +1,298 @@
+package de.neiky.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the datagrams a {@link UdpSender} sends to each destination to a
+ * rate with a burst, using a token bucket per destination in the form of the
+ * generic cell rate algorithm: a datagram conforms if it is not earlier than
+ * its theoretical send time minus the burst tolerance. A conforming datagram
+ * is written by the calling thread at once. Any other datagram is copied
+ * into a bounded queue of its destination and written by the scheduler
+ * thread when it conforms, so the queued datagrams leave evenly spaced and
+ * the caller never waits. The future of an asynchronously sent datagram is
+ * completed once the datagram was written, and completed exceptionally if it
+ * was dropped from a full queue or discarded when the sender was closed.
+ *
+ * @author Michael Neike
+ */
+final class Pacer {
+    private final UdpSender sender;
+    private final ScheduledExecutorService scheduler;
+    private final Rate defaultRate;
+    private final Map<InetSocketAddress, Rate> rates = new ConcurrentHashMap<>();
+    private final Map<InetSocketAddress, Bucket> buckets = new ConcurrentHashMap<>();
+    private final int queueCapacity;
+    private final BackpressurePolicy policy;
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Constructor for Pacer.
+     *
+     * @param sender        The sender the queued datagrams are written with.
+     * @param scheduler     The scheduler writing the queued datagrams.
+     * @param ratePerSecond The datagrams per second sent to a destination.
+     * @param burst         The datagrams sent back to back before pacing.
+     * @param queueCapacity The datagrams queued per destination.
+     * @param policy        What happens to a datagram if the queue is full,
+     *                      {@link BackpressurePolicy#DROP_NEWEST} or
+     *                      {@link BackpressurePolicy#DROP_OLDEST}.
+     */
+    Pacer(UdpSender sender, ScheduledExecutorService scheduler, double ratePerSecond, int burst,
+          int queueCapacity, BackpressurePolicy policy) {
+        this.sender = sender;
+        this.scheduler = scheduler;
+        this.defaultRate = new Rate(ratePerSecond, burst);
+        this.queueCapacity = queueCapacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Sets the rate of one destination. Takes effect for the next datagram to
+     * the destination that finds no bucket, i.e. before the first datagram.
+     *
+     * @param target        The destination.
+     * @param ratePerSecond The datagrams per second.
+     * @param burst         The datagrams sent back to back before pacing.
+     */
+    void setRate(InetSocketAddress target, double ratePerSecond, int burst) {
+        rates.put(target, new Rate(ratePerSecond, burst));
+        buckets.remove(target);
+    }
+
+    /**
+     * Writes the datagram now if it conforms, otherwise queues a copy.
+     *
+     * @param channel  The channel to write a conforming datagram to.
+     * @param datagram The datagram, from its position to its limit.
+     * @param target   The address of the destination.
+     * @param future   Completed once the datagram was written, or
+     *                 <code>null</code>.
+     * @throws IOException if an I/O error occurs.
+     */
+    void send(SendChannel channel, ByteBuffer datagram, InetSocketAddress target,
+              CompletableFuture<UdpSender> future) throws IOException {
+        if (!trySend(channel, datagram, target, future)) {
+            channel.write(datagram, target);
+            complete(future);
+        }
+    }
+
+    /**
+     * Writes the datagram now if it conforms and the send buffer has room,
+     * otherwise queues a copy if it does not conform. Never waits for the
+     * socket.
+     *
+     * @param channel  The channel to write a conforming datagram to.
+     * @param datagram The datagram, from its position to its limit.
+     * @param target   The address of the destination.
+     * @param future   Completed once the datagram was written, or
+     *                 <code>null</code>.
+     * @return <code>false</code> if the datagram conforms but the send buffer
+     * is full; the caller has to write it and complete the future then.
+     * @throws IOException if an I/O error occurs.
+     */
+    boolean trySend(SendChannel channel, ByteBuffer datagram, InetSocketAddress target,
+                    CompletableFuture<UdpSender> future) throws IOException {
+        Bucket bucket = buckets.get(target);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(target, key -> new Bucket(key, rates.getOrDefault(key, defaultRate)));
+        }
+        if (bucket.tryAcquire()) {
+            if (!channel.tryWrite(datagram, target)) {
+                return false;
+            }
+            complete(future);
+            return true;
+        }
+        bucket.enqueue(datagram, future);
+        return true;
+    }
+
+    /**
+     * Discards the queued datagrams, once the sender is closed.
+     */
+    void close() {
+        for (Bucket bucket : buckets.values()) {
+            bucket.discard();
+        }
+    }
+
+    /**
+     * @return the number of datagrams discarded because a queue was full.
+     */
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the number of datagrams waiting in the queues.
+     */
+    int getQueueDepth() {
+        int depth = 0;
+        for (Bucket bucket : buckets.values()) {
+            depth += bucket.size();
+        }
+        return depth;
+    }
+
+    private void complete(CompletableFuture<UdpSender> future) {
+        if (future != null) {
+            future.complete(sender);
+        }
+    }
+
+    /**
+     * The spacing and the tolerance derived from a rate and a burst.
+     */
+    private static final class Rate {
+        private final long intervalNanos;
+        private final long toleranceNanos;
+
+        private Rate(double ratePerSecond, int burst) {
+            if (ratePerSecond <= 0.0) {
+                throw new IllegalArgumentException("Rate must be greater than 0.");
+            }
+            if (burst < 1) {
+                throw new IllegalArgumentException("Burst must be at least 1.");
+            }
+            this.intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+            this.toleranceNanos = (burst - 1) * intervalNanos;
+        }
+    }
+
+    /**
+     * A queued datagram and the future of its sender, if any.
+     */
+    private static final class Queued {
+        private final ByteBuffer datagram;
+        private final CompletableFuture<UdpSender> future;
+
+        private Queued(ByteBuffer datagram, CompletableFuture<UdpSender> future) {
+            this.datagram = datagram;
+            this.future = future;
+        }
+
+        private void fail(IOException cause) {
+            if (future != null) {
+                future.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * The token bucket and the queue of one destination.
+     */
+    private final class Bucket {
+        private final InetSocketAddress target;
+        private final Rate rate;
+        private final ArrayDeque<Queued> queue = new ArrayDeque<>();
+        /** the theoretical send time of the next datagram */
+        private long next = System.nanoTime();
+        private boolean scheduled;
+
+        private Bucket(InetSocketAddress target, Rate rate) {
+            this.target = target;
+            this.rate = rate;
+        }
+
+        private synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+            // queued datagrams go first, so the order is kept
+            if (!queue.isEmpty() || next - rate.toleranceNanos - now > 0) {
+                return false;
+            }
+            take(now);
+            return true;
+        }
+
+        private synchronized void enqueue(ByteBuffer datagram, CompletableFuture<UdpSender> future) {
+            if (queue.size() >= queueCapacity) {
+                dropped.increment();
+                IOException cause = new IOException("Datagram to " + target + " was dropped, the pacing queue is full.");
+                if (policy == BackpressurePolicy.DROP_NEWEST) {
+                    if (future != null) {
+                        future.completeExceptionally(cause);
+                    }
+                    return;
+                }
+                queue.poll().fail(cause);
+            }
+            // the datagram may live in a buffer of the calling thread
+            ByteBuffer copy = ByteBuffer.allocate(datagram.remaining()).put(datagram.duplicate());
+            copy.flip();
+            queue.add(new Queued(copy, future));
+            if (!scheduled) {
+                scheduled = true;
+                schedule(next - rate.toleranceNanos - System.nanoTime());
+            }
+        }
+
+        private synchronized int size() {
+            return queue.size();
+        }
+
+        private void drain() {
+            while (true) {
+                Queued queued;
+                synchronized (this) {
+                    if (queue.isEmpty()) {
+                        scheduled = false;
+                        return;
+                    }
+                    long now = System.nanoTime();
+                    long wait = next - rate.toleranceNanos - now;
+                    if (wait > 0) {
+                        schedule(wait);
+                        return;
+                    }
+                    queued = queue.poll();
+                    take(now);
+                }
+                try {
+                    sender.writeDatagram(queued.datagram, target);
+                    complete(queued.future);
+                } catch (IOException e) {
+                    if (queued.future != null) {
+                        queued.future.completeExceptionally(e);
+                    } else {
+                        System.err.println(e.getMessage());
+                    }
+                }
+            }
+        }
+
+        private void take(long now) {
+            next = Math.max(next, now) + rate.intervalNanos;
+        }
+
+        private void schedule(long delayNanos) {
+            try {
+                scheduler.schedule(this::drain, Math.max(0L, delayNanos), TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // the sender is closing, the queued datagrams are discarded
+                discard();
+            }
+        }
+
+        private synchronized void discard() {
+            IOException cause = new SocketException("Sender is closed.");
+            for (Queued queued : queue) {
+                queued.fail(cause);
+            }
+            queue.clear();
+            scheduled = false;
+        }
+    }
+}
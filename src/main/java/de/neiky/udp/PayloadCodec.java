@@ -0,0 +1,47 @@
+package de.neiky.udp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Transforms the payload of every message a {@link UdpSender} sends and back
+ * on the {@link UdpReceiver}, e.g. to compress large messages, see
+ * {@link UdpSender#setPayloadCodec(PayloadCodec, int)} and
+ * {@link UdpReceiver#setPayloadCodecs(int, PayloadCodec...)}.<br />
+ * Every message starts with a flag byte: 0 for a payload sent as it is,
+ * otherwise the id of the codec that encoded it. The sender decides per
+ * message, so the receiver only needs to know the codec, not which messages
+ * it was applied to. Implementations have to be thread-safe.
+ *
+ * @author Michael Neike
+ */
+public interface PayloadCodec {
+    /** The flag byte of a payload sent as it is */
+    int RAW = 0;
+
+    /**
+     * @return the flag byte of the messages encoded by this codec, between 1
+     * and 255.
+     */
+    int id();
+
+    /**
+     * Encodes the payload into the target.
+     *
+     * @param payload The payload, from its position to its limit. Its
+     *                position may be changed.
+     * @param target  The buffer to write to, from its position to its limit.
+     * @return <code>false</code> if the encoded payload does not fit, in
+     * which case the payload is sent as it is.
+     */
+    boolean encode(ByteBuffer payload, ByteBuffer target);
+
+    /**
+     * Decodes an encoded payload into the target.
+     *
+     * @param encoded The encoded payload, from its position to its limit. Its
+     *                position may be changed.
+     * @param target  The buffer to write to, from its position to its limit.
+     * @return <code>false</code> if the payload is invalid or does not fit.
+     */
+    boolean decode(ByteBuffer encoded, ByteBuffer target);
+}
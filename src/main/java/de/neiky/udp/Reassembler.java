@@ -0,0 +1,203 @@
+package de.neiky.udp;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reassembles messages the {@link UdpSender} split into fragments, see
+ * {@link UdpSender#setFragmentSize(int)}. Every fragment starts with a 12 byte
+ * header: the message id, the total length of the message, the index of the
+ * fragment and the number of fragments. All fragments but the last one carry
+ * the same number of bytes.<br />
+ * Any number of messages per sender may be incomplete at the same time. The
+ * memory held by incomplete messages is bounded; if a new message does not
+ * fit, the oldest incomplete messages are evicted. Incomplete messages are
+ * evicted as well once their timeout expired.
+ *
+ * @author Michael Neike
+ */
+final class Reassembler {
+    static final int HEADER_LENGTH = 12;
+    static final int MAX_FRAGMENTS = 0xFFFF;
+    static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    static final long DEFAULT_TIMEOUT_MILLIS = 1000L;
+
+    private final int maxBytes;
+    private final long timeoutNanos;
+    /** in the order the messages were started, which is the order they expire */
+    private final Map<Key, Partial> partials = new LinkedHashMap<>();
+    private final AtomicLong invalid = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private long bytesInUse;
+
+    Reassembler(int maxBytes, long timeoutMillis) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Reassembly memory must be greater than 0.");
+        }
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Reassembly timeout must be greater than 0.");
+        }
+        this.maxBytes = maxBytes;
+        this.timeoutNanos = timeoutMillis * 1_000_000L;
+    }
+
+    /**
+     * Adds a fragment. A message consisting of one fragment is returned
+     * without being copied.
+     *
+     * @param source   The remote address of the sender.
+     * @param datagram The fragment, from its position to its limit.
+     * @return the complete message, from its position to its limit, or null
+     * if the message is incomplete or the fragment is invalid.
+     */
+    ByteBuffer add(InetSocketAddress source, ByteBuffer datagram) {
+        if (datagram.remaining() < HEADER_LENGTH) {
+            invalid.incrementAndGet();
+            return null;
+        }
+        int id = datagram.getInt();
+        int total = datagram.getInt();
+        int index = datagram.getShort() & 0xFFFF;
+        int count = datagram.getShort() & 0xFFFF;
+        int length = datagram.remaining();
+        if (count == 1 && index == 0 && total == length) {
+            return datagram;
+        }
+        // all fragments but the last one have the same length
+        long offset = index == count - 1 ? total - length : (long) index * length;
+        if (count <= 1 || index >= count || total > maxBytes || offset < 0 || offset + length > total
+                || (index < count - 1 && (long) length * (count - 1) >= total)) {
+            invalid.incrementAndGet();
+            return null;
+        }
+
+        long now = System.nanoTime();
+        Key key = new Key(source, id);
+        synchronized (this) {
+            evictExpired(now);
+            Partial partial = partials.get(key);
+            if (partial == null) {
+                while (bytesInUse + total > maxBytes && !partials.isEmpty()) {
+                    evictEldest();
+                }
+                partial = new Partial(total, count, now + timeoutNanos);
+                partials.put(key, partial);
+                bytesInUse += total;
+            } else if (partial.data.length != total || partial.count != count) {
+                invalid.incrementAndGet();
+                return null;
+            }
+
+            if (!partial.mark(index)) {
+                // duplicate fragment
+                return null;
+            }
+            datagram.get(partial.data, (int) offset, length);
+            if (--partial.missing > 0) {
+                return null;
+            }
+            partials.remove(key);
+            bytesInUse -= total;
+            return ByteBuffer.wrap(partial.data).asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * @return the number of invalid fragments.
+     */
+    long invalid() {
+        return invalid.get();
+    }
+
+    /**
+     * @return the number of incomplete messages evicted because of the
+     * timeout or the memory limit.
+     */
+    long evicted() {
+        return evicted.get();
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Partial> iterator = partials.values().iterator();
+        while (iterator.hasNext()) {
+            Partial partial = iterator.next();
+            if (partial.deadline - now > 0) {
+                return;
+            }
+            iterator.remove();
+            bytesInUse -= partial.data.length;
+            evicted.incrementAndGet();
+        }
+    }
+
+    private void evictEldest() {
+        Iterator<Partial> iterator = partials.values().iterator();
+        Partial partial = iterator.next();
+        iterator.remove();
+        bytesInUse -= partial.data.length;
+        evicted.incrementAndGet();
+    }
+
+    /**
+     * Identifies a message by its sender and id.
+     */
+    private static final class Key {
+        private final InetSocketAddress source;
+        private final int id;
+
+        private Key(InetSocketAddress source, int id) {
+            this.source = source;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return id == key.id && source.equals(key.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * source.hashCode() + id;
+        }
+    }
+
+    /**
+     * An incomplete message.
+     */
+    private static final class Partial {
+        private final byte[] data;
+        private final long[] received;
+        private final int count;
+        private final long deadline;
+        private int missing;
+
+        private Partial(int total, int count, long deadline) {
+            this.data = new byte[total];
+            this.count = count;
+            this.received = new long[(count + Long.SIZE - 1) / Long.SIZE];
+            this.deadline = deadline;
+            this.missing = count;
+        }
+
+        /**
+         * @return <code>false</code> if the fragment was received before.
+         */
+        private boolean mark(int index) {
+            long bit = 1L << (index & (Long.SIZE - 1));
+            int word = index / Long.SIZE;
+            if ((received[word] & bit) != 0) {
+                return false;
+            }
+            received[word] |= bit;
+            return true;
+        }
+    }
+}
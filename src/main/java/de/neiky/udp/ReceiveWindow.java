@@ -0,0 +1,81 @@
+package de.neiky.udp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Remembers which sequence numbers of one reliable sender were received, to
+ * suppress duplicates and to build the selective acknowledgements. Everything
+ * up to the cumulative sequence number was received; a bitmap covers the
+ * {@value ReliableSender#MAX_WINDOW_SIZE} sequence numbers above it. The
+ * window of the sender never reaches beyond the bitmap. Sessions are
+ * compared in serial number arithmetic, so a late datagram of an older
+ * session is dropped instead of restarting the window.<br />
+ * Not thread safe; the receiver synchronizes on the window.
+ *
+ * @author Michael Neike
+ */
+final class ReceiveWindow {
+    private int session;
+    private int cumulative;
+    /** bit i is set if cumulative + 1 + i was received */
+    private long received;
+    /** the time the last datagram was marked, in nanoseconds */
+    long lastSeen = System.nanoTime();
+
+    /**
+     * Marks the sequence number as received. A sender that started a newer
+     * session restarts the window.
+     *
+     * @param session  The session of the sender.
+     * @param sequence The sequence number.
+     * @return <code>false</code> if the sequence number was received before
+     * or belongs to an older session.
+     */
+    boolean mark(int session, int sequence) {
+        if (session != this.session) {
+            if (this.session != 0 && session - this.session < 0) {
+                return false;
+            }
+            this.session = session;
+            this.cumulative = 0;
+            this.received = 0L;
+        }
+        int distance = sequence - cumulative - 1;
+        if (distance < 0) {
+            return false;
+        }
+        if (distance >= ReliableSender.MAX_WINDOW_SIZE) {
+            // only possible if the sender exceeds its window
+            int shift = distance - ReliableSender.MAX_WINDOW_SIZE + 1;
+            received = shift >= Long.SIZE ? 0L : received >>> shift;
+            cumulative += shift;
+            distance -= shift;
+        }
+        long bit = 1L << distance;
+        if ((received & bit) != 0) {
+            return false;
+        }
+        received |= bit;
+        // advance over the received sequence numbers following the cumulative one
+        int advance = Long.numberOfTrailingZeros(~received);
+        if (advance > 0) {
+            received = advance >= Long.SIZE ? 0L : received >>> advance;
+            cumulative += advance;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the acknowledgement for the current state of the window.
+     *
+     * @param ack The buffer to write to; it is cleared and flipped.
+     */
+    void writeAck(ByteBuffer ack) {
+        ack.clear();
+        ack.put(ReliableSender.ACK);
+        ack.putInt(session);
+        ack.putInt(cumulative);
+        ack.putLong(received);
+        ack.flip();
+    }
+}
@@ -0,0 +1,188 @@
+package de.neiky.udp;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A received message as a {@link CharSequence} over the receive buffer. The
+ * payload is only decoded when characters are accessed for the first time,
+ * and a payload consisting of ASCII characters only is read straight from the
+ * receive buffer without being decoded at all if the charset is UTF-8 or
+ * US-ASCII. A {@link String} is only created by {@link #toString()}.<br />
+ * An instance is reused for the next message, so it is only valid while the
+ * handler it was passed to is running.
+ *
+ * @author Michael Neike
+ */
+public final class ReceivedText implements CharSequence {
+    private final Charset charset;
+    private final CharsetDecoder decoder;
+    private final boolean asciiCompatible;
+    private CharBuffer chars;
+    private ByteBuffer payload;
+    private int start;
+    private int byteLength;
+    private boolean ascii;
+    private boolean decoded;
+
+    ReceivedText(Charset charset, int capacity) {
+        this.charset = charset;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.asciiCompatible = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII);
+        this.chars = CharBuffer.allocate(capacity);
+    }
+
+    /**
+     * Points this text to a new payload. Does not decode anything.
+     *
+     * @param payload The payload, from its position to its limit.
+     * @return this ReceivedText.
+     */
+    ReceivedText reset(ByteBuffer payload) {
+        this.payload = payload;
+        this.start = payload.position();
+        this.byteLength = payload.remaining();
+        this.decoded = false;
+
+        return this;
+    }
+
+    /**
+     * @return the charset the payload is decoded with.
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return a read-only view on the undecoded payload.
+     */
+    public ByteBuffer getPayload() {
+        ByteBuffer view = payload.asReadOnlyBuffer();
+        view.limit(start + byteLength).position(start);
+        return view;
+    }
+
+    @Override
+    public int length() {
+        decode();
+        return ascii ? byteLength : chars.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        decode();
+        if (ascii) {
+            if (index < 0 || index >= byteLength) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", length: " + byteLength);
+            }
+            return (char) payload.get(start + index);
+        }
+        return chars.get(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        decode();
+        if (ascii) {
+            return toString().substring(start, end);
+        }
+        return chars.subSequence(start, end);
+    }
+
+    /**
+     * Compares the text to the given characters without creating a string.
+     *
+     * @param other The characters to compare to.
+     * @return whether both contain the same characters.
+     */
+    public boolean contentEquals(CharSequence other) {
+        int length = length();
+        if (other.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (charAt(i) != other.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Searches the text for the given characters without creating a string.
+     *
+     * @param other The characters to search for.
+     * @return the index of the first occurrence, or -1.
+     */
+    public int indexOf(CharSequence other) {
+        int length = length();
+        int otherLength = other.length();
+        outer:
+        for (int i = 0; i <= length - otherLength; i++) {
+            for (int j = 0; j < otherLength; j++) {
+                if (charAt(i + j) != other.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Materializes the text as a string.
+     *
+     * @return the text.
+     */
+    @Override
+    public String toString() {
+        decode();
+        if (ascii) {
+            byte[] bytes = new byte[byteLength];
+            for (int i = 0; i < byteLength; i++) {
+                bytes[i] = payload.get(start + i);
+            }
+            return new String(bytes, StandardCharsets.US_ASCII);
+        }
+        return chars.toString();
+    }
+
+    private void decode() {
+        if (decoded) {
+            return;
+        }
+        decoded = true;
+
+        ascii = asciiCompatible;
+        for (int i = 0; ascii && i < byteLength; i++) {
+            ascii = payload.get(start + i) >= 0;
+        }
+        if (ascii) {
+            return;
+        }
+
+        int required = (int) Math.ceil(byteLength * (double) decoder.maxCharsPerByte());
+        if (chars.capacity() < required) {
+            chars = CharBuffer.allocate(required);
+        }
+        chars.clear();
+        int position = payload.position();
+        int limit = payload.limit();
+        payload.limit(start + byteLength).position(start);
+        decoder.reset();
+        CoderResult result = decoder.decode(payload, chars, true);
+        if (!result.isOverflow()) {
+            decoder.flush(chars);
+        }
+        payload.limit(limit).position(position);
+        chars.flip();
+    }
+}
@@ -0,0 +1,533 @@
+package de.neiky.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends messages over a {@link UdpSender} and retransmits them until the
+ * receiver acknowledged them. The receiver has to be switched to reliable
+ * delivery, see {@link UdpReceiver#setReliable(boolean)}.<br />
+ * Every destination gets its own sequence numbers and a sliding window of
+ * messages in flight, so sending does not wait for the acknowledgement of the
+ * previous message. The receiver acknowledges every message with the highest
+ * sequence number up to which it received everything plus a bitmap of the
+ * messages received beyond it, so only messages that were really lost are
+ * retransmitted. The retransmission timeout adapts to the measured round trip
+ * time (RFC 6298) and is doubled for every retransmission of a message.<br />
+ * The state of a destination without messages in flight is discarded once
+ * nothing was sent to it for a minute. Sending to it again starts a new
+ * session, which is newer than all sessions started before, so the receiver
+ * restarts its window but drops late datagrams of the older sessions.<br />
+ * The receiver suppresses duplicates, so every message is handed to its
+ * handlers exactly once, but not necessarily in the order it was sent.<br />
+ * Acknowledgements are read and retransmissions are scheduled by one thread
+ * started with the first message.
+ *
+ * @author Michael Neike
+ */
+public class ReliableSender implements AutoCloseable {
+    /** the largest window the acknowledgement bitmap can cover */
+    public static final int MAX_WINDOW_SIZE = 64;
+
+    static final byte DATA = 1;
+    static final byte ACK = 2;
+    static final int DATA_HEADER_LENGTH = 9;
+    static final int ACK_LENGTH = 17;
+
+    private static final int DEFAULT_WINDOW_SIZE = 32;
+    private static final int DEFAULT_MAX_RETRANSMISSIONS = 10;
+    private static final long DEFAULT_INITIAL_RTO_MILLIS = 200L;
+    private static final long MIN_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long MAX_RTO_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long IDLE_WAIT_MILLIS = 1000L;
+    private static final long PEER_IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final AtomicInteger LAST_SESSION = new AtomicInteger();
+
+    private final UdpSender sender;
+    private final Map<InetSocketAddress, Peer> peers = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+    private final LongAdder retransmissions = new LongAdder();
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+    private int maxRetransmissions = DEFAULT_MAX_RETRANSMISSIONS;
+    private long initialRtoNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_INITIAL_RTO_MILLIS);
+    private volatile Selector selector;
+    private Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * Constructor for ReliableSender.
+     *
+     * @param sender The sender the messages and retransmissions are sent
+     *               with. Its frame codec, if any, frames every message.
+     */
+    public ReliableSender(UdpSender sender) {
+        if (sender == null) {
+            throw new IllegalArgumentException("Given sender must not be NULL.");
+        }
+        this.sender = sender;
+    }
+
+    /**
+     * Sets the number of messages per destination that may be in flight
+     * without being acknowledged. A message sent while the window is full
+     * waits for an acknowledgement. Has no effect on destinations that were
+     * already sent to.
+     *
+     * @param windowSize The window size, at most {@value #MAX_WINDOW_SIZE}.
+     * @return this ReliableSender.
+     */
+    public ReliableSender setWindowSize(int windowSize) {
+        if (windowSize <= 0 || windowSize > MAX_WINDOW_SIZE) {
+            throw new IllegalArgumentException("Window size must be between 1 and " + MAX_WINDOW_SIZE + ".");
+        }
+        this.windowSize = windowSize;
+
+        return this;
+    }
+
+    /**
+     * Sets how often a message is retransmitted before its future fails.
+     *
+     * @param maxRetransmissions The number of retransmissions.
+     * @return this ReliableSender.
+     */
+    public ReliableSender setMaxRetransmissions(int maxRetransmissions) {
+        if (maxRetransmissions < 0) {
+            throw new IllegalArgumentException("Number of retransmissions must not be negative.");
+        }
+        this.maxRetransmissions = maxRetransmissions;
+
+        return this;
+    }
+
+    /**
+     * Sets the retransmission timeout used until the first round trip time was
+     * measured. Has no effect on destinations that were already sent to.
+     *
+     * @param initialRtoMillis The timeout in milliseconds.
+     * @return this ReliableSender.
+     */
+    public ReliableSender setInitialRto(long initialRtoMillis) {
+        if (initialRtoMillis <= 0) {
+            throw new IllegalArgumentException("Retransmission timeout must be greater than 0.");
+        }
+        this.initialRtoNanos = TimeUnit.MILLISECONDS.toNanos(initialRtoMillis);
+
+        return this;
+    }
+
+    /**
+     * Sends the bytes of the buffer reliably. The payload is copied, so the
+     * buffer may be reused once this method returns; its position is not
+     * changed. Waits while the window of the destination is full.
+     *
+     * @param payload  The message, from its position to its limit.
+     * @param endpoint The destination.
+     * @return a future completed once the receiver acknowledged the message,
+     * or completed exceptionally if it was not acknowledged after the maximum
+     * number of retransmissions or the sender was closed.
+     * @throws IOException if an I/O error occurs.
+     */
+    public CompletableFuture<Void> send(ByteBuffer payload, Endpoint endpoint) throws IOException {
+        if (endpoint == null) {
+            throw new SocketException("No receiver address given.");
+        }
+
+        if (payload == null) {
+            throw new IllegalArgumentException("Given message must not be NULL.");
+        }
+
+        if (closed) {
+            throw new SocketException("Sender is closed.");
+        }
+
+        startAckReader();
+        InetSocketAddress target = endpoint.getAddress();
+        Segment segment;
+        do {
+            Peer peer = peers.computeIfAbsent(target, Peer::new);
+            segment = peer.add(encode(peer.session, payload));
+            // null if the peer was discarded as idle meanwhile
+        } while (segment == null);
+        // the acknowledgement thread may already retransmit the datagram
+        sender.transmitDatagram(segment.datagram.duplicate(), target);
+
+        return segment.future;
+    }
+
+    /**
+     * Sends the byte array reliably, see {@link #send(ByteBuffer, Endpoint)}.
+     *
+     * @param bytes    The message.
+     * @param endpoint The destination.
+     * @return a future completed once the receiver acknowledged the message.
+     * @throws IOException if an I/O error occurs.
+     */
+    public CompletableFuture<Void> send(byte[] bytes, Endpoint endpoint) throws IOException {
+        if (bytes == null) {
+            throw new IllegalArgumentException("Given message must not be NULL.");
+        }
+        return send(ByteBuffer.wrap(bytes), endpoint);
+    }
+
+    /**
+     * @return the number of messages that were sent but not acknowledged yet.
+     */
+    public int getInFlightCount() {
+        int inFlight = 0;
+        for (Peer peer : peers.values()) {
+            synchronized (peer) {
+                inFlight += peer.inFlight;
+            }
+        }
+        return inFlight;
+    }
+
+    /**
+     * @return the number of retransmitted messages.
+     */
+    public long getRetransmissionCount() {
+        return retransmissions.sum();
+    }
+
+    /**
+     * Stops the acknowledgement thread and fails the futures of all messages
+     * that were not acknowledged yet. Does not close the {@link UdpSender}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            if (selector != null) {
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+        }
+        for (Peer peer : peers.values()) {
+            peer.failAll(new SocketException("Sender is closed."));
+        }
+    }
+
+    /**
+     * Writes the reliability header, the header of a single fragment if the
+     * sender fragments its messages, the frame header if the sender frames
+     * its messages, and the payload, encoded if the sender has a payload
+     * codec, into a new datagram. Reliable messages
+     * are not split into fragments.
+     */
+    private ByteBuffer encode(int session, ByteBuffer payload) {
+        payload = sender.encodePayload(payload);
+        FrameCodec framing = sender.framing();
+        int frameHeaderLength = framing != null ? framing.headerLength() : 0;
+        int fragmentHeaderLength = sender.fragmentSize() > 0 ? Reassembler.HEADER_LENGTH : 0;
+        int headerLength = DATA_HEADER_LENGTH + fragmentHeaderLength + frameHeaderLength;
+        if (payload.remaining() > UdpSender.MAX_DATAGRAM_SIZE - headerLength) {
+            throw new IllegalArgumentException("Message of " + payload.remaining() + " bytes does not fit into a datagram.");
+        }
+        ByteBuffer datagram = ByteBuffer.allocate(headerLength + payload.remaining());
+        datagram.put(DATA).putInt(session).putInt(0);
+        if (fragmentHeaderLength > 0) {
+            datagram.putInt(0).putInt(frameHeaderLength + payload.remaining()).putShort((short) 0).putShort((short) 1);
+        }
+        if (framing != null) {
+            framing.writeHeader(datagram, DATA_HEADER_LENGTH + fragmentHeaderLength, payload.remaining());
+        }
+        datagram.position(headerLength);
+        datagram.put(payload.duplicate());
+        datagram.flip();
+
+        return datagram;
+    }
+
+    private synchronized void startAckReader() throws IOException {
+        if (thread != null) {
+            return;
+        }
+        Selector opened = Selector.open();
+        try {
+            for (SendChannel channel : sender.channels()) {
+                channel.channel().register(opened, SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        selector = opened;
+        thread = new Thread(this::readAcks, "ReliableSender-" + sender.getLocalPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Loop of the acknowledgement thread: reads acknowledgements and
+     * retransmits the messages whose timeout expired.
+     */
+    private void readAcks() {
+        ByteBuffer ack = ByteBuffer.allocateDirect(ACK_LENGTH);
+        long wait = IDLE_WAIT_MILLIS;
+        while (!closed) {
+            try {
+                selector.select(wait);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    DatagramChannel channel = (DatagramChannel) key.channel();
+                    InetSocketAddress source;
+                    ack.clear();
+                    while ((source = (InetSocketAddress) channel.receive(ack)) != null) {
+                        ack.flip();
+                        handleAck(source, ack);
+                        ack.clear();
+                    }
+                }
+                selector.selectedKeys().clear();
+                wait = retransmit();
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    private void handleAck(InetSocketAddress source, ByteBuffer ack) {
+        if (ack.remaining() != ACK_LENGTH || ack.get() != ACK) {
+            return;
+        }
+        Peer peer = peers.get(source);
+        if (peer != null) {
+            peer.acknowledge(ack.getInt(), ack.getInt(), ack.getLong());
+        }
+    }
+
+    /**
+     * Retransmits the expired messages of all destinations.
+     *
+     * @return the milliseconds until the next message expires.
+     */
+    private long retransmit() {
+        long now = System.nanoTime();
+        long next = now + TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT_MILLIS);
+        for (Peer peer : peers.values()) {
+            next = Math.min(next, peer.retransmit(now));
+        }
+        sweep(now);
+        return Math.max(1L, TimeUnit.NANOSECONDS.toMillis(next - System.nanoTime()));
+    }
+
+    /**
+     * Discards the destinations without messages in flight that nothing was
+     * sent to for the idle time, at most once per idle time.
+     */
+    private void sweep(long now) {
+        long next = nextSweep.get();
+        if (now - next < 0 || !nextSweep.compareAndSet(next, now + PEER_IDLE_NANOS)) {
+            return;
+        }
+        peers.values().removeIf(peer -> peer.retire(now));
+    }
+
+    /**
+     * @return a session number greater, in serial number arithmetic, than all
+     * sessions started before, based on the clock so it also grows across
+     * restarts; never 0.
+     */
+    private static int nextSession() {
+        int now = (int) System.currentTimeMillis();
+        return LAST_SESSION.updateAndGet(last -> {
+            int next = now - last > 0 ? now : last + 1;
+            return next != 0 ? next : 1;
+        });
+    }
+
+    /**
+     * A message in flight.
+     */
+    private static final class Segment {
+        private final int sequence;
+        private final ByteBuffer datagram;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private long sentAt;
+        private long deadline;
+        private int transmissions = 1;
+
+        private Segment(int sequence, ByteBuffer datagram) {
+            this.sequence = sequence;
+            this.datagram = datagram;
+        }
+    }
+
+    /**
+     * The sequence numbers, window and round trip estimation of one
+     * destination. Guarded by its own monitor.
+     */
+    private final class Peer {
+        private final InetSocketAddress target;
+        private final int session;
+        private final Segment[] window = new Segment[MAX_WINDOW_SIZE];
+        private final int size = windowSize;
+        private int nextSequence = 1;
+        private int inFlight;
+        private long lastUsed = System.nanoTime();
+        private boolean retired;
+        private long srtt;
+        private long rttvar;
+        private long rto = initialRtoNanos;
+
+        private Peer(InetSocketAddress target) {
+            this.target = target;
+            this.session = nextSession();
+        }
+
+        /**
+         * Assigns the next sequence number to the datagram and puts it into
+         * the window, waiting for room if the window is full.
+         *
+         * @return the segment, or <code>null</code> if the peer was discarded.
+         */
+        private synchronized Segment add(ByteBuffer datagram) throws IOException {
+            if (retired) {
+                return null;
+            }
+            lastUsed = System.nanoTime();
+            while (inFlight >= size || window[nextSequence & (MAX_WINDOW_SIZE - 1)] != null) {
+                if (closed) {
+                    throw new SocketException("Sender is closed.");
+                }
+                try {
+                    wait(IDLE_WAIT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SocketException("Interrupted while waiting for the send window.");
+                }
+            }
+            int sequence = nextSequence++;
+            datagram.putInt(5, sequence);
+            Segment segment = new Segment(sequence, datagram);
+            segment.sentAt = System.nanoTime();
+            segment.deadline = segment.sentAt + rto;
+            window[sequence & (MAX_WINDOW_SIZE - 1)] = segment;
+            inFlight++;
+
+            return segment;
+        }
+
+        private void acknowledge(int session, int cumulative, long received) {
+            if (session != this.session) {
+                return;
+            }
+            long now = System.nanoTime();
+            synchronized (this) {
+                for (int i = 0; i < window.length; i++) {
+                    Segment segment = window[i];
+                    if (segment == null) {
+                        continue;
+                    }
+                    int distance = segment.sequence - cumulative - 1;
+                    boolean acknowledged = distance < 0
+                            || (distance < Long.SIZE && (received & (1L << distance)) != 0);
+                    if (acknowledged) {
+                        // Karn's algorithm: only messages sent once are measured
+                        if (segment.transmissions == 1) {
+                            sample(now - segment.sentAt);
+                        }
+                        window[i] = null;
+                        inFlight--;
+                        segment.future.complete(null);
+                    }
+                }
+                notifyAll();
+            }
+        }
+
+        private void sample(long rtt) {
+            if (srtt == 0) {
+                srtt = rtt;
+                rttvar = rtt / 2;
+            } else {
+                rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+                srtt = (7 * srtt + rtt) / 8;
+            }
+            rto = Math.min(MAX_RTO_NANOS, Math.max(MIN_RTO_NANOS, srtt + 4 * rttvar));
+        }
+
+        /**
+         * Retransmits the expired messages, or fails them once the maximum
+         * number of retransmissions is reached.
+         *
+         * @return the time the next message expires.
+         */
+        private long retransmit(long now) {
+            long next = Long.MAX_VALUE;
+            for (int i = 0; i < window.length; i++) {
+                Segment segment;
+                synchronized (this) {
+                    segment = window[i];
+                    if (segment == null) {
+                        continue;
+                    }
+                    if (segment.deadline - now > 0) {
+                        next = Math.min(next, segment.deadline);
+                        continue;
+                    }
+                    if (segment.transmissions > maxRetransmissions) {
+                        window[i] = null;
+                        inFlight--;
+                        notifyAll();
+                        segment.future.completeExceptionally(new IOException("Message " + segment.sequence + " to "
+                                + target + " was not acknowledged after " + maxRetransmissions + " retransmissions."));
+                        continue;
+                    }
+                    // exponential backoff per message
+                    segment.deadline = now + Math.min(MAX_RTO_NANOS, rto << segment.transmissions);
+                    segment.transmissions++;
+                    retransmissions.increment();
+                    next = Math.min(next, segment.deadline);
+                }
+                try {
+                    sender.transmitDatagram(segment.datagram.duplicate(), target);
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+            return next;
+        }
+
+        /**
+         * Marks the peer as discarded if it has no messages in flight and was
+         * not sent to for the idle time.
+         */
+        private synchronized boolean retire(long now) {
+            retired = inFlight == 0 && now - lastUsed > PEER_IDLE_NANOS;
+            return retired;
+        }
+
+        private synchronized void failAll(Throwable cause) {
+            for (int i = 0; i < window.length; i++) {
+                if (window[i] != null) {
+                    window[i].future.completeExceptionally(cause);
+                    window[i] = null;
+                }
+            }
+            inFlight = 0;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package de.neiky.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends requests with a {@link UdpSender} and completes a future with the
+ * reply that arrives at a {@link UdpReceiver}, so many requests can wait for
+ * their replies at the same time:
+ * <pre>
+ * RequestClient client = new RequestClient(sender, (source, reply) -&gt; reply.getLong(reply.position()));
+ * receiver.setBufferHandler(client).start();
+ * client.request(message, id).thenAccept(reply -&gt; ...);
+ * </pre>
+ * Every request is sent with a correlation id, which the {@link Correlator}
+ * reads from the reply again. The pending requests are kept in a
+ * {@link ConcurrentHashMap}, which reads without locking and locks per bin
+ * when writing, and their timeouts in a {@link HashedWheelTimer}, so neither
+ * a request nor a reply contends on a global lock.<br />
+ * A request that is not answered within its timeout fails with a
+ * {@link TimeoutException}; a reply without a pending request is counted and
+ * discarded.
+ *
+ * @author Michael Neike
+ */
+public class RequestClient implements UdpReceiver.BufferHandler, AutoCloseable {
+    /** Returned by a {@link Correlator} for a message that is no reply */
+    public static final long NO_ID = Long.MIN_VALUE;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 1000L;
+    private static final long TICK_MILLIS = 10L;
+    private static final int WHEEL_SIZE = 512;
+
+    private final UdpSender sender;
+    private final Correlator correlator;
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final HashedWheelTimer timer;
+    private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder unmatched = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Constructor for RequestClient. Set the client as buffer handler of the
+     * receiver the replies arrive at.
+     *
+     * @param sender     The sender the requests are sent with.
+     * @param correlator Reads the correlation id from a reply.
+     */
+    public RequestClient(UdpSender sender, Correlator correlator) {
+        if (sender == null || correlator == null) {
+            throw new IllegalArgumentException("Given sender and correlator must not be NULL.");
+        }
+        this.sender = sender;
+        this.correlator = correlator;
+        this.timer = new HashedWheelTimer(TICK_MILLIS, TimeUnit.MILLISECONDS, WHEEL_SIZE, "RequestClient-timer");
+    }
+
+    /**
+     * Sets the time a request waits for its reply, unless given with the
+     * request. Defaults to 1 second.
+     *
+     * @param timeoutMillis The timeout in milliseconds.
+     * @return this RequestClient.
+     */
+    public RequestClient setTimeout(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive.");
+        }
+        this.timeoutMillis = timeoutMillis;
+
+        return this;
+    }
+
+    /**
+     * Sends a request to the recipient set on the sender.
+     *
+     * @param message       The request, from its position to its limit. Its
+     *                      position is not changed.
+     * @param correlationId The id the reply carries, unique among the
+     *                      pending requests.
+     * @return a future completed with the payload of the reply, or completed
+     * exceptionally if the request could not be sent or timed out.
+     */
+    public CompletableFuture<byte[]> request(ByteBuffer message, long correlationId) {
+        return request(message, correlationId, null, timeoutMillis);
+    }
+
+    /**
+     * Sends a request.
+     *
+     * @param message       The request, from its position to its limit. Its
+     *                      position is not changed.
+     * @param correlationId The id the reply carries, unique among the
+     *                      pending requests.
+     * @param endpoint      The destination, <code>null</code> for the
+     *                      recipient set on the sender.
+     * @param timeoutMillis The time to wait for the reply in milliseconds.
+     * @return a future completed with the payload of the reply, or completed
+     * exceptionally if the request could not be sent or timed out.
+     */
+    public CompletableFuture<byte[]> request(ByteBuffer message, long correlationId, Endpoint endpoint,
+                                             long timeoutMillis) {
+        if (message == null) {
+            throw new IllegalArgumentException("Given message must not be NULL.");
+        }
+        if (correlationId == NO_ID) {
+            throw new IllegalArgumentException("Correlation id must not be NO_ID.");
+        }
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive.");
+        }
+        Pending request = new Pending(correlationId);
+        if (closed) {
+            request.future.completeExceptionally(new SocketException("Client is closed."));
+            return request.future;
+        }
+        if (pending.putIfAbsent(correlationId, request) != null) {
+            throw new IllegalArgumentException("A request with correlation id " + correlationId + " is pending.");
+        }
+        try {
+            request.timeout = timer.schedule(() -> expire(request, timeoutMillis), timeoutMillis,
+                    TimeUnit.MILLISECONDS);
+            if (endpoint != null) {
+                sender.send(message, endpoint);
+            } else {
+                sender.send(message);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (pending.remove(correlationId, request)) {
+                HashedWheelTimer.Timeout timeout = request.timeout;
+                if (timeout != null) {
+                    timeout.cancel();
+                }
+                request.future.completeExceptionally(e);
+            }
+        }
+        return request.future;
+    }
+
+    @Override
+    public void handleBuffer(InetSocketAddress source, ByteBuffer payload) {
+        int position = payload.position();
+        long id = correlator.correlationId(source, payload);
+        payload.position(position);
+        Pending request = id != NO_ID ? pending.remove(id) : null;
+        if (request == null) {
+            unmatched.increment();
+            return;
+        }
+        HashedWheelTimer.Timeout timeout = request.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        // the receive buffer is reused for the next datagram
+        byte[] reply = new byte[payload.remaining()];
+        payload.get(reply);
+        payload.position(position);
+        request.future.complete(reply);
+    }
+
+    /**
+     * @return the number of requests waiting for their reply.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of requests that timed out.
+     */
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return the number of received messages without a pending request.
+     */
+    public long getUnmatchedCount() {
+        return unmatched.sum();
+    }
+
+    /**
+     * Stops the timer and fails all pending requests. Neither the sender nor
+     * the receiver is closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        timer.stop();
+        for (Pending request : pending.values()) {
+            if (pending.remove(request.id, request)) {
+                request.future.completeExceptionally(new SocketException("Client is closed."));
+            }
+        }
+    }
+
+    private void expire(Pending request, long timeoutMillis) {
+        if (pending.remove(request.id, request)) {
+            timeouts.increment();
+            request.future.completeExceptionally(new TimeoutException("No reply to request " + request.id
+                    + " within " + timeoutMillis + " ms."));
+        }
+    }
+
+    /**
+     * Reads the correlation id from a received message.
+     */
+    @FunctionalInterface
+    public interface Correlator {
+        /**
+         * @param source  The remote address of the sender.
+         * @param reply   The received message. Its position may be changed.
+         * @return the correlation id, or {@link RequestClient#NO_ID} if the
+         * message is no reply.
+         */
+        long correlationId(InetSocketAddress source, ByteBuffer reply);
+    }
+
+    private static final class Pending {
+        private final long id;
+        private final CompletableFuture<byte[]> future = new CompletableFuture<>();
+        /** set after the request was added, a reply may arrive first */
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        private Pending(long id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package de.neiky.udp;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Access to the SO_REUSEPORT socket option, which lets several sockets bind
+ * to the same address and port. The tree targets Java 8, so the option, added
+ * to {@link StandardSocketOptions} in Java 9, is looked up at runtime instead
+ * of being referenced directly.
+ *
+ * @author Michael Neike
+ */
+final class ReusePort {
+    private static final SocketOption<Boolean> OPTION = lookup();
+
+    private ReusePort() {
+    }
+
+    /**
+     * @param channel The channel.
+     * @return whether the runtime and the channel support SO_REUSEPORT.
+     */
+    static boolean isSupported(DatagramChannel channel) {
+        return OPTION != null && channel.supportedOptions().contains(OPTION);
+    }
+
+    /**
+     * Enables or disables SO_REUSEPORT on the channel.
+     *
+     * @param channel   The channel, not bound yet.
+     * @param reusePort Whether to enable the option.
+     * @throws SocketException if the option is not supported.
+     * @throws IOException     if the option could not be set.
+     */
+    static void set(DatagramChannel channel, boolean reusePort) throws IOException {
+        if (!isSupported(channel)) {
+            throw new SocketException("SO_REUSEPORT is not supported.");
+        }
+        channel.setOption(OPTION, reusePort);
+    }
+
+    /**
+     * @param channel The channel.
+     * @return the value of SO_REUSEPORT, or <code>null</code> if it is not
+     * supported.
+     * @throws IOException if the option could not be read.
+     */
+    static Boolean get(DatagramChannel channel) throws IOException {
+        return isSupported(channel) ? channel.getOption(OPTION) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> lookup() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (ReflectiveOperationException e) {
+            // Java 8
+            return null;
+        }
+    }
+}
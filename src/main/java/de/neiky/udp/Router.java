@@ -0,0 +1,72 @@
+package de.neiky.udp;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A buffer handler that hands every received message to the handler
+ * registered for its key, so an application does not have to dispatch in a
+ * single callback:
+ * <pre>
+ * HeaderRouter router = new HeaderRouter(0, 1)
+ *         .addRoute(1, (source, payload) -&gt; ...)
+ *         .addRoute(2, (source, payload) -&gt; ...);
+ * receiver.setBufferHandler(router);
+ * </pre>
+ * Routes are kept in a table that is copied when a route is added or
+ * removed, so routes may be changed while the receiver is running and the
+ * receive path never takes a lock. A message without a route is handed to
+ * the default handler, if set, and counted.
+ *
+ * @author Michael Neike
+ * @see SourceRouter
+ * @see HeaderRouter
+ */
+public abstract class Router implements UdpReceiver.BufferHandler {
+    private volatile UdpReceiver.BufferHandler defaultHandler;
+    private final LongAdder unrouted = new LongAdder();
+
+    @Override
+    public void handleBuffer(InetSocketAddress source, ByteBuffer payload) {
+        UdpReceiver.BufferHandler handler = route(source, payload);
+        if (handler == null) {
+            unrouted.increment();
+            handler = defaultHandler;
+            if (handler == null) {
+                return;
+            }
+        }
+        handler.handleBuffer(source, payload);
+    }
+
+    /**
+     * Sets the handler for messages without a route.
+     *
+     * @param defaultHandler The handler, <code>null</code> to discard those
+     *                       messages (default).
+     * @return this Router.
+     */
+    public Router setDefaultHandler(UdpReceiver.BufferHandler defaultHandler) {
+        this.defaultHandler = defaultHandler;
+
+        return this;
+    }
+
+    /**
+     * @return the number of messages without a route.
+     */
+    public long getUnroutedCount() {
+        return unrouted.sum();
+    }
+
+    /**
+     * Looks up the handler of a message. Must not change the position or the
+     * limit of the payload.
+     *
+     * @param source  The remote address of the sender.
+     * @param payload The message.
+     * @return the handler, <code>null</code> if there is no route.
+     */
+    protected abstract UdpReceiver.BufferHandler route(InetSocketAddress source, ByteBuffer payload);
+}
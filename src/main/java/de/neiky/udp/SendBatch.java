@@ -0,0 +1,197 @@
+package de.neiky.udp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A reusable list of datagrams to be sent with
+ * {@link UdpSender#sendBatch(SendBatch)}. After the batch was sent, the
+ * result of every datagram can be queried. Call {@link #clear()} to reuse the
+ * batch; its arrays are kept so refilling it does not allocate.
+ *
+ * @author Michael Neike
+ */
+public final class SendBatch {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private ByteBuffer[] payloads;
+    private InetSocketAddress[] targets;
+    private boolean[] sent;
+    private IOException[] errors;
+    private int size;
+
+    /**
+     * Default constructor for SendBatch.
+     */
+    public SendBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Parameterized constructor for SendBatch.
+     *
+     * @param capacity The number of datagrams the batch can hold before it has
+     *                 to grow.
+     */
+    public SendBatch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than 0.");
+        }
+        this.payloads = new ByteBuffer[capacity];
+        this.targets = new InetSocketAddress[capacity];
+        this.sent = new boolean[capacity];
+        this.errors = new IOException[capacity];
+    }
+
+    /**
+     * Adds a datagram to the batch.
+     *
+     * @param payload The payload, from its position to its limit.
+     * @param target  The address of the destination.
+     * @return this SendBatch.
+     */
+    public SendBatch add(ByteBuffer payload, InetSocketAddress target) {
+        if (payload == null) {
+            throw new IllegalArgumentException("Given message must not be NULL.");
+        }
+        if (target == null) {
+            throw new IllegalArgumentException("Given receiver address must not be NULL.");
+        }
+        if (size == payloads.length) {
+            grow();
+        }
+        payloads[size] = payload;
+        targets[size] = target;
+        sent[size] = false;
+        errors[size] = null;
+        size++;
+
+        return this;
+    }
+
+    /**
+     * Adds a datagram to the batch.
+     *
+     * @param bytes         The byte array to be sent.
+     * @param remoteAddress The address of the destination.
+     * @param remotePort    The port of the destination.
+     * @return this SendBatch.
+     */
+    public SendBatch add(byte[] bytes, InetAddress remoteAddress, int remotePort) {
+        if (bytes == null) {
+            throw new IllegalArgumentException("Given message must not be NULL.");
+        }
+        // a NULL address would be taken as the wildcard address
+        if (remoteAddress == null) {
+            throw new IllegalArgumentException("Given receiver address must not be NULL.");
+        }
+        if (remotePort <= 0) {
+            throw new IllegalArgumentException("No receiver port given.");
+        }
+        return add(ByteBuffer.wrap(bytes), new InetSocketAddress(remoteAddress, remotePort));
+    }
+
+    /**
+     * Removes all datagrams from the batch.
+     *
+     * @return this SendBatch.
+     */
+    public SendBatch clear() {
+        Arrays.fill(payloads, 0, size, null);
+        Arrays.fill(targets, 0, size, null);
+        Arrays.fill(errors, 0, size, null);
+        size = 0;
+
+        return this;
+    }
+
+    /**
+     * @return the number of datagrams in the batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index The index of the datagram.
+     * @return whether the datagram was sent.
+     */
+    public boolean isSent(int index) {
+        checkIndex(index);
+        return sent[index];
+    }
+
+    /**
+     * @param index The index of the datagram.
+     * @return the exception that occurred while sending the datagram, or
+     * <code>null</code>.
+     */
+    public IOException getError(int index) {
+        checkIndex(index);
+        return errors[index];
+    }
+
+    /**
+     * @return the number of datagrams that were sent.
+     */
+    public int getSentCount() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (sent[i]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of datagrams that failed.
+     */
+    public int getFailedCount() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (errors[i] != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    ByteBuffer getPayload(int index) {
+        return payloads[index];
+    }
+
+    InetSocketAddress getTarget(int index) {
+        return targets[index];
+    }
+
+    void resetResult(int index) {
+        sent[index] = false;
+        errors[index] = null;
+    }
+
+    void setSent(int index) {
+        sent[index] = true;
+    }
+
+    void setError(int index, IOException error) {
+        errors[index] = error;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+
+    private void grow() {
+        int capacity = payloads.length * 2;
+        payloads = Arrays.copyOf(payloads, capacity);
+        targets = Arrays.copyOf(targets, capacity);
+        sent = Arrays.copyOf(sent, capacity);
+        errors = Arrays.copyOf(errors, capacity);
+    }
+}
@@ -0,0 +1,147 @@
+package de.neiky.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * A non-blocking datagram channel used by the {@link UdpSender}. Writing does
+ * not take any lock of its own; only a thread that finds the send buffer full
+ * synchronizes on the channel while it waits for it to become writable.
+ *
+ * @author Michael Neike
+ */
+final class SendChannel implements AutoCloseable {
+    private final DatagramChannel channel;
+    private volatile boolean broadcast;
+    private volatile UdpMetrics metrics;
+    private Selector writeSelector;
+
+    /**
+     * Constructor for SendChannel.
+     *
+     * @param channel   The bound channel. It is switched to non-blocking mode.
+     * @param broadcast Whether SO_BROADCAST is turned on.
+     * @throws IOException if an I/O error occurs.
+     */
+    SendChannel(DatagramChannel channel, boolean broadcast) throws IOException {
+        this.channel = channel;
+        this.channel.configureBlocking(false);
+        this.channel.setOption(StandardSocketOptions.SO_BROADCAST, broadcast);
+        this.broadcast = broadcast;
+    }
+
+    /**
+     * Sends the datagram, waiting for the socket to become writable if the
+     * send buffer is full.
+     *
+     * @param payload The payload, from its position to its limit.
+     * @param target  The address of the destination.
+     * @throws IOException if an I/O error occurs.
+     */
+    void write(ByteBuffer payload, InetSocketAddress target) throws IOException {
+        while (!tryWrite(payload, target)) {
+            awaitWritable();
+        }
+    }
+
+    /**
+     * Sends the datagram if the send buffer has room for it, without
+     * waiting.
+     *
+     * @param payload The payload, from its position to its limit.
+     * @param target  The address of the destination.
+     * @return <code>false</code> if the send buffer is full and nothing was
+     * sent.
+     * @throws IOException if an I/O error occurs.
+     */
+    boolean tryWrite(ByteBuffer payload, InetSocketAddress target) throws IOException {
+        if (target.isUnresolved()) {
+            throw new SocketException("Receiver address " + target.getHostString() + " is unresolved.");
+        }
+        // an empty datagram is always reported with 0 bytes written
+        boolean empty = !payload.hasRemaining();
+        UdpMetrics current = metrics;
+        if (current == null) {
+            return channel.send(payload, target) > 0 || empty;
+        }
+        int sent;
+        try {
+            sent = channel.send(payload, target);
+        } catch (IOException e) {
+            current.sendFailed(target, e);
+            throw e;
+        }
+        if (sent > 0 || empty) {
+            current.datagramSent(target, sent);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param metrics The metrics counting the datagrams, or null.
+     */
+    void setMetrics(UdpMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets SO_BROADCAST on the socket if it differs from the value that was
+     * last applied.
+     *
+     * @param on whether or not to have broadcast turned on.
+     * @throws IOException if an I/O error occurs.
+     */
+    void applyBroadcast(boolean on) throws IOException {
+        if (broadcast != on) {
+            channel.setOption(StandardSocketOptions.SO_BROADCAST, on);
+            broadcast = on;
+        }
+    }
+
+    /**
+     * @return the underlying channel.
+     */
+    DatagramChannel channel() {
+        return channel;
+    }
+
+    /**
+     * Blocks until the channel is writable. The selector is only opened the
+     * first time the send buffer runs full.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    private synchronized void awaitWritable() throws IOException {
+        if (writeSelector == null) {
+            writeSelector = Selector.open();
+            channel.register(writeSelector, SelectionKey.OP_WRITE);
+        }
+        writeSelector.select();
+        writeSelector.selectedKeys().clear();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (writeSelector != null) {
+                try {
+                    writeSelector.close();
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
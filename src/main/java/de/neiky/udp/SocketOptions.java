@@ -0,0 +1,236 @@
+package de.neiky.udp;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * The options of the sockets of a {@link UdpSender} or {@link UdpReceiver}.
+ * Every option that is not set keeps the kernel default. The options are set
+ * on each socket before it is bound, so SO_REUSEADDR and SO_REUSEPORT take
+ * effect for the bind and a large receive buffer is in place before the first
+ * datagram arrives.<br />
+ * The kernel may grant other values than requested: Linux doubles the buffer
+ * sizes for its bookkeeping and caps them at <code>net.core.rmem_max</code>
+ * and <code>net.core.wmem_max</code> unless the process may exceed them.
+ * {@link UdpSender#getEffectiveSocketOptions()} and
+ * {@link UdpReceiver#getEffectiveSocketOptions()} report the granted values.
+ *
+ * @author Michael Neike
+ */
+public class SocketOptions {
+    private int receiveBufferSize;
+    private int sendBufferSize;
+    private int trafficClass = -1;
+    private Boolean reuseAddress;
+    private Boolean reusePort;
+
+    /**
+     * Constructor for SocketOptions, with no option set.
+     */
+    public SocketOptions() {
+
+    }
+
+    /**
+     * Constructor for SocketOptions, copying the given options.
+     *
+     * @param options The options to copy.
+     */
+    public SocketOptions(SocketOptions options) {
+        this.receiveBufferSize = options.receiveBufferSize;
+        this.sendBufferSize = options.sendBufferSize;
+        this.trafficClass = options.trafficClass;
+        this.reuseAddress = options.reuseAddress;
+        this.reusePort = options.reusePort;
+    }
+
+    /**
+     * Sets SO_RCVBUF, the size of the kernel buffer datagrams wait in until
+     * they are received. Under bursty load a larger buffer is what keeps the
+     * kernel from dropping datagrams.
+     *
+     * @param receiveBufferSize The size in bytes, 0 for the kernel default.
+     * @return this SocketOptions.
+     */
+    public SocketOptions setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize < 0) {
+            throw new IllegalArgumentException("Receive buffer size must not be negative.");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+
+        return this;
+    }
+
+    /**
+     * @return the size of the receive buffer, 0 if not set.
+     */
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Sets SO_SNDBUF, the size of the kernel buffer datagrams wait in until
+     * they are sent.
+     *
+     * @param sendBufferSize The size in bytes, 0 for the kernel default.
+     * @return this SocketOptions.
+     */
+    public SocketOptions setSendBufferSize(int sendBufferSize) {
+        if (sendBufferSize < 0) {
+            throw new IllegalArgumentException("Send buffer size must not be negative.");
+        }
+        this.sendBufferSize = sendBufferSize;
+
+        return this;
+    }
+
+    /**
+     * @return the size of the send buffer, 0 if not set.
+     */
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * Sets IP_TOS, the type of service byte of the IPv4 header or the traffic
+     * class of the IPv6 header of the datagrams sent.
+     *
+     * @param trafficClass The byte, between 0 and 255, -1 for the kernel
+     *                     default.
+     * @return this SocketOptions.
+     * @see #setDscp(int)
+     */
+    public SocketOptions setTrafficClass(int trafficClass) {
+        if (trafficClass < -1 || trafficClass > 255) {
+            throw new IllegalArgumentException("Traffic class must be between 0 and 255.");
+        }
+        this.trafficClass = trafficClass;
+
+        return this;
+    }
+
+    /**
+     * Sets the differentiated services code point of the datagrams sent, the
+     * upper six bits of the traffic class, e.g. 46 for expedited forwarding.
+     * The lower two bits, used for congestion notification, are cleared.
+     *
+     * @param dscp The code point, between 0 and 63.
+     * @return this SocketOptions.
+     */
+    public SocketOptions setDscp(int dscp) {
+        if (dscp < 0 || dscp > 63) {
+            throw new IllegalArgumentException("DSCP must be between 0 and 63.");
+        }
+        this.trafficClass = dscp << 2;
+
+        return this;
+    }
+
+    /**
+     * @return the traffic class, -1 if not set.
+     */
+    public int getTrafficClass() {
+        return trafficClass;
+    }
+
+    /**
+     * @return the differentiated services code point, -1 if not set.
+     */
+    public int getDscp() {
+        return trafficClass >= 0 ? trafficClass >>> 2 : -1;
+    }
+
+    /**
+     * Enable/disable SO_REUSEADDR, which lets several sockets bind to the
+     * same multicast address and port, or a socket bind to a port a closed
+     * socket was just bound to.
+     *
+     * @param on whether or not the address may be reused.
+     * @return this SocketOptions.
+     */
+    public SocketOptions setReuseAddress(boolean on) {
+        this.reuseAddress = on;
+
+        return this;
+    }
+
+    /**
+     * @return whether or not the address may be reused, <code>null</code> if
+     * not set.
+     */
+    public Boolean getReuseAddress() {
+        return reuseAddress;
+    }
+
+    /**
+     * Enable/disable SO_REUSEPORT, which lets several sockets bind to the same
+     * address and port, the kernel spreading the datagrams over them. Not
+     * every platform supports it; it needs Java 9 or later.
+     *
+     * @param on whether or not the port may be reused.
+     * @return this SocketOptions.
+     */
+    public SocketOptions setReusePort(boolean on) {
+        this.reusePort = on;
+
+        return this;
+    }
+
+    /**
+     * @return whether or not the port may be reused, <code>null</code> if not
+     * set or not supported.
+     */
+    public Boolean getReusePort() {
+        return reusePort;
+    }
+
+    /**
+     * Sets the options that are set on the given channel, which has to be
+     * unbound.
+     *
+     * @param channel The channel.
+     * @throws IOException if an option could not be set or is not supported.
+     */
+    void apply(DatagramChannel channel) throws IOException {
+        if (receiveBufferSize > 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+        }
+        if (sendBufferSize > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+        }
+        if (trafficClass >= 0) {
+            channel.setOption(StandardSocketOptions.IP_TOS, trafficClass);
+        }
+        if (reuseAddress != null) {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, reuseAddress);
+        }
+        if (reusePort != null) {
+            ReusePort.set(channel, reusePort);
+        }
+    }
+
+    /**
+     * Reads the options the kernel granted the given channel.
+     *
+     * @param channel The channel.
+     * @return the options, all set except for unsupported ones.
+     * @throws IOException if an option could not be read.
+     */
+    static SocketOptions of(DatagramChannel channel) throws IOException {
+        SocketOptions options = new SocketOptions();
+        options.receiveBufferSize = channel.getOption(StandardSocketOptions.SO_RCVBUF);
+        options.sendBufferSize = channel.getOption(StandardSocketOptions.SO_SNDBUF);
+        options.trafficClass = channel.getOption(StandardSocketOptions.IP_TOS);
+        options.reuseAddress = channel.getOption(StandardSocketOptions.SO_REUSEADDR);
+        options.reusePort = ReusePort.get(channel);
+
+        return options;
+    }
+
+    @Override
+    public String toString() {
+        return "SO_RCVBUF=" + receiveBufferSize + ", SO_SNDBUF=" + sendBufferSize + ", IP_TOS=" + trafficClass
+                + ", SO_REUSEADDR=" + reuseAddress + ", SO_REUSEPORT=" + reusePort;
+    }
+}
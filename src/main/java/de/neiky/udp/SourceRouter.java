@@ -0,0 +1,94 @@
+package de.neiky.udp;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Routes messages by the endpoint they were sent from. A route for an
+ * endpoint takes precedence over a route for the address of the endpoint,
+ * which matches every port of the address. A lookup is a single hash map
+ * access without allocating; see {@link Router}.
+ *
+ * @author Michael Neike
+ */
+public class SourceRouter extends Router {
+    private volatile Map<InetSocketAddress, UdpReceiver.BufferHandler> endpoints = Collections.emptyMap();
+    private volatile Map<InetAddress, UdpReceiver.BufferHandler> addresses = Collections.emptyMap();
+
+    /**
+     * Adds or replaces the route for an endpoint.
+     *
+     * @param source  The endpoint the messages are sent from.
+     * @param handler The handler of the messages.
+     * @return this SourceRouter.
+     */
+    public synchronized SourceRouter addRoute(InetSocketAddress source, UdpReceiver.BufferHandler handler) {
+        if (source == null || handler == null) {
+            throw new IllegalArgumentException("Given source and handler must not be NULL.");
+        }
+        Map<InetSocketAddress, UdpReceiver.BufferHandler> copy = new HashMap<>(endpoints);
+        copy.put(source, handler);
+        endpoints = copy;
+
+        return this;
+    }
+
+    /**
+     * Adds or replaces the route for all ports of an address.
+     *
+     * @param source  The address the messages are sent from.
+     * @param handler The handler of the messages.
+     * @return this SourceRouter.
+     */
+    public synchronized SourceRouter addRoute(InetAddress source, UdpReceiver.BufferHandler handler) {
+        if (source == null || handler == null) {
+            throw new IllegalArgumentException("Given source and handler must not be NULL.");
+        }
+        Map<InetAddress, UdpReceiver.BufferHandler> copy = new HashMap<>(addresses);
+        copy.put(source, handler);
+        addresses = copy;
+
+        return this;
+    }
+
+    /**
+     * @param source The endpoint to remove the route of.
+     * @return this SourceRouter.
+     */
+    public synchronized SourceRouter removeRoute(InetSocketAddress source) {
+        if (endpoints.containsKey(source)) {
+            Map<InetSocketAddress, UdpReceiver.BufferHandler> copy = new HashMap<>(endpoints);
+            copy.remove(source);
+            endpoints = copy;
+        }
+
+        return this;
+    }
+
+    /**
+     * @param source The address to remove the route of.
+     * @return this SourceRouter.
+     */
+    public synchronized SourceRouter removeRoute(InetAddress source) {
+        if (addresses.containsKey(source)) {
+            Map<InetAddress, UdpReceiver.BufferHandler> copy = new HashMap<>(addresses);
+            copy.remove(source);
+            addresses = copy;
+        }
+
+        return this;
+    }
+
+    @Override
+    protected UdpReceiver.BufferHandler route(InetSocketAddress source, ByteBuffer payload) {
+        UdpReceiver.BufferHandler handler = endpoints.get(source);
+        if (handler == null) {
+            handler = addresses.get(source.getAddress());
+        }
+        return handler;
+    }
+}
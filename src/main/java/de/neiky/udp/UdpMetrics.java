@@ -0,0 +1,253 @@
+package de.neiky.udp;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts what a {@link UdpSender} and a {@link UdpReceiver} do: datagrams and
+ * bytes sent and received, failures, truncated datagrams, the time the
+ * handlers take and the depth of the receive queue. One instance may be
+ * shared by any number of senders and receivers.<br />
+ * The counters are {@link LongAdder}s, so threads counting at the same time
+ * do not contend. Senders and receivers without metrics, which is the
+ * default, do not count anything.<br />
+ * The metrics can be read directly, published via JMX with
+ * {@link #registerMBean(String)}, or forwarded to a {@link MetricsListener}.
+ *
+ * @author Michael Neike
+ */
+public class UdpMetrics implements UdpMetricsMXBean {
+    private static final String DOMAIN = "de.neiky.udp";
+
+    private final LongAdder datagramsSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder sendFailures = new LongAdder();
+    private final LongAdder datagramsReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder receiveFailures = new LongAdder();
+    private final LongAdder truncatedDatagrams = new LongAdder();
+    private final LatencyHistogram handlerLatency = new LatencyHistogram();
+    private final List<MetricsListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<UdpReceiver> receivers = new CopyOnWriteArrayList<>();
+    private ObjectName objectName;
+
+    /**
+     * Adds a listener that is called for every counted event.
+     *
+     * @param listener The listener.
+     * @return this UdpMetrics.
+     */
+    public UdpMetrics addListener(MetricsListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Given listener must not be NULL.");
+        }
+        listeners.add(listener);
+
+        return this;
+    }
+
+    /**
+     * @param listener The listener to remove.
+     * @return this UdpMetrics.
+     */
+    public UdpMetrics removeListener(MetricsListener listener) {
+        listeners.remove(listener);
+
+        return this;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server as
+     * <code>de.neiky.udp:type=UdpMetrics,name=&lt;name&gt;</code>.
+     *
+     * @param name The name distinguishing these metrics from others.
+     * @return this UdpMetrics.
+     * @throws JMException if the metrics could not be registered.
+     */
+    public synchronized UdpMetrics registerMBean(String name) throws JMException {
+        if (objectName != null) {
+            throw new IllegalStateException("Metrics are already registered as " + objectName + ".");
+        }
+        ObjectName registered = new ObjectName(DOMAIN + ":type=UdpMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, registered);
+        objectName = registered;
+
+        return this;
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server, if registered.
+     *
+     * @return this UdpMetrics.
+     * @throws JMException if the metrics could not be unregistered.
+     */
+    public synchronized UdpMetrics unregisterMBean() throws JMException {
+        if (objectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            objectName = null;
+        }
+
+        return this;
+    }
+
+    /**
+     * @return the histogram of the time the handlers take per datagram.
+     */
+    public LatencyHistogram getHandlerLatency() {
+        return handlerLatency;
+    }
+
+    @Override
+    public long getDatagramsSent() {
+        return datagramsSent.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getSendFailures() {
+        return sendFailures.sum();
+    }
+
+    @Override
+    public long getDatagramsReceived() {
+        return datagramsReceived.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getReceiveFailures() {
+        return receiveFailures.sum();
+    }
+
+    @Override
+    public long getTruncatedDatagrams() {
+        return truncatedDatagrams.sum();
+    }
+
+    @Override
+    public long getDroppedDatagrams() {
+        long dropped = 0;
+        for (UdpReceiver receiver : receivers) {
+            dropped += receiver.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        int depth = 0;
+        for (UdpReceiver receiver : receivers) {
+            depth += receiver.getQueueDepth();
+        }
+        return depth;
+    }
+
+    @Override
+    public long getHandlerCount() {
+        return handlerLatency.getCount();
+    }
+
+    @Override
+    public double getHandlerMeanNanos() {
+        return handlerLatency.getMean();
+    }
+
+    @Override
+    public long getHandler50thPercentileNanos() {
+        return handlerLatency.getValueAtPercentile(50.0);
+    }
+
+    @Override
+    public long getHandler99thPercentileNanos() {
+        return handlerLatency.getValueAtPercentile(99.0);
+    }
+
+    @Override
+    public long getHandler999thPercentileNanos() {
+        return handlerLatency.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getHandlerMaxNanos() {
+        return handlerLatency.getMax();
+    }
+
+    @Override
+    public void reset() {
+        datagramsSent.reset();
+        bytesSent.reset();
+        sendFailures.reset();
+        datagramsReceived.reset();
+        bytesReceived.reset();
+        receiveFailures.reset();
+        truncatedDatagrams.reset();
+        handlerLatency.reset();
+    }
+
+    void bind(UdpReceiver receiver) {
+        receivers.add(receiver);
+    }
+
+    void unbind(UdpReceiver receiver) {
+        receivers.remove(receiver);
+    }
+
+    void datagramSent(InetSocketAddress target, int bytes) {
+        datagramsSent.increment();
+        bytesSent.add(bytes);
+        for (MetricsListener listener : listeners) {
+            listener.datagramSent(target, bytes);
+        }
+    }
+
+    void sendFailed(InetSocketAddress target, IOException cause) {
+        sendFailures.increment();
+        for (MetricsListener listener : listeners) {
+            listener.sendFailed(target, cause);
+        }
+    }
+
+    void datagramReceived(InetSocketAddress source, int bytes) {
+        datagramsReceived.increment();
+        bytesReceived.add(bytes);
+        for (MetricsListener listener : listeners) {
+            listener.datagramReceived(source, bytes);
+        }
+    }
+
+    void receiveFailed(IOException cause) {
+        receiveFailures.increment();
+        for (MetricsListener listener : listeners) {
+            listener.receiveFailed(cause);
+        }
+    }
+
+    void datagramTruncated(InetSocketAddress source) {
+        truncatedDatagrams.increment();
+        for (MetricsListener listener : listeners) {
+            listener.datagramTruncated(source);
+        }
+    }
+
+    void datagramHandled(InetSocketAddress source, long nanos) {
+        handlerLatency.record(nanos);
+        for (MetricsListener listener : listeners) {
+            listener.datagramHandled(source, nanos);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package de.neiky.udp;
+
+/**
+ * The attributes {@link UdpMetrics} exposes via JMX.
+ *
+ * @author Michael Neike
+ */
+public interface UdpMetricsMXBean {
+    long getDatagramsSent();
+
+    long getBytesSent();
+
+    long getSendFailures();
+
+    long getDatagramsReceived();
+
+    long getBytesReceived();
+
+    long getReceiveFailures();
+
+    long getTruncatedDatagrams();
+
+    long getDroppedDatagrams();
+
+    int getQueueDepth();
+
+    long getHandlerCount();
+
+    double getHandlerMeanNanos();
+
+    long getHandler50thPercentileNanos();
+
+    long getHandler99thPercentileNanos();
+
+    long getHandler999thPercentileNanos();
+
+    long getHandlerMaxNanos();
+
+    /**
+     * Sets all counters and the histogram back to 0.
+     */
+    void reset();
+}
@@ -2,10 +2,33 @@ package de.neiky.udp;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import de.neiky.udp.BufferPool.PooledBuffer;
 
 /**
  * A UdpReceiver class built to receive UDP messages.
@@ -13,12 +36,55 @@ import java.net.UnknownHostException;
  * @author Michael Neike
  */
 public class UdpReceiver implements Runnable {
+    private static final int DEFAULT_MAX_DATAGRAM_SIZE = 1024;
+    private static final int DEFAULT_BUFFER_POOL_SIZE = 16;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    private static final long BUFFER_WAIT_NANOS = 50_000L;
+    private static final long STOP_TIMEOUT_MILLIS = 1000L;
+    private static final long RECEIVE_WINDOW_IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
     private final int port;
     private InetAddress address;
-    private Thread receiverThread;
-    private DatagramSocket socket;
+    private int maxDatagramSize = DEFAULT_MAX_DATAGRAM_SIZE;
+    private final AtomicLong truncated = new AtomicLong();
+    private volatile Reassembler reassembler;
+    private Shard[] shards;
+    private int shardCount = 1;
+    private int bufferPoolSize = DEFAULT_BUFFER_POOL_SIZE;
+    private int workerThreads;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private BackpressurePolicy backpressurePolicy = BackpressurePolicy.DROP_NEWEST;
+    private Executor handlerExecutor;
+    private ThreadFactory threadFactory = Thread::new;
+    private FrameCodec framing;
+    private Charset charset = StandardCharsets.UTF_8;
+    private TextHandler textHandler;
+    private final ThreadLocal<ReceivedText> receivedText =
+            ThreadLocal.withInitial(() -> new ReceivedText(charset, maxDatagramSize));
+    private final AtomicLong invalidFrames = new AtomicLong();
+    private boolean reliable;
+    private final Map<InetSocketAddress, ReceiveWindow> receiveWindows = new ConcurrentHashMap<>();
+    private final AtomicLong nextWindowSweep = new AtomicLong(System.nanoTime());
+    private final ThreadLocal<ByteBuffer> ackBuffer =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(ReliableSender.ACK_LENGTH));
+    private final AtomicLong duplicates = new AtomicLong();
+    private volatile DatagramChannel replyChannel;
+    private UdpMetrics metrics;
+    private volatile CaptureLog capture;
+    private SocketOptions socketOptions;
+    private volatile DuplicateFilter duplicateFilter;
+    /** the codecs by their id, <code>null</code> if messages carry no flag byte */
+    private volatile PayloadCodec[] payloadCodecs;
+    private int maxMessageSize;
+    private final ThreadLocal<ByteBuffer> decodeBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(0));
+    /** the read-only view of the decode buffer of the thread */
+    private final ThreadLocal<ByteBuffer> decodeView = ThreadLocal.withInitial(() -> ByteBuffer.allocate(0).asReadOnlyBuffer());
+    /** the joined groups and the open channels, guarded by memberships */
+    private final List<Membership> memberships = new ArrayList<>();
+    private final List<DatagramChannel> channels = new ArrayList<>();
     private PacketHandler packetHandler;
     private MessageHandler messageHandler;
+    private BufferHandler bufferHandler;
 
     /**
      * Constructor for UdpReceiver. After constructing use
@@ -37,20 +103,612 @@ public class UdpReceiver implements Runnable {
     }
 
     /**
-     * Starts listening on the port given in the constructor.
+     * Constructor for UdpReceiver.
+     *
+     * @param address The local address the receiver listens on,
+     *                <code>null</code> for the wildcard address.
+     * @param port    The port on which the receiver will listen.
+     */
+    public UdpReceiver(InetAddress address, int port) {
+        this.port = port;
+        this.address = address;
+    }
+
+    /**
+     * Starts listening on the port given in the constructor. One socket and
+     * one receiver thread is started per shard, see {@link #setShards(int)}.
      *
      * @return this UdpReceiver
      * @throws SocketException if the socket could not be opened, or the socket could not
      *                         bind to the specified local port.
      */
     public UdpReceiver start() throws SocketException {
-        socket = new DatagramSocket(this.port, this.address);
-        receiverThread = new Thread(this);
-        receiverThread.start();
+        if (workerThreads > 0 && handlerExecutor != null) {
+            throw new IllegalStateException("Worker threads and a handler executor must not be used together.");
+        }
+        Shard[] started = new Shard[shardCount];
+        try {
+            for (int i = 0; i < started.length; i++) {
+                HandoffRing ring = null;
+                if (workerThreads > 0) {
+                    ring = new HandoffRing(queueCapacity, receiveBufferSize(), backpressurePolicy);
+                }
+                started[i] = new Shard(openChannel(), new BufferPool(bufferPoolSize, receiveBufferSize()), ring);
+            }
+        } catch (SocketException e) {
+            for (Shard shard : started) {
+                if (shard != null) {
+                    shard.close();
+                }
+            }
+            throw e;
+        }
+
+        shards = started;
+        for (int i = 0; i < shards.length; i++) {
+            Thread receiverThread = threadFactory.newThread(i == 0 ? this : shards[i]);
+            receiverThread.setName("UdpReceiver-" + port + "-" + i);
+            shards[i].thread = receiverThread;
+            receiverThread.start();
+
+            for (int j = 0; j < shards[i].workers.length; j++) {
+                Thread workerThread = threadFactory.newThread(shards[i]::work);
+                workerThread.setName("UdpReceiver-" + port + "-" + i + "-worker-" + j);
+                shards[i].workers[j] = workerThread;
+                workerThread.start();
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Sets the number of shards the receiver is split into. Each shard binds
+     * its own socket to the same address and port using SO_REUSEPORT and
+     * receives on its own thread, so the load is spread over several cores.
+     * All shards deliver to the same handlers, which therefore have to be
+     * thread-safe if more than one shard is used.<br />
+     * The kernel distributes datagrams by hashing the source and destination
+     * address, so all datagrams of one sender are received by the same shard
+     * in the order the kernel delivers them.<br />
+     * Has no effect on a running receiver.
+     *
+     * @param shards The number of sockets and receiver threads.
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setShards(int shards) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("Number of shards must be greater than 0.");
+        }
+        this.shardCount = shards;
+
+        return this;
+    }
+
+    /**
+     * Decouples receiving from handling. With a number of worker threads
+     * greater than 0, every receiver thread only reads datagrams into a
+     * preallocated ring buffer and the handlers are run by the given number of
+     * worker threads per shard. A slow handler then no longer stalls the
+     * socket. With more than one worker thread the datagrams of one sender
+     * may be handled out of order.<br />
+     * Has no effect on a running receiver.
+     *
+     * @param workerThreads The number of handler threads per shard, 0 to run
+     *                      the handlers on the receiver thread (default).
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setWorkerThreads(int workerThreads) {
+        if (workerThreads < 0) {
+            throw new IllegalArgumentException("Number of worker threads must not be negative.");
+        }
+        this.workerThreads = workerThreads;
+
+        return this;
+    }
+
+    /**
+     * Sets the number of datagrams per shard that may wait for a worker
+     * thread. Only used if worker threads are set, see
+     * {@link #setWorkerThreads(int)}. Has no effect on a running receiver.
+     *
+     * @param queueCapacity The capacity, rounded up to the next power of two.
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be greater than 0.");
+        }
+        this.queueCapacity = queueCapacity;
+
+        return this;
+    }
+
+    /**
+     * Sets what happens if the queue to the worker threads is full. Defaults
+     * to {@link BackpressurePolicy#DROP_NEWEST}. With
+     * {@link BackpressurePolicy#BLOCK} the receiver thread stops reading and
+     * the kernel drops datagrams once the socket buffer is full. Has no effect
+     * on a running receiver.
+     *
+     * @param backpressurePolicy The policy.
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+        if (backpressurePolicy == null) {
+            throw new IllegalArgumentException("Backpressure policy must not be NULL.");
+        }
+        this.backpressurePolicy = backpressurePolicy;
+
+        return this;
+    }
+
+    /**
+     * Runs the handlers on the given executor instead of the receiver thread.
+     * Every datagram is received into a pooled buffer that is handed to the
+     * executor and returned to the pool once the handlers are done, so the
+     * number of datagrams being handled at the same time is limited by the
+     * buffer pool size, see {@link #setBufferPoolSize(int)}. If all buffers
+     * are in use, the receiver waits for one to be returned with
+     * {@link BackpressurePolicy#BLOCK} and drops the datagram otherwise.<br />
+     * On Java 21 and newer an executor creating a virtual thread per task may
+     * be used to run each handler invocation on its own virtual thread.<br />
+     * Must not be combined with {@link #setWorkerThreads(int)}. Has no effect
+     * on a running receiver.
+     *
+     * @param handlerExecutor The executor, <code>null</code> to run the
+     *                        handlers on the receiver thread (default).
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setHandlerExecutor(Executor handlerExecutor) {
+        this.handlerExecutor = handlerExecutor;
+
+        return this;
+    }
+
+    /**
+     * Sets the factory creating the receiver and worker threads. May be used
+     * to create daemon threads or, on Java 21 and newer, virtual threads. Has
+     * no effect on a running receiver.
+     *
+     * @param threadFactory The thread factory.
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setThreadFactory(ThreadFactory threadFactory) {
+        if (threadFactory == null) {
+            throw new IllegalArgumentException("Thread factory must not be NULL.");
+        }
+        this.threadFactory = threadFactory;
+
+        return this;
+    }
+
+    /**
+     * @return the number of datagrams dropped because the queue to the worker
+     * threads was full or no buffer was left for the handler executor.
+     */
+    public long getDroppedCount() {
+        long dropped = 0;
+        if (shards != null) {
+            for (Shard shard : shards) {
+                dropped += shard.dropped.get();
+                if (shard.ring != null) {
+                    dropped += shard.ring.dropped();
+                }
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * @return the number of datagrams waiting for a worker thread.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        if (shards != null) {
+            for (Shard shard : shards) {
+                if (shard.ring != null) {
+                    depth += shard.ring.depth();
+                }
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Sets a text handler. {@link TextHandler} is a functional interface
+     * providing the function
+     * {@link TextHandler#handleText(InetSocketAddress, ReceivedText)}. The
+     * text is decoded lazily from the receive buffer, so a handler that only
+     * looks at parts of a message does not pay for creating a string.
+     *
+     * @param textHandler
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setTextHandler(TextHandler textHandler) {
+        this.textHandler = textHandler;
+
+        return this;
+    }
+
+    /**
+     * Sets the charset the messages for the {@link MessageHandler} and the
+     * {@link TextHandler} are decoded with. Defaults to UTF-8, the charset
+     * the {@link UdpSender} encodes strings with. Has no effect on a running
+     * receiver.
+     *
+     * @param charset The charset.
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setCharset(Charset charset) {
+        if (charset == null) {
+            throw new IllegalArgumentException("Charset must not be NULL.");
+        }
+        this.charset = charset;
+
+        return this;
+    }
+
+    /**
+     * Sets the codec the received datagrams are framed with. Every frame is
+     * handed to the handlers on its own, as a slice of the receive buffer
+     * without being copied. Datagrams with an invalid frame header are
+     * discarded from that frame on and counted, see
+     * {@link #getInvalidFrameCount()}.
+     *
+     * @param framing The frame codec, <code>null</code> to hand the whole
+     *                datagram to the handlers (default).
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setFraming(FrameCodec framing) {
+        this.framing = framing;
+
+        return this;
+    }
+
+    /**
+     * @return the number of datagrams discarded because of an invalid frame,
+     * fragment or reliability header, and of messages discarded because they
+     * could not be decoded.
+     */
+    public long getInvalidFrameCount() {
+        Reassembler current = reassembler;
+        return invalidFrames.get() + (current != null ? current.invalid() : 0);
+    }
+
+    /**
+     * Sets the size of the largest datagram the receiver accepts. Every
+     * receive buffer has this size, so it determines the memory the receiver
+     * allocates when it is started. A larger datagram would be truncated by
+     * the socket; it is discarded and counted instead, see
+     * {@link #getTruncatedCount()}. Messages larger than a datagram can be
+     * sent in fragments, see {@link #setReassembly(boolean)}. Defaults to 1024
+     * bytes. Has no effect on a running receiver.
+     *
+     * @param maxDatagramSize The size in bytes, at most
+     *                        {@value UdpSender#MAX_DATAGRAM_SIZE}.
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setMaxDatagramSize(int maxDatagramSize) {
+        if (maxDatagramSize <= 0 || maxDatagramSize > UdpSender.MAX_DATAGRAM_SIZE) {
+            throw new IllegalArgumentException("Max datagram size must be between 1 and "
+                    + UdpSender.MAX_DATAGRAM_SIZE + ".");
+        }
+        this.maxDatagramSize = maxDatagramSize;
+
+        return this;
+    }
+
+    /**
+     * @return the number of datagrams discarded because they were larger than
+     * the max datagram size.
+     */
+    public long getTruncatedCount() {
+        return truncated.get();
+    }
+
+    /**
+     * Reassembles the messages a {@link UdpSender} split into fragments, see
+     * {@link UdpSender#setFragmentSize(int)}. Incomplete messages may hold up
+     * to 4 MiB and are evicted after one second.
+     *
+     * @param reassembly whether or not to reassemble fragmented messages.
+     * @return this UdpReceiver
+     * @see #setReassembly(int, long)
+     */
+    public UdpReceiver setReassembly(boolean reassembly) {
+        this.reassembler = reassembly
+                ? new Reassembler(Reassembler.DEFAULT_MAX_BYTES, Reassembler.DEFAULT_TIMEOUT_MILLIS)
+                : null;
+
+        return this;
+    }
+
+    /**
+     * Reassembles the messages a {@link UdpSender} split into fragments, see
+     * {@link UdpSender#setFragmentSize(int)}. Any number of messages per
+     * sender may be incomplete at the same time; a complete message is handed
+     * to the handlers at once. If a new message does not fit into the memory
+     * left, the oldest incomplete messages are evicted; an incomplete message
+     * is also evicted once it did not complete within the timeout. Evicted
+     * messages are counted, see {@link #getEvictedCount()}.
+     *
+     * @param maxBytes      The memory all incomplete messages may hold
+     *                      together, which also limits the size of a message.
+     * @param timeoutMillis The time a message may take to complete.
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setReassembly(int maxBytes, long timeoutMillis) {
+        this.reassembler = new Reassembler(maxBytes, timeoutMillis);
+
+        return this;
+    }
+
+    /**
+     * @return the number of incomplete messages evicted by the reassembly.
+     */
+    public long getEvictedCount() {
+        Reassembler current = reassembler;
+        return current != null ? current.evicted() : 0;
+    }
+
+    /**
+     * Counts the datagrams and bytes received, receive failures, truncated
+     * datagrams and the time the handlers take per datagram. The queue depth
+     * and the dropped datagrams of this receiver are reported by the metrics
+     * as well. Without metrics, which is the default, nothing is counted
+     * beyond the counters of this receiver.
+     *
+     * @param metrics The metrics, may be shared with other senders and
+     *                receivers, <code>null</code> to count nothing.
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setMetrics(UdpMetrics metrics) {
+        if (this.metrics != null) {
+            this.metrics.unbind(this);
+        }
+        this.metrics = metrics;
+        if (metrics != null) {
+            metrics.bind(this);
+        }
+
+        return this;
+    }
+
+    /**
+     * Sets the options of the sockets, most importantly a larger receive
+     * buffer, which lets the kernel hold bursts of datagrams the receiver
+     * threads cannot take at once instead of dropping them. The options are
+     * set before a socket is bound; SO_REUSEADDR is enabled regardless if a
+     * group is joined before the start, and SO_REUSEPORT if more than one
+     * shard is used. Has no effect on a running receiver.
+     *
+     * @param socketOptions The options, <code>null</code> to keep the kernel
+     *                      defaults (default).
+     * @return this UdpReceiver
+     * @see #getEffectiveSocketOptions()
+     */
+    public UdpReceiver setSocketOptions(SocketOptions socketOptions) {
+        this.socketOptions = socketOptions;
+
+        return this;
+    }
+
+    /**
+     * Reads the options the kernel granted the socket, which may differ from
+     * the options set, see {@link SocketOptions}.
+     *
+     * @return the effective options of the socket of the first shard.
+     * @throws SocketException if the options could not be read.
+     * @throws IllegalStateException if the receiver is not started.
+     */
+    public SocketOptions getEffectiveSocketOptions() throws SocketException {
+        DatagramChannel channel;
+        synchronized (memberships) {
+            pruneClosedChannels();
+            if (channels.isEmpty()) {
+                throw new IllegalStateException("Receiver is not started.");
+            }
+            channel = channels.get(0);
+        }
+        try {
+            return SocketOptions.of(channel);
+        } catch (IOException e) {
+            throw socketException(e);
+        }
+    }
+
+    /**
+     * Joins a multicast group on the default interface: the interface of the
+     * address the receiver is bound to, or else the first interface that is
+     * up and supports multicast. See
+     * {@link #joinGroup(InetAddress, NetworkInterface)}.
+     *
+     * @param group The multicast address.
+     * @return this UdpReceiver
+     * @throws SocketException if the group could not be joined.
+     */
+    public UdpReceiver joinGroup(InetAddress group) throws SocketException {
+        return joinGroup(group, null);
+    }
+
+    /**
+     * Joins a multicast group on a network interface, so datagrams sent to the
+     * group arrive at this receiver. May be called before or after the
+     * receiver is started; a receiver joined to a group before it is started
+     * binds its sockets with SO_REUSEADDR, so several receivers on one host
+     * can receive the same group. To receive multicast datagrams the receiver has to be bound to
+     * the wildcard address, see {@link #UdpReceiver(int)}.
+     *
+     * @param group            The multicast address.
+     * @param networkInterface The interface to join on, <code>null</code> for
+     *                         the default interface.
+     * @return this UdpReceiver
+     * @throws SocketException if the group could not be joined.
+     */
+    public UdpReceiver joinGroup(InetAddress group, NetworkInterface networkInterface) throws SocketException {
+        if (group == null || !group.isMulticastAddress()) {
+            throw new IllegalArgumentException("Given group must be a multicast address.");
+        }
+        NetworkInterface joinOn = networkInterface != null ? networkInterface : defaultInterface();
+        synchronized (memberships) {
+            Membership membership = new Membership(group, joinOn);
+            try {
+                pruneClosedChannels();
+                for (DatagramChannel channel : channels) {
+                    membership.join(channel);
+                }
+            } catch (IOException e) {
+                membership.drop();
+                throw socketException(e);
+            }
+            memberships.add(membership);
+        }
+
+        return this;
+    }
+
+    /**
+     * Leaves a multicast group on all interfaces it was joined on.
+     *
+     * @param group The multicast address.
+     * @return this UdpReceiver
+     */
+    public UdpReceiver leaveGroup(InetAddress group) {
+        return leaveGroup(group, null);
+    }
+
+    /**
+     * Leaves a multicast group.
+     *
+     * @param group            The multicast address.
+     * @param networkInterface The interface to leave the group on,
+     *                         <code>null</code> for all interfaces.
+     * @return this UdpReceiver
+     */
+    public UdpReceiver leaveGroup(InetAddress group, NetworkInterface networkInterface) {
+        synchronized (memberships) {
+            memberships.removeIf(membership -> {
+                if (!membership.group.equals(group)
+                        || networkInterface != null && !membership.networkInterface.equals(networkInterface)) {
+                    return false;
+                }
+                membership.drop();
+                return true;
+            });
+        }
 
         return this;
     }
 
+    /**
+     * Sets a capture log every received datagram is appended to, exactly as
+     * it was received and before any other processing, so the traffic can be
+     * replayed later with {@link UdpSender#replay(CaptureReader, double)}.
+     * The log is not closed by the receiver. If appending fails, e.g.
+     * because the log was closed, the failure is reported once and the
+     * receiver stops capturing.
+     *
+     * @param capture The log, may be shared with other receivers,
+     *                <code>null</code> to stop capturing.
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setCapture(CaptureLog capture) {
+        this.capture = capture;
+
+        return this;
+    }
+
+    /**
+     * Switches the receiver to reliable delivery for messages sent by a
+     * {@link ReliableSender}. Every message is acknowledged to its sender from
+     * the socket of this receiver, and a message received more than once is
+     * handed to the handlers only the first time. The state kept per sender
+     * is discarded once the sender sent nothing for a minute. Datagrams not
+     * sent by a ReliableSender are discarded and counted as invalid frames.
+     * Has no effect on a running receiver.
+     *
+     * @param reliable whether or not to acknowledge and deduplicate messages.
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setReliable(boolean reliable) {
+        this.reliable = reliable;
+
+        return this;
+    }
+
+    /**
+     * Drops messages a source sent more than once before the handlers are
+     * called, keyed on a sequence number or a hash of the payload, see
+     * {@link DuplicateFilter}. Every message is filtered on its own, i.e.
+     * after reassembly and after a datagram was split into its frames. The
+     * duplicates dropped are counted by the filter.
+     *
+     * @param duplicateFilter The filter, may be shared with other receivers,
+     *                        <code>null</code> to hand every message to the
+     *                        handlers (default).
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setDuplicateFilter(DuplicateFilter duplicateFilter) {
+        this.duplicateFilter = duplicateFilter;
+
+        return this;
+    }
+
+    /**
+     * Decodes the messages a {@link UdpSender} encoded with a payload codec,
+     * see {@link UdpSender#setPayloadCodec(PayloadCodec, int)}. Every message
+     * then starts with a flag byte, which is removed before the handlers are
+     * called: a message flagged {@link PayloadCodec#RAW} is handed on as it
+     * is, any other message is decoded by the codec with the id of the flag.
+     * A message with an unknown flag, or one that cannot be decoded, is
+     * discarded and counted as invalid frame, see
+     * {@link #getInvalidFrameCount()}.<br />
+     * Messages are decoded after reassembly, after a datagram was split into
+     * its frames and after the duplicate filter. Every thread handling
+     * messages decodes into a buffer of the max message size, which is
+     * allocated when it decodes its first message and reused for the next.
+     *
+     * @param maxMessageSize The size of the largest decoded message.
+     * @param codecs         The codecs the senders may use, none to receive
+     *                       messages without flag byte (default).
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setPayloadCodecs(int maxMessageSize, PayloadCodec... codecs) {
+        if (codecs == null || codecs.length == 0) {
+            this.payloadCodecs = null;
+            return this;
+        }
+        if (maxMessageSize <= 0) {
+            throw new IllegalArgumentException("Max message size must be greater than 0.");
+        }
+        PayloadCodec[] byId = new PayloadCodec[256];
+        for (PayloadCodec codec : codecs) {
+            if (codec == null) {
+                throw new IllegalArgumentException("Given codecs must not be NULL.");
+            }
+            int id = codec.id();
+            if (id <= PayloadCodec.RAW || id >= byId.length) {
+                throw new IllegalArgumentException("Codec id must be between 1 and 255.");
+            }
+            if (byId[id] != null) {
+                throw new IllegalArgumentException("Codec id " + id + " is used twice.");
+            }
+            byId[id] = codec;
+        }
+        this.maxMessageSize = maxMessageSize;
+        this.payloadCodecs = byId;
+
+        return this;
+    }
+
+    /**
+     * @return the number of duplicate messages discarded by reliable delivery.
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
     /**
      * Sets a packet handler. {@link PacketHandler} is a functional interface
      * providing the function {@link PacketHandler#handlePacket(DatagramPacket)}
@@ -79,41 +737,613 @@ public class UdpReceiver implements Runnable {
         return this;
     }
 
+    /**
+     * Sets a buffer handler. {@link BufferHandler} is a functional interface
+     * providing the function
+     * {@link BufferHandler#handleBuffer(InetSocketAddress, ByteBuffer)}. If
+     * only a buffer handler is set, the receiver does not allocate anything
+     * per datagram.
+     *
+     * @param bufferHandler
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setBufferHandler(BufferHandler bufferHandler) {
+        this.bufferHandler = bufferHandler;
+
+        return this;
+    }
+
+    /**
+     * Sets the number of direct buffers the receiver allocates when it is
+     * started. Has no effect on a running receiver.
+     *
+     * @param bufferPoolSize The number of buffers, rounded up to the next
+     *                       power of two.
+     * @return this UdpReceiver
+     */
+    public UdpReceiver setBufferPoolSize(int bufferPoolSize) {
+        if (bufferPoolSize <= 0) {
+            throw new IllegalArgumentException("Buffer pool size must be greater than 0.");
+        }
+        this.bufferPoolSize = bufferPoolSize;
+
+        return this;
+    }
+
     /**
      * Stop listening for messages.
      *
      */
     public void stop() {
-        receiverThread.interrupt();
-        socket.close();
+        for (Shard shard : shards) {
+            shard.thread.interrupt();
+            for (Thread worker : shard.workers) {
+                worker.interrupt();
+            }
+            shard.close();
+        }
+        synchronized (memberships) {
+            pruneClosedChannels();
+        }
+        // the socket is released once the receiver thread has left receive()
+        try {
+            for (Shard shard : shards) {
+                shard.thread.join(STOP_TIMEOUT_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
+    /**
+     * Runs the receive loop of the first shard. Called by the receiver thread
+     * started in {@link #start()}.
+     */
     @Override
     public void run() {
-        while (!Thread.interrupted()) {
-            DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+        shards[0].run();
+    }
 
+    /**
+     * Hands a received datagram to the handlers. A reliably sent datagram is
+     * acknowledged first and a fragment is collected until its message is
+     * complete. If a frame codec is set, every frame of the message is handed
+     * to the handlers on its own. With metrics set, the datagram is counted
+     * and the time until all handlers returned is recorded. With a capture
+     * log set, the datagram is appended to it first.
+     *
+     * @param source The remote address of the sender.
+     * @param buffer The buffer holding the datagram.
+     */
+    void dispatch(InetSocketAddress source, PooledBuffer buffer) {
+        CaptureLog log = capture;
+        if (log != null) {
             try {
-                // wait for next packet
-                // the thread is blocking while waiting...
-                socket.receive(packet);
+                log.append(source, buffer.view());
+            } catch (IOException e) {
+                detachCapture(log, e);
+            }
+        }
+        UdpMetrics current = metrics;
+        if (current == null) {
+            process(source, buffer);
+            return;
+        }
+        current.datagramReceived(source, buffer.length());
+        long start = System.nanoTime();
+        process(source, buffer);
+        current.datagramHandled(source, System.nanoTime() - start);
+    }
+
+    /**
+     * Hands a received datagram to the handlers, see
+     * {@link #dispatch(InetSocketAddress, PooledBuffer)}. A handler throwing
+     * an exception is reported, so the calling thread keeps receiving.
+     *
+     * @param source The remote address of the sender.
+     * @param buffer The buffer holding the datagram.
+     */
+    void dispatchGuarded(InetSocketAddress source, PooledBuffer buffer) {
+        try {
+            dispatch(source, buffer);
+        } catch (RuntimeException e) {
+            System.err.println("Handler of receiver on port " + port + " failed: " + e);
+        }
+    }
 
-                if (this.packetHandler != null) {
-                    this.packetHandler.handlePacket(packet);
+    /**
+     * Stops capturing into the log after appending to it failed. The failure
+     * is reported only by the first thread detaching the log.
+     *
+     * @param log The log appending failed on.
+     * @param e   The error.
+     */
+    private synchronized void detachCapture(CaptureLog log, IOException e) {
+        if (capture == log) {
+            capture = null;
+            System.err.println("Capturing stopped: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Counts a failed receive.
+     *
+     * @param e The error.
+     */
+    void receiveFailed(IOException e) {
+        System.err.println(e.getMessage());
+        UdpMetrics current = metrics;
+        if (current != null) {
+            current.receiveFailed(e);
+        }
+    }
+
+    private void process(InetSocketAddress source, PooledBuffer buffer) {
+        if (buffer.length() > maxDatagramSize) {
+            truncated.incrementAndGet();
+            if (metrics != null) {
+                metrics.datagramTruncated(source);
+            }
+            return;
+        }
+        ByteBuffer datagram = buffer.view();
+        if (reliable && !acknowledge(source, datagram)) {
+            return;
+        }
+        Reassembler current = reassembler;
+        if (current != null) {
+            datagram = current.add(source, datagram);
+            if (datagram == null) {
+                return;
+            }
+        }
+        if (framing == null) {
+            deliver(source, datagram);
+            return;
+        }
+
+        int end = datagram.limit();
+        while (datagram.hasRemaining()) {
+            int length = framing.readHeader(datagram);
+            if (length < 0) {
+                invalidFrames.incrementAndGet();
+                return;
+            }
+            int next = datagram.position() + length;
+            // slice the frame by moving the limit of the view
+            datagram.limit(next);
+            deliver(source, datagram);
+            datagram.limit(end).position(next);
+        }
+    }
+
+    /**
+     * Reads the header of a reliably sent datagram, acknowledges it and
+     * leaves the position at the first byte following the header.
+     *
+     * @param source   The remote address of the sender.
+     * @param datagram The received datagram.
+     * @return <code>false</code> if the datagram is invalid or a duplicate.
+     */
+    private boolean acknowledge(InetSocketAddress source, ByteBuffer datagram) {
+        if (datagram.remaining() < ReliableSender.DATA_HEADER_LENGTH || datagram.get() != ReliableSender.DATA) {
+            invalidFrames.incrementAndGet();
+            return false;
+        }
+        int session = datagram.getInt();
+        int sequence = datagram.getInt();
+
+        long now = System.nanoTime();
+        sweepReceiveWindows(now);
+        ReceiveWindow window = receiveWindows.computeIfAbsent(source, key -> new ReceiveWindow());
+        ByteBuffer ack = ackBuffer.get();
+        boolean first;
+        synchronized (window) {
+            window.lastSeen = now;
+            first = window.mark(session, sequence);
+            window.writeAck(ack);
+        }
+        try {
+            // a lost acknowledgement is repaired by the retransmission
+            replyChannel.send(ack, source);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        if (!first) {
+            duplicates.incrementAndGet();
+        }
+        return first;
+    }
+
+    /**
+     * Discards the receive windows of idle senders, at most once per idle
+     * time.
+     */
+    private void sweepReceiveWindows(long now) {
+        long next = nextWindowSweep.get();
+        if (now - next < 0 || !nextWindowSweep.compareAndSet(next, now + RECEIVE_WINDOW_IDLE_NANOS)) {
+            return;
+        }
+        receiveWindows.values().removeIf(window -> {
+            synchronized (window) {
+                return now - window.lastSeen > RECEIVE_WINDOW_IDLE_NANOS;
+            }
+        });
+    }
+
+    /**
+     * Hands a payload to the handlers. Every handler gets the payload
+     * positioned at its first byte.
+     *
+     * @param source  The remote address of the sender.
+     * @param payload The payload, from its position to its limit.
+     */
+    private void deliver(InetSocketAddress source, ByteBuffer payload) {
+        DuplicateFilter filter = duplicateFilter;
+        if (filter != null && !filter.accept(source, payload)) {
+            return;
+        }
+        PayloadCodec[] codecs = payloadCodecs;
+        if (codecs != null) {
+            payload = decodePayload(payload, codecs);
+            if (payload == null) {
+                invalidFrames.incrementAndGet();
+                return;
+            }
+        }
+        int start = payload.position();
+        int end = payload.limit();
+        if (this.bufferHandler != null) {
+            this.bufferHandler.handleBuffer(source, payload);
+            payload.limit(end).position(start);
+        }
+        if (this.packetHandler != null) {
+            byte[] data = new byte[end - start];
+            payload.get(data);
+            payload.position(start);
+
+            this.packetHandler.handlePacket(new DatagramPacket(data, data.length, source));
+        }
+        if (this.messageHandler != null) {
+            byte[] data = new byte[end - start];
+            payload.get(data);
+            payload.position(start);
+
+            String receivedMessage = new String(data, 0, data.length, charset);
+
+            this.messageHandler.handleMessage(source.getAddress(), source.getPort(), receivedMessage);
+        }
+        if (this.textHandler != null) {
+            ReceivedText text = receivedText.get();
+            if (!text.getCharset().equals(charset)) {
+                text = new ReceivedText(charset, maxDatagramSize);
+                receivedText.set(text);
+            }
+            this.textHandler.handleText(source, text.reset(payload));
+            payload.limit(end).position(start);
+        }
+        if (this.packetHandler == null && this.messageHandler == null && this.bufferHandler == null
+                && this.textHandler == null) {
+            System.err.println("Neither OnPacketReceive nor OnMessageReceive have been set!");
+        }
+    }
+
+    /**
+     * @return the size of the buffer a datagram is received into, one byte
+     * more than the largest datagram accepted to detect truncation.
+     */
+    int receiveBufferSize() {
+        return maxDatagramSize + 1;
+    }
+
+    /**
+     * @return the port on which the receiver listens.
+     */
+    int port() {
+        return port;
+    }
+
+    /**
+     * Removes the flag byte from the message and decodes it, if it is
+     * encoded, into the decode buffer of the calling thread. A decoded message
+     * is returned as a read-only view of that buffer.
+     *
+     * @param message The message, from its position to its limit. Its
+     *                position is changed.
+     * @param codecs  The codecs by their id.
+     * @return the decoded message, or <code>null</code> if the flag is
+     * unknown or the message cannot be decoded.
+     */
+    private ByteBuffer decodePayload(ByteBuffer message, PayloadCodec[] codecs) {
+        if (!message.hasRemaining()) {
+            return null;
+        }
+        int flag = message.get() & 0xFF;
+        if (flag == PayloadCodec.RAW) {
+            return message;
+        }
+        PayloadCodec codec = codecs[flag];
+        if (codec == null) {
+            return null;
+        }
+        ByteBuffer decoded = decodeBuffer.get();
+        ByteBuffer view = decodeView.get();
+        if (decoded.capacity() != maxMessageSize) {
+            decoded = ByteBuffer.allocate(maxMessageSize);
+            view = decoded.asReadOnlyBuffer();
+            decodeBuffer.set(decoded);
+            decodeView.set(view);
+        }
+        decoded.clear();
+        if (!codec.decode(message, decoded)) {
+            return null;
+        }
+
+        // handlers get a read-only view, like the receive buffer
+        view.limit(decoded.position()).position(0);
+        return view;
+    }
+
+    /**
+     * Opens the channel and binds it to the address and port given in the
+     * constructor.
+     *
+     * @return the bound channel.
+     * @throws SocketException if the channel could not be opened or bound.
+     */
+    DatagramChannel openChannel() throws SocketException {
+        DatagramChannel datagramChannel = null;
+        try {
+            synchronized (memberships) {
+                datagramChannel = memberships.isEmpty() || !allIpv4() ? DatagramChannel.open()
+                        : DatagramChannel.open(StandardProtocolFamily.INET);
+                if (socketOptions != null) {
+                    socketOptions.apply(datagramChannel);
+                }
+                if (!memberships.isEmpty()) {
+                    datagramChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                }
+            }
+            if (shardCount > 1) {
+                if (!ReusePort.isSupported(datagramChannel)) {
+                    throw new SocketException("SO_REUSEPORT is not supported, cannot open more than one shard.");
+                }
+                ReusePort.set(datagramChannel, true);
+            }
+            datagramChannel.bind(new InetSocketAddress(this.address, this.port));
+            synchronized (memberships) {
+                for (Membership membership : memberships) {
+                    membership.join(datagramChannel);
                 }
-                if (this.messageHandler != null) {
-                    InetAddress address = packet.getAddress();
-                    int port = packet.getPort();
-                    int len = packet.getLength();
-                    byte[] data = packet.getData();
+                channels.add(datagramChannel);
+            }
+            // all channels are bound to the same port, any of them may reply
+            replyChannel = datagramChannel;
+
+            return datagramChannel;
+        } catch (IOException e) {
+            if (datagramChannel != null) {
+                try {
+                    datagramChannel.close();
+                } catch (IOException ignored) {
+                    // already failing
+                }
+            }
+            throw socketException(e);
+        }
+    }
 
-                    String receivedMessage = new String(data, 0, len);
+    /**
+     * Forgets the closed channels and their group memberships. Must be
+     * called holding the memberships lock.
+     */
+    private void pruneClosedChannels() {
+        channels.removeIf(channel -> !channel.isOpen());
+        for (Membership membership : memberships) {
+            membership.keys.removeIf(key -> !key.isValid());
+        }
+    }
 
-                    this.messageHandler.handleMessage(address, port, receivedMessage);
+    private boolean allIpv4() {
+        if (address != null && !(address instanceof Inet4Address)) {
+            return false;
+        }
+        for (Membership membership : memberships) {
+            if (!(membership.group instanceof Inet4Address)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private NetworkInterface defaultInterface() throws SocketException {
+        if (address != null && !address.isAnyLocalAddress()) {
+            NetworkInterface networkInterface = NetworkInterface.getByInetAddress(address);
+            if (networkInterface != null) {
+                return networkInterface;
+            }
+        }
+        Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        while (interfaces != null && interfaces.hasMoreElements()) {
+            NetworkInterface networkInterface = interfaces.nextElement();
+            if (networkInterface.isUp() && networkInterface.supportsMulticast() && !networkInterface.isLoopback()) {
+                return networkInterface;
+            }
+        }
+        NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        if (loopback == null) {
+            throw new SocketException("No network interface to join the group on.");
+        }
+        return loopback;
+    }
+
+    private static SocketException socketException(IOException e) {
+        if (e instanceof SocketException) {
+            return (SocketException) e;
+        }
+        SocketException socketException = new SocketException(e.getMessage());
+        socketException.initCause(e);
+        return socketException;
+    }
+
+    /**
+     * A multicast group joined on one interface, together with the membership
+     * of every open channel.
+     */
+    private static final class Membership {
+        private final InetAddress group;
+        private final NetworkInterface networkInterface;
+        private final List<MembershipKey> keys = new ArrayList<>();
+
+        private Membership(InetAddress group, NetworkInterface networkInterface) {
+            this.group = group;
+            this.networkInterface = networkInterface;
+        }
+
+        private void join(DatagramChannel channel) throws IOException {
+            keys.add(channel.join(group, networkInterface));
+        }
+
+        private void drop() {
+            for (MembershipKey key : keys) {
+                key.drop();
+            }
+            keys.clear();
+        }
+    }
+
+    /**
+     * A socket bound to the receiver's port together with its buffers, the
+     * thread receiving on it and the optional worker threads.
+     */
+    private final class Shard implements Runnable {
+        private final DatagramChannel channel;
+        private final BufferPool bufferPool;
+        private final HandoffRing ring;
+        private final Thread[] workers;
+        private final AtomicLong dropped = new AtomicLong();
+        private Thread thread;
+
+        private Shard(DatagramChannel channel, BufferPool bufferPool, HandoffRing ring) {
+            this.channel = channel;
+            this.bufferPool = bufferPool;
+            this.ring = ring;
+            this.workers = new Thread[ring != null ? workerThreads : 0];
+        }
+
+        @Override
+        public void run() {
+            if (ring != null) {
+                receiveIntoRing();
+                return;
+            }
+            if (handlerExecutor != null) {
+                receiveForExecutor();
+                return;
+            }
+            while (!Thread.interrupted()) {
+                PooledBuffer buffer = bufferPool.acquire();
+
+                try {
+                    // wait for next packet
+                    // the thread is blocking while waiting...
+                    InetSocketAddress source = (InetSocketAddress) channel.receive(buffer.clear());
+
+                    dispatchGuarded(source, buffer);
+                } catch (ClosedChannelException e) {
+                    return;
+                } catch (IOException e) {
+                    receiveFailed(e);
+                } finally {
+                    bufferPool.release(buffer);
                 }
-                if (this.packetHandler == null && this.messageHandler == null) {
-                    System.err.println("Neither OnPacketReceive nor OnMessageReceive have been set!");
+            }
+        }
+
+        /**
+         * Receive loop handing every datagram to the worker threads.
+         */
+        private void receiveIntoRing() {
+            while (!Thread.interrupted()) {
+                int slot = ring.claim();
+                PooledBuffer buffer = slot < 0 ? bufferPool.acquire() : ring.buffer(slot);
+
+                try {
+                    InetSocketAddress source = (InetSocketAddress) channel.receive(buffer.clear());
+
+                    // a datagram received without a slot is dropped
+                    if (slot >= 0) {
+                        ring.publish(slot, source);
+                    }
+                } catch (ClosedChannelException e) {
+                    return;
+                } catch (IOException e) {
+                    receiveFailed(e);
+                } finally {
+                    if (slot < 0) {
+                        bufferPool.release(buffer);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Receive loop handing every datagram to the handler executor. The
+         * buffer is returned to the pool by the task running the handlers.
+         */
+        private void receiveForExecutor() {
+            PooledBuffer overflow = new PooledBuffer(ByteBuffer.allocateDirect(receiveBufferSize()));
+            while (!Thread.interrupted()) {
+                PooledBuffer buffer = bufferPool.acquire();
+                if (buffer == null && backpressurePolicy == BackpressurePolicy.BLOCK) {
+                    LockSupport.parkNanos(BUFFER_WAIT_NANOS);
+                    continue;
                 }
+
+                try {
+                    InetSocketAddress source = (InetSocketAddress) channel.receive(
+                            buffer != null ? buffer.clear() : overflow.clear());
+
+                    if (buffer == null) {
+                        dropped.incrementAndGet();
+                    } else {
+                        final PooledBuffer handed = buffer;
+                        handlerExecutor.execute(() -> {
+                            try {
+                                dispatchGuarded(source, handed);
+                            } finally {
+                                bufferPool.release(handed);
+                            }
+                        });
+                        buffer = null;
+                    }
+                } catch (RejectedExecutionException e) {
+                    dropped.incrementAndGet();
+                } catch (ClosedChannelException e) {
+                    return;
+                } catch (IOException e) {
+                    receiveFailed(e);
+                } finally {
+                    if (buffer != null) {
+                        bufferPool.release(buffer);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Worker loop running the handlers for the datagrams in the ring.
+         */
+        private void work() {
+            HandoffRing.Consumer handler = UdpReceiver.this::dispatchGuarded;
+            while (ring.consume(handler)) {
+                // continue until interrupted
+            }
+        }
+
+        private void close() {
+            try {
+                channel.close();
             } catch (IOException e) {
                 System.err.println(e.getMessage());
             }
@@ -153,4 +1383,42 @@ public class UdpReceiver implements Runnable {
          */
         void handleMessage(InetAddress senderAddress, int senderPort, String message);
     }
+
+    /**
+     * Functional interface to handle a received message as text without
+     * creating a string for it.
+     *
+     * @author Michael Neike
+     */
+    @FunctionalInterface
+    public interface TextHandler {
+        /**
+         * Handle the received message. The text is only valid until this
+         * method returns. Call {@link ReceivedText#toString()} if it is needed
+         * afterwards.
+         *
+         * @param source The remote address of the sender.
+         * @param text   The message, decoded on first access.
+         */
+        void handleText(InetSocketAddress source, ReceivedText text);
+    }
+
+    /**
+     * Functional interface to handle the payload of a received datagram
+     * without copying it.
+     *
+     * @author Michael Neike
+     */
+    @FunctionalInterface
+    public interface BufferHandler {
+        /**
+         * Handle the received payload. The buffer is a read-only view on a
+         * pooled buffer and is only valid until this method returns. Copy the
+         * content if it is needed afterwards.
+         *
+         * @param source  The remote address of the sender.
+         * @param payload The payload, positioned at its first byte.
+         */
+        void handleBuffer(InetSocketAddress source, ByteBuffer payload);
+    }
 }
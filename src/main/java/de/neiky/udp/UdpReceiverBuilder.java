@@ -0,0 +1,447 @@
+package de.neiky.udp;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Builds a {@link UdpReceiver}, including the options of its sockets, which
+ * are set before the sockets are bound:
+ * <pre>
+ * UdpReceiver receiver = new UdpReceiverBuilder().setLocalPort(4711)
+ *         .setReceiveBufferSize(4 * 1024 * 1024)
+ *         .setBufferHandler(handler)
+ *         .build().start();
+ * </pre>
+ * Every setting that is not given keeps the default of the receiver.
+ *
+ * @author Michael Neike
+ */
+public class UdpReceiverBuilder {
+    private InetAddress address;
+    private int port;
+    private final SocketOptions socketOptions = new SocketOptions();
+    private int shards;
+    private int workerThreads;
+    private int queueCapacity;
+    private BackpressurePolicy backpressurePolicy;
+    private Executor handlerExecutor;
+    private ThreadFactory threadFactory;
+    private int bufferPoolSize;
+    private int maxDatagramSize;
+    private FrameCodec framing;
+    private Charset charset;
+    private int reassemblyMaxBytes;
+    private long reassemblyTimeoutMillis;
+    private boolean reliable;
+    private DuplicateFilter duplicateFilter;
+    private int maxMessageSize;
+    private PayloadCodec[] payloadCodecs;
+    private UdpMetrics metrics;
+    private CaptureLog capture;
+    private UdpReceiver.PacketHandler packetHandler;
+    private UdpReceiver.MessageHandler messageHandler;
+    private UdpReceiver.BufferHandler bufferHandler;
+    private UdpReceiver.TextHandler textHandler;
+
+    public UdpReceiverBuilder() {
+
+    }
+
+    public UdpReceiverBuilder setLocalAddress(InetAddress localAddress) {
+        this.address = localAddress;
+
+        return this;
+    }
+
+    public UdpReceiverBuilder setLocalAddress(String localAddress) throws UnknownHostException {
+        this.address = InetAddress.getByName(localAddress);
+
+        return this;
+    }
+
+    public UdpReceiverBuilder setLocalPort(int port) {
+        this.port = port;
+
+        return this;
+    }
+
+    /**
+     * Sets SO_RCVBUF of the sockets of the built receiver, see
+     * {@link SocketOptions#setReceiveBufferSize(int)}.
+     *
+     * @param receiveBufferSize The size in bytes, the kernel default if not
+     *                          set.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setReceiveBufferSize(int receiveBufferSize) {
+        socketOptions.setReceiveBufferSize(receiveBufferSize);
+
+        return this;
+    }
+
+    /**
+     * Sets SO_SNDBUF of the sockets of the built receiver, which send the
+     * acknowledgements of reliable delivery.
+     *
+     * @param sendBufferSize The size in bytes, the kernel default if not set.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setSendBufferSize(int sendBufferSize) {
+        socketOptions.setSendBufferSize(sendBufferSize);
+
+        return this;
+    }
+
+    /**
+     * Sets IP_TOS of the acknowledgements the built receiver sends, see
+     * {@link SocketOptions#setTrafficClass(int)}.
+     *
+     * @param trafficClass The byte, the kernel default if not set.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setTrafficClass(int trafficClass) {
+        socketOptions.setTrafficClass(trafficClass);
+
+        return this;
+    }
+
+    /**
+     * Sets the differentiated services code point of the acknowledgements the
+     * built receiver sends, see {@link SocketOptions#setDscp(int)}.
+     *
+     * @param dscp The code point, e.g. 46 for expedited forwarding.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setDscp(int dscp) {
+        socketOptions.setDscp(dscp);
+
+        return this;
+    }
+
+    /**
+     * Enable/disable SO_REUSEADDR on the sockets of the built receiver. It is
+     * enabled regardless if a multicast group is joined before the start.
+     *
+     * @param on whether or not the address may be reused, the kernel default
+     *           if not set.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setReuseAddress(boolean on) {
+        socketOptions.setReuseAddress(on);
+
+        return this;
+    }
+
+    /**
+     * Enable/disable SO_REUSEPORT on the sockets of the built receiver, e.g.
+     * to let several processes share the port. It is enabled regardless if
+     * more than one shard is used.
+     *
+     * @param on whether or not the port may be reused, the kernel default if
+     *           not set.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setReusePort(boolean on) {
+        socketOptions.setReusePort(on);
+
+        return this;
+    }
+
+    /**
+     * Sets the number of shards of the built receiver, see
+     * {@link UdpReceiver#setShards(int)}.
+     *
+     * @param shards The number of sockets and receiver threads, 1 by default.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setShards(int shards) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("Number of shards must be greater than 0.");
+        }
+        this.shards = shards;
+
+        return this;
+    }
+
+    /**
+     * Sets the number of handler threads per shard of the built receiver, see
+     * {@link UdpReceiver#setWorkerThreads(int)}.
+     *
+     * @param workerThreads The number of threads, 0 by default.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setWorkerThreads(int workerThreads) {
+        if (workerThreads < 0) {
+            throw new IllegalArgumentException("Number of worker threads must not be negative.");
+        }
+        this.workerThreads = workerThreads;
+
+        return this;
+    }
+
+    /**
+     * Sets the queue to the worker threads of the built receiver, see
+     * {@link UdpReceiver#setQueueCapacity(int)} and
+     * {@link UdpReceiver#setBackpressurePolicy(BackpressurePolicy)}.
+     *
+     * @param capacity The datagrams queued per shard, 1024 by default.
+     * @param policy   What happens if the queue is full,
+     *                 {@link BackpressurePolicy#DROP_NEWEST} by default.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setQueue(int capacity, BackpressurePolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be greater than 0.");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Backpressure policy must not be NULL.");
+        }
+        this.queueCapacity = capacity;
+        this.backpressurePolicy = policy;
+
+        return this;
+    }
+
+    /**
+     * Sets the executor running the handlers of the built receiver, see
+     * {@link UdpReceiver#setHandlerExecutor(Executor)}.
+     *
+     * @param handlerExecutor The executor, <code>null</code> by default.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setHandlerExecutor(Executor handlerExecutor) {
+        this.handlerExecutor = handlerExecutor;
+
+        return this;
+    }
+
+    /**
+     * Sets the factory creating the threads of the built receiver.
+     *
+     * @param threadFactory The thread factory.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+
+        return this;
+    }
+
+    /**
+     * Sets the number of direct buffers the built receiver allocates, see
+     * {@link UdpReceiver#setBufferPoolSize(int)}.
+     *
+     * @param bufferPoolSize The number of buffers, 16 by default.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setBufferPoolSize(int bufferPoolSize) {
+        if (bufferPoolSize <= 0) {
+            throw new IllegalArgumentException("Buffer pool size must be greater than 0.");
+        }
+        this.bufferPoolSize = bufferPoolSize;
+
+        return this;
+    }
+
+    /**
+     * Sets the size of the largest datagram the built receiver accepts, see
+     * {@link UdpReceiver#setMaxDatagramSize(int)}.
+     *
+     * @param maxDatagramSize The size in bytes, 1024 by default.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setMaxDatagramSize(int maxDatagramSize) {
+        if (maxDatagramSize <= 0 || maxDatagramSize > UdpSender.MAX_DATAGRAM_SIZE) {
+            throw new IllegalArgumentException("Max datagram size must be between 1 and "
+                    + UdpSender.MAX_DATAGRAM_SIZE + ".");
+        }
+        this.maxDatagramSize = maxDatagramSize;
+
+        return this;
+    }
+
+    /**
+     * Sets the codec the built receiver reads the frames of the messages
+     * with.
+     *
+     * @param framing The frame codec, <code>null</code> by default.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setFraming(FrameCodec framing) {
+        this.framing = framing;
+
+        return this;
+    }
+
+    /**
+     * Sets the charset the built receiver decodes messages with.
+     *
+     * @param charset The charset, UTF-8 by default.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setCharset(Charset charset) {
+        this.charset = charset;
+
+        return this;
+    }
+
+    /**
+     * Lets the built receiver reassemble fragmented messages, see
+     * {@link UdpReceiver#setReassembly(int, long)}.
+     *
+     * @param maxBytes      The memory all incomplete messages may hold
+     *                      together, 0 to not reassemble (default).
+     * @param timeoutMillis The time a message may take to complete.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setReassembly(int maxBytes, long timeoutMillis) {
+        this.reassemblyMaxBytes = maxBytes;
+        this.reassemblyTimeoutMillis = timeoutMillis;
+
+        return this;
+    }
+
+    /**
+     * Switches the built receiver to reliable delivery, see
+     * {@link UdpReceiver#setReliable(boolean)}.
+     *
+     * @param reliable whether or not to acknowledge and deduplicate messages,
+     *                 false by default.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setReliable(boolean reliable) {
+        this.reliable = reliable;
+
+        return this;
+    }
+
+    /**
+     * Sets the filter the built receiver drops duplicate messages with, see
+     * {@link UdpReceiver#setDuplicateFilter(DuplicateFilter)}.
+     *
+     * @param duplicateFilter The filter, <code>null</code> by default.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setDuplicateFilter(DuplicateFilter duplicateFilter) {
+        this.duplicateFilter = duplicateFilter;
+
+        return this;
+    }
+
+    /**
+     * Sets the codecs the built receiver decodes the messages with, see
+     * {@link UdpReceiver#setPayloadCodecs(int, PayloadCodec...)}.
+     *
+     * @param maxMessageSize The size of the largest decoded message.
+     * @param codecs         The codecs the senders may use, none by default.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setPayloadCodecs(int maxMessageSize, PayloadCodec... codecs) {
+        this.maxMessageSize = maxMessageSize;
+        this.payloadCodecs = codecs;
+
+        return this;
+    }
+
+    /**
+     * Sets the metrics the built receiver counts its datagrams in.
+     *
+     * @param metrics The metrics, <code>null</code> by default.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setMetrics(UdpMetrics metrics) {
+        this.metrics = metrics;
+
+        return this;
+    }
+
+    /**
+     * Sets the log the built receiver captures its datagrams in.
+     *
+     * @param capture The log, <code>null</code> by default.
+     * @return this UdpReceiverBuilder.
+     */
+    public UdpReceiverBuilder setCapture(CaptureLog capture) {
+        this.capture = capture;
+
+        return this;
+    }
+
+    public UdpReceiverBuilder setPacketHandler(UdpReceiver.PacketHandler packetHandler) {
+        this.packetHandler = packetHandler;
+
+        return this;
+    }
+
+    public UdpReceiverBuilder setMessageHandler(UdpReceiver.MessageHandler messageHandler) {
+        this.messageHandler = messageHandler;
+
+        return this;
+    }
+
+    public UdpReceiverBuilder setBufferHandler(UdpReceiver.BufferHandler bufferHandler) {
+        this.bufferHandler = bufferHandler;
+
+        return this;
+    }
+
+    public UdpReceiverBuilder setTextHandler(UdpReceiver.TextHandler textHandler) {
+        this.textHandler = textHandler;
+
+        return this;
+    }
+
+    /**
+     * Builds the receiver, which still has to be started.
+     *
+     * @return the receiver.
+     */
+    public UdpReceiver build() {
+        if (workerThreads > 0 && handlerExecutor != null) {
+            throw new IllegalStateException("Worker threads and a handler executor must not be used together.");
+        }
+        UdpReceiver udpReceiver = new UdpReceiver(address, port);
+        udpReceiver.setSocketOptions(new SocketOptions(socketOptions));
+        if (shards > 0) {
+            udpReceiver.setShards(shards);
+        }
+        udpReceiver.setWorkerThreads(workerThreads);
+        if (queueCapacity > 0) {
+            udpReceiver.setQueueCapacity(queueCapacity);
+            udpReceiver.setBackpressurePolicy(backpressurePolicy);
+        }
+        udpReceiver.setHandlerExecutor(handlerExecutor);
+        if (threadFactory != null) {
+            udpReceiver.setThreadFactory(threadFactory);
+        }
+        if (bufferPoolSize > 0) {
+            udpReceiver.setBufferPoolSize(bufferPoolSize);
+        }
+        if (maxDatagramSize > 0) {
+            udpReceiver.setMaxDatagramSize(maxDatagramSize);
+        }
+        udpReceiver.setFraming(framing);
+        if (charset != null) {
+            udpReceiver.setCharset(charset);
+        }
+        if (reassemblyMaxBytes > 0) {
+            udpReceiver.setReassembly(reassemblyMaxBytes, reassemblyTimeoutMillis);
+        }
+        udpReceiver.setReliable(reliable);
+        udpReceiver.setDuplicateFilter(duplicateFilter);
+        if (payloadCodecs != null) {
+            udpReceiver.setPayloadCodecs(maxMessageSize, payloadCodecs);
+        }
+        udpReceiver.setMetrics(metrics);
+        udpReceiver.setCapture(capture);
+        udpReceiver.setPacketHandler(packetHandler);
+        udpReceiver.setMessageHandler(messageHandler);
+        udpReceiver.setBufferHandler(bufferHandler);
+        udpReceiver.setTextHandler(textHandler);
+
+        return udpReceiver;
+    }
+}
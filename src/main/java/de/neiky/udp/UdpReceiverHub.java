@@ -0,0 +1,304 @@
+package de.neiky.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+
+import de.neiky.udp.BufferPool.PooledBuffer;
+
+/**
+ * A UdpReceiverHub runs many {@link UdpReceiver}s on a small, fixed number of
+ * threads. Every registered receiver keeps its own address, port and
+ * handlers, but instead of starting its own thread its socket is registered
+ * with one of the hub's selectors.<br />
+ * Only the handlers of a registered receiver are used; its shard, worker
+ * thread and handler executor settings are ignored. Do not call
+ * {@link UdpReceiver#start()} on a registered receiver.
+ *
+ * @author Michael Neike
+ */
+public class UdpReceiverHub {
+    private static final int MAX_READS_PER_KEY = 64;
+    private static final long STOP_TIMEOUT_MILLIS = 1000L;
+
+    private final SelectorLoop[] loops;
+    private final Map<UdpReceiver, Registration> registrations = new ConcurrentHashMap<>();
+    private ThreadFactory threadFactory = Thread::new;
+    private int nextLoop;
+    private boolean started;
+
+    /**
+     * Constructor for UdpReceiverHub with one selector thread.
+     */
+    public UdpReceiverHub() {
+        this(1);
+    }
+
+    /**
+     * Parameterized constructor for UdpReceiverHub.
+     *
+     * @param selectorThreads The number of selector threads. Receivers are
+     *                        assigned to them round robin.
+     */
+    public UdpReceiverHub(int selectorThreads) {
+        if (selectorThreads <= 0) {
+            throw new IllegalArgumentException("Number of selector threads must be greater than 0.");
+        }
+        this.loops = new SelectorLoop[selectorThreads];
+    }
+
+    /**
+     * Sets the factory creating the selector threads. Has no effect on a
+     * running hub.
+     *
+     * @param threadFactory The thread factory.
+     * @return this UdpReceiverHub
+     */
+    public UdpReceiverHub setThreadFactory(ThreadFactory threadFactory) {
+        if (threadFactory == null) {
+            throw new IllegalArgumentException("Thread factory must not be NULL.");
+        }
+        this.threadFactory = threadFactory;
+
+        return this;
+    }
+
+    /**
+     * Opens the selectors and starts the selector threads. Receivers can be
+     * registered and unregistered while the hub is running.
+     *
+     * @return this UdpReceiverHub
+     * @throws IOException if a selector could not be opened.
+     */
+    public synchronized UdpReceiverHub start() throws IOException {
+        if (started) {
+            throw new IllegalStateException("Hub is already running.");
+        }
+        try {
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new SelectorLoop(Selector.open());
+            }
+        } catch (IOException e) {
+            for (SelectorLoop loop : loops) {
+                if (loop != null) {
+                    loop.selector.close();
+                }
+            }
+            throw e;
+        }
+
+        for (int i = 0; i < loops.length; i++) {
+            Thread thread = threadFactory.newThread(loops[i]);
+            thread.setName("UdpReceiverHub-" + i);
+            loops[i].thread = thread;
+            thread.start();
+        }
+        started = true;
+
+        return this;
+    }
+
+    /**
+     * Opens the socket of the receiver and registers it with one of the
+     * selectors.
+     *
+     * @param receiver The receiver with its address, port and handlers set.
+     * @return this UdpReceiverHub
+     * @throws SocketException if the socket could not be opened, or the socket could not
+     *                         bind to the specified local port.
+     */
+    public synchronized UdpReceiverHub register(UdpReceiver receiver) throws SocketException {
+        if (!started) {
+            throw new IllegalStateException("Hub must be started before receivers are registered.");
+        }
+        if (registrations.containsKey(receiver)) {
+            throw new IllegalArgumentException("Receiver is already registered.");
+        }
+
+        DatagramChannel channel = receiver.openChannel();
+        try {
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            SocketException socketException = new SocketException(e.getMessage());
+            socketException.initCause(e);
+            throw socketException;
+        }
+
+        SelectorLoop loop = loops[nextLoop];
+        nextLoop = (nextLoop + 1) % loops.length;
+        Registration registration = new Registration(receiver, channel, loop);
+        registrations.put(receiver, registration);
+        loop.pending.add(registration);
+        loop.selector.wakeup();
+
+        return this;
+    }
+
+    /**
+     * Removes the receiver from the hub and closes its socket.
+     *
+     * @param receiver The registered receiver.
+     * @return this UdpReceiverHub
+     */
+    public synchronized UdpReceiverHub unregister(UdpReceiver receiver) {
+        // closing the channel cancels its key, or makes a pending
+        // registration fail on the selector thread. A registered socket is
+        // released by the next select, so the selector is woken up.
+        Registration registration = registrations.remove(receiver);
+        if (registration != null) {
+            closeQuietly(registration.channel);
+            registration.loop.selector.wakeup();
+        }
+
+        return this;
+    }
+
+    /**
+     * Stops the selector threads and closes the sockets of all registered
+     * receivers.
+     */
+    public synchronized void stop() {
+        for (SelectorLoop loop : loops) {
+            if (loop != null) {
+                loop.thread.interrupt();
+                try {
+                    loop.selector.close();
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+        }
+        for (Registration registration : registrations.values()) {
+            closeQuietly(registration.channel);
+        }
+        registrations.clear();
+        for (SelectorLoop loop : loops) {
+            if (loop != null) {
+                Registration registration;
+                while ((registration = loop.pending.poll()) != null) {
+                    closeQuietly(registration.channel);
+                }
+            }
+        }
+        try {
+            for (SelectorLoop loop : loops) {
+                if (loop != null) {
+                    loop.thread.join(STOP_TIMEOUT_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        started = false;
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * A receiver together with its socket, receive buffer and selector.
+     */
+    private static final class Registration {
+        private final UdpReceiver receiver;
+        private final DatagramChannel channel;
+        private final PooledBuffer buffer;
+        private final SelectorLoop loop;
+
+        private Registration(UdpReceiver receiver, DatagramChannel channel, SelectorLoop loop) {
+            this.receiver = receiver;
+            this.channel = channel;
+            this.loop = loop;
+            this.buffer = new PooledBuffer(ByteBuffer.allocateDirect(receiver.receiveBufferSize()));
+        }
+    }
+
+    /**
+     * A selector and the thread waiting on it.
+     */
+    private final class SelectorLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Registration> pending = new ConcurrentLinkedQueue<>();
+        private Thread thread;
+
+        private SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.interrupted()) {
+                    selector.select();
+                    registerPending();
+
+                    Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        SelectionKey key = selected.next();
+                        selected.remove();
+                        if (key.isValid() && key.isReadable()) {
+                            read((Registration) key.attachment());
+                        }
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                // hub was stopped
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+
+        private void registerPending() {
+            Registration registration;
+            while ((registration = pending.poll()) != null) {
+                try {
+                    registration.channel.register(selector, SelectionKey.OP_READ, registration);
+                } catch (ClosedChannelException e) {
+                    // receiver was unregistered before its socket got registered
+                }
+            }
+        }
+
+        /**
+         * Reads the datagrams waiting on the socket. The number of reads is
+         * limited so a busy port cannot starve the other ports of the
+         * selector.
+         */
+        private void read(Registration registration) {
+            for (int i = 0; i < MAX_READS_PER_KEY; i++) {
+                try {
+                    InetSocketAddress source = (InetSocketAddress) registration.channel
+                            .receive(registration.buffer.clear());
+                    if (source == null) {
+                        return;
+                    }
+                    // a failing handler must not stop the thread serving the other ports
+                    registration.receiver.dispatchGuarded(source, registration.buffer);
+                } catch (ClosedChannelException e) {
+                    return;
+                } catch (IOException e) {
+                    registration.receiver.receiveFailed(e);
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -1,11 +1,32 @@
 package de.neiky.udp;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.io.InterruptedIOException;
+import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
 import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * A UdpSender class built to send UDP messages.
@@ -13,12 +34,43 @@ import java.net.UnknownHostException;
  * @author Michael Neike
  */
 public class UdpSender implements AutoCloseable {
+    /**
+     * The largest payload of a UDP datagram over IPv4.
+     */
+    public static final int MAX_DATAGRAM_SIZE = 65507;
+
     private InetAddress address;
     private int port;
     private InetAddress remoteAddress;
+    private String remoteHost;
     private int remotePort;
-    private boolean broadcast = false;
-    private DatagramSocket socket;
+    private volatile Endpoint remoteEndpoint;
+    private DestinationCache destinationCache;
+    private volatile boolean broadcast = false;
+    private int channelCount = 1;
+    private int multicastTtl = -1;
+    private Boolean multicastLoopback;
+    private NetworkInterface multicastInterface;
+    private SocketOptions socketOptions;
+    private volatile SendChannel[] channels;
+    private Executor executor = ForkJoinPool.commonPool();
+    private FrameCodec framing;
+    private final ThreadLocal<ByteBuffer> datagramBuffer =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE));
+    private int fragmentSize;
+    private final AtomicInteger messageIds = new AtomicInteger();
+    private final ThreadLocal<ByteBuffer> fragmentBuffer =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE));
+    private volatile PayloadCodec payloadCodec;
+    private int payloadCodecThreshold;
+    private final ThreadLocal<ByteBuffer> codecBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(0));
+    private final ThreadLocal<ByteBuffer> textBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(0));
+    private int coalescingSize;
+    private long maxDelayNanos;
+    private final Map<InetSocketAddress, Coalescer> coalescers = new ConcurrentHashMap<>();
+    private volatile Pacer pacer;
+    private ScheduledExecutorService flushScheduler;
+    private volatile UdpMetrics metrics;
 
     /**
      * Default constructor for UdpSender.
@@ -81,7 +133,9 @@ public class UdpSender implements AutoCloseable {
     }
 
     /**
-     * Sets the address of the recipient.
+     * Sets the address of the recipient. The host name is resolved through
+     * the destination cache of this sender, and the recipient follows its
+     * address when the cache re-resolves it.
      *
      * @param remoteAddress The address of the recipient (ip address, host name).
      * @return this UdpSender.
@@ -89,7 +143,9 @@ public class UdpSender implements AutoCloseable {
      *                              scope_id was specified for a global IPv6 address.
      */
     protected UdpSender setRemoteAddress(String remoteAddress) throws UnknownHostException {
-        this.remoteAddress = InetAddress.getByName(remoteAddress);
+        this.remoteAddress = destinationCache().resolve(remoteAddress);
+        this.remoteHost = remoteAddress;
+        updateRemoteEndpoint();
 
         return this;
     }
@@ -102,6 +158,8 @@ public class UdpSender implements AutoCloseable {
      */
     protected UdpSender setRemoteAddress(InetAddress remoteAddress) {
         this.remoteAddress = remoteAddress;
+        this.remoteHost = null;
+        updateRemoteEndpoint();
 
         return this;
     }
@@ -114,6 +172,358 @@ public class UdpSender implements AutoCloseable {
      */
     protected UdpSender setRemotePort(int remotePort) {
         this.remotePort = remotePort;
+        updateRemoteEndpoint();
+
+        return this;
+    }
+
+    /**
+     * Sets the cache used to resolve host names given as strings. Defaults to
+     * the shared {@link DestinationCache#getDefault()}. A recipient given as
+     * host name is taken over into the new cache.
+     *
+     * @param destinationCache The cache.
+     * @return this UdpSender.
+     */
+    protected UdpSender setDestinationCache(DestinationCache destinationCache) {
+        if (destinationCache == null) {
+            throw new IllegalArgumentException("Destination cache must not be NULL.");
+        }
+        this.destinationCache = destinationCache;
+        updateRemoteEndpoint();
+
+        return this;
+    }
+
+    /**
+     * Sets the number of sockets the sender spreads its datagrams over. Every
+     * sending thread is mapped to one of the sockets, so threads sharing this
+     * sender only contend if they are mapped to the same socket. If a local
+     * port is given, all sockets are bound to it using SO_REUSEPORT.<br />
+     * Has no effect once the socket is opened.
+     *
+     * @param channelCount The number of sockets.
+     * @return this UdpSender.
+     */
+    protected UdpSender setChannelCount(int channelCount) {
+        if (channelCount <= 0) {
+            throw new IllegalArgumentException("Number of channels must be greater than 0.");
+        }
+        this.channelCount = channelCount;
+
+        return this;
+    }
+
+    /**
+     * Sets the time-to-live of multicast datagrams, i.e. the number of routers
+     * they may pass. The kernel default is 1, which keeps them in the local
+     * network. Has no effect once the socket is opened.
+     *
+     * @param ttl The time-to-live, between 0 and 255.
+     * @return this UdpSender.
+     */
+    protected UdpSender setMulticastTtl(int ttl) {
+        if (ttl < 0 || ttl > 255) {
+            throw new IllegalArgumentException("Multicast TTL must be between 0 and 255.");
+        }
+        this.multicastTtl = ttl;
+
+        return this;
+    }
+
+    /**
+     * Enable/disable the delivery of multicast datagrams to receivers on this
+     * host. The kernel enables it by default. Has no effect once the socket is
+     * opened.
+     *
+     * @param on whether or not multicast datagrams are looped back.
+     * @return this UdpSender.
+     */
+    protected UdpSender setMulticastLoopback(boolean on) {
+        this.multicastLoopback = on;
+
+        return this;
+    }
+
+    /**
+     * Sets the network interface multicast datagrams are sent on. By default
+     * the kernel chooses the interface by its routing table. Has no effect
+     * once the socket is opened.
+     *
+     * @param networkInterface The interface, <code>null</code> to let the
+     *                         kernel choose.
+     * @return this UdpSender.
+     */
+    protected UdpSender setMulticastInterface(NetworkInterface networkInterface) {
+        this.multicastInterface = networkInterface;
+
+        return this;
+    }
+
+    /**
+     * Sets the options of the sockets, e.g. a larger send buffer or the DSCP
+     * of the datagrams sent. The options are set before a socket is bound;
+     * SO_REUSEPORT is enabled regardless if more than one channel is bound to
+     * the local port. Has no effect once the socket is opened.
+     *
+     * @param socketOptions The options, <code>null</code> to keep the kernel
+     *                      defaults (default).
+     * @return this UdpSender.
+     * @see #getEffectiveSocketOptions()
+     */
+    protected UdpSender setSocketOptions(SocketOptions socketOptions) {
+        this.socketOptions = socketOptions;
+
+        return this;
+    }
+
+    /**
+     * Reads the options the kernel granted the socket, which may differ from
+     * the options set, see {@link SocketOptions}. Opens the socket if it is
+     * not open yet.
+     *
+     * @return the effective options of the first socket.
+     * @throws SocketException if the socket could not be opened or its
+     *                         options could not be read.
+     */
+    public SocketOptions getEffectiveSocketOptions() throws SocketException {
+        try {
+            return SocketOptions.of(channel().channel());
+        } catch (SocketException e) {
+            throw e;
+        } catch (IOException e) {
+            SocketException socketException = new SocketException(e.getMessage());
+            socketException.initCause(e);
+            throw socketException;
+        }
+    }
+
+    /**
+     * Sets the executor that completes asynchronous sends which cannot be
+     * written immediately because the send buffer is full. Defaults to the
+     * common fork/join pool.
+     *
+     * @param executor The executor.
+     * @return this UdpSender.
+     */
+    protected UdpSender setExecutor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be NULL.");
+        }
+        this.executor = executor;
+
+        return this;
+    }
+
+    /**
+     * Sets the codec framing every message sent. With a frame codec set, the
+     * header and the payload are written into one reused buffer per sending
+     * thread, so a message is never copied into an intermediate array.
+     *
+     * @param framing The frame codec, <code>null</code> to send the plain
+     *                message (default).
+     * @return this UdpSender.
+     */
+    protected UdpSender setFraming(FrameCodec framing) {
+        this.framing = framing;
+
+        return this;
+    }
+
+    /**
+     * Splits every message into fragments of at most the given size, so
+     * messages larger than a datagram, or larger than the MTU of the network,
+     * can be sent. Every fragment is preceded by a 12 byte header and the
+     * receiver has to reassemble the messages, see
+     * {@link UdpReceiver#setReassembly(boolean)}. A message that fits into one
+     * fragment is sent as a single datagram. With a fragment size of 1472 no
+     * datagram exceeds an Ethernet MTU of 1500 bytes.
+     *
+     * @param fragmentSize The largest datagram sent, between 64 and
+     *                     {@value #MAX_DATAGRAM_SIZE} bytes, 0 to send every
+     *                     message as one datagram (default).
+     * @return this UdpSender.
+     */
+    protected UdpSender setFragmentSize(int fragmentSize) {
+        if (fragmentSize != 0 && (fragmentSize < 64 || fragmentSize > MAX_DATAGRAM_SIZE)) {
+            throw new IllegalArgumentException("Fragment size must be between 64 and " + MAX_DATAGRAM_SIZE + ".");
+        }
+        this.fragmentSize = fragmentSize;
+
+        return this;
+    }
+
+    /**
+     * Encodes every message with the given codec before it is framed,
+     * fragmented or coalesced, e.g. to compress large messages so that they
+     * need fewer fragments. Every message is preceded by a flag byte telling
+     * the receiver whether and how it is encoded. Messages smaller than the
+     * threshold and messages the codec cannot make smaller are sent as they
+     * are, behind the flag byte {@link PayloadCodec#RAW}. The messages are
+     * encoded into a buffer of the calling thread, which only grows with the
+     * largest message sent.<br />
+     * The receiver has to know the codec, see
+     * {@link UdpReceiver#setPayloadCodecs(int, PayloadCodec...)}. Messages
+     * sent through a {@link ReliableSender} are encoded as well.
+     *
+     * @param codec     The codec, <code>null</code> to send the messages
+     *                  without flag byte (default).
+     * @param threshold The size in bytes from which on a message is encoded.
+     * @return this UdpSender.
+     */
+    protected UdpSender setPayloadCodec(PayloadCodec codec, int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Threshold must not be negative.");
+        }
+        this.payloadCodecThreshold = threshold;
+        this.payloadCodec = codec;
+
+        return this;
+    }
+
+    /**
+     * Collects small messages sent with one of the send methods into one
+     * datagram per destination, instead of sending each message as a datagram
+     * of its own. The datagram is sent once the next message does not fit or
+     * the first message waited for the given delay, whichever comes first. A
+     * message that does not fit into an empty datagram is sent on its own.
+     * The receiver hands every message to its handlers on its own, so the
+     * coalescing is transparent to it.<br />
+     * Requires a frame codec, see {@link #setFraming(FrameCodec)}, and the
+     * same codec on the receiver. Asynchronous and batched sends are not
+     * coalesced. Use {@link #flush()} to send the collected messages at once.
+     *
+     * @param datagramSize   The largest datagram sent, e.g. 1472 to stay
+     *                       within an Ethernet MTU, 0 to turn coalescing off
+     *                       (default).
+     * @param maxDelayMicros The longest time a message waits for further
+     *                       messages, in microseconds.
+     * @return this UdpSender.
+     */
+    protected UdpSender setCoalescing(int datagramSize, long maxDelayMicros) {
+        if (datagramSize < 0 || datagramSize > MAX_DATAGRAM_SIZE) {
+            throw new IllegalArgumentException("Datagram size must be between 0 and " + MAX_DATAGRAM_SIZE + ".");
+        }
+        if (datagramSize > 0 && maxDelayMicros <= 0) {
+            throw new IllegalArgumentException("Max delay must be greater than 0.");
+        }
+        this.coalescingSize = datagramSize;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+
+        return this;
+    }
+
+    /**
+     * Limits the datagrams sent to each destination to a rate, so bursts do
+     * not overrun receivers with small receive buffers. Every destination
+     * gets its own token bucket: up to <code>burst</code> datagrams are sent
+     * back to back, the following ones evenly spaced at the rate. A datagram
+     * that has to wait is copied into a queue of its destination and sent by
+     * a scheduler thread, so the calling thread never waits. If the queue is
+     * full, the newest or the oldest datagram is discarded and counted, see
+     * {@link #getPacedDropCount()}.<br />
+     * Every datagram counts, so a fragmented message uses one token per
+     * fragment and a coalesced datagram one token for all its messages.
+     * Datagrams still queued when the sender is closed are discarded. The
+     * future of an asynchronously sent message is completed once its last
+     * datagram was written and fails if one of them was discarded.
+     *
+     * @param ratePerSecond The datagrams per second sent to a destination, 0
+     *                      to turn pacing off (default).
+     * @param burst         The datagrams sent back to back, at least 1.
+     * @param queueCapacity The datagrams queued per destination.
+     * @param policy        {@link BackpressurePolicy#DROP_NEWEST} or
+     *                      {@link BackpressurePolicy#DROP_OLDEST}; blocking
+     *                      is not supported.
+     * @return this UdpSender.
+     */
+    protected UdpSender setPacing(double ratePerSecond, int burst, int queueCapacity, BackpressurePolicy policy) {
+        if (ratePerSecond == 0.0) {
+            this.pacer = null;
+            return this;
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be greater than 0.");
+        }
+        if (policy == null || policy == BackpressurePolicy.BLOCK) {
+            throw new IllegalArgumentException("Policy must be DROP_NEWEST or DROP_OLDEST.");
+        }
+        this.pacer = new Pacer(this, flushScheduler(), ratePerSecond, burst, queueCapacity, policy);
+
+        return this;
+    }
+
+    /**
+     * Sets the rate of one destination, instead of the rate given with
+     * {@link #setPacing(double, int, int, BackpressurePolicy)}. Set it before
+     * the first datagram is sent to the destination.
+     *
+     * @param target        The destination.
+     * @param ratePerSecond The datagrams per second sent to the destination.
+     * @param burst         The datagrams sent back to back, at least 1.
+     * @return this UdpSender.
+     */
+    protected UdpSender setPacing(InetSocketAddress target, double ratePerSecond, int burst) {
+        if (target == null) {
+            throw new IllegalArgumentException("Given target must not be NULL.");
+        }
+        Pacer current = pacer;
+        if (current == null) {
+            throw new IllegalStateException("Pacing is not enabled.");
+        }
+        current.setRate(target, ratePerSecond, burst);
+
+        return this;
+    }
+
+    /**
+     * @return the number of datagrams discarded because the pacing queue of
+     * their destination was full.
+     */
+    public long getPacedDropCount() {
+        Pacer current = pacer;
+        return current != null ? current.getDroppedCount() : 0;
+    }
+
+    /**
+     * @return the number of datagrams waiting in the pacing queues.
+     */
+    public int getPacedQueueDepth() {
+        Pacer current = pacer;
+        return current != null ? current.getQueueDepth() : 0;
+    }
+
+    /**
+     * Counts the datagrams and bytes sent and the send failures.
+     * Without metrics, which is the default, nothing is counted.
+     *
+     * @param metrics The metrics, may be shared with other senders and
+     *                receivers, <code>null</code> to count nothing.
+     * @return this UdpSender.
+     */
+    protected UdpSender setMetrics(UdpMetrics metrics) {
+        this.metrics = metrics;
+        SendChannel[] opened = channels;
+        if (opened != null) {
+            for (SendChannel channel : opened) {
+                channel.setMetrics(metrics);
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Sends the messages collected for coalescing at once, see
+     * {@link #setCoalescing(int, long)}.
+     *
+     * @return this UdpSender.
+     * @throws IOException if an I/O error occurs.
+     */
+    public UdpSender flush() throws IOException {
+        for (Coalescer coalescer : coalescers.values()) {
+            coalescer.flush();
+        }
 
         return this;
     }
@@ -131,28 +541,107 @@ public class UdpSender implements AutoCloseable {
      *                         bind to the specified local port.
      */
     public synchronized UdpSender openSocket() throws SocketException {
-        if (port > 0) {
-            if (address != null) {
-                this.socket = new DatagramSocket(port, address);
-            } else {
-                this.socket = new DatagramSocket(port);
+        SendChannel[] opened = new SendChannel[channelCount];
+        DatagramChannel datagramChannel = null;
+        try {
+            for (int i = 0; i < opened.length; i++) {
+                datagramChannel = ipv4Multicast() ? DatagramChannel.open(StandardProtocolFamily.INET)
+                        : DatagramChannel.open();
+                if (socketOptions != null) {
+                    socketOptions.apply(datagramChannel);
+                }
+                if (opened.length > 1 && port > 0) {
+                    if (!ReusePort.isSupported(datagramChannel)) {
+                        throw new SocketException("SO_REUSEPORT is not supported, cannot open more than one channel.");
+                    }
+                    ReusePort.set(datagramChannel, true);
+                }
+                if (port > 0) {
+                    datagramChannel.bind(new InetSocketAddress(address, port));
+                } else {
+                    datagramChannel.bind(null);
+                }
+                applyMulticastOptions(datagramChannel);
+                opened[i] = new SendChannel(datagramChannel, broadcast);
+                opened[i].setMetrics(metrics);
+                datagramChannel = null;
             }
-        } else {
-            this.socket = new DatagramSocket();
+        } catch (IOException e) {
+            if (datagramChannel != null) {
+                try {
+                    datagramChannel.close();
+                } catch (IOException ignored) {
+                    // already failing
+                }
+            }
+            for (SendChannel channel : opened) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+            if (e instanceof SocketException) {
+                throw (SocketException) e;
+            }
+            SocketException socketException = new SocketException(e.getMessage());
+            socketException.initCause(e);
+            throw socketException;
         }
+        this.channels = opened;
 
         return this;
     }
 
     /**
-     * Sends a UDP message.
+     * Whether the multicast options are meant for IPv4. A dual-stack socket
+     * applies them to IPv6 only on Java 8, so such a sender gets an IPv4
+     * socket.
+     */
+    private boolean ipv4Multicast() {
+        if (address != null && !(address instanceof Inet4Address)) {
+            return false;
+        }
+        if (remoteAddress != null) {
+            return remoteAddress instanceof Inet4Address && remoteAddress.isMulticastAddress();
+        }
+        return multicastInterface != null && hasIpv4Address(multicastInterface);
+    }
+
+    private static boolean hasIpv4Address(NetworkInterface networkInterface) {
+        Enumeration<InetAddress> addresses = networkInterface.getInetAddresses();
+        while (addresses.hasMoreElements()) {
+            if (addresses.nextElement() instanceof Inet4Address) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void applyMulticastOptions(DatagramChannel datagramChannel) throws IOException {
+        if (multicastTtl >= 0) {
+            datagramChannel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, multicastTtl);
+        }
+        if (multicastLoopback != null) {
+            datagramChannel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, multicastLoopback);
+        }
+        if (multicastInterface != null) {
+            datagramChannel.setOption(StandardSocketOptions.IP_MULTICAST_IF, multicastInterface);
+        }
+    }
+
+    /**
+     * Sends a UDP message to the recipient set on this sender.
      *
      * @param message The message to be sent.
      * @return this UdpSender.
      * @throws IOException if an I/O error occurs.
      */
     public UdpSender send(String message) throws IOException {
-        return send(message, this.remoteAddress, this.port);
+        if (message == null) {
+            throw new IllegalArgumentException("Given message must not be NULL.");
+        }
+        transmitText(message, remoteEndpoint().getAddress());
+
+        return this;
     }
 
     /**
@@ -166,24 +655,65 @@ public class UdpSender implements AutoCloseable {
         if (message == null) {
             throw new IllegalArgumentException("Given message must not be NULL.");
         }
-        byte[] messageBytes = message.getBytes("UTF-8");
-        return send(messageBytes, remoteAddress, remotePort);
+        if (remoteAddress == null) {
+            throw new SocketException("No receiver address given.");
+        }
+
+        if (remotePort <= 0) {
+            throw new SocketException("No receiver port given.");
+        }
+
+        transmitText(message, new InetSocketAddress(remoteAddress, remotePort));
+
+        return this;
     }
 
+    /**
+     * Sends a UDP message. The host name is resolved through the destination
+     * cache of this sender.
+     *
+     * @param message       The message to be sent.
+     * @param remoteAddress The address of the destination (ip address, host name).
+     * @param remotePort    The port of the destination.
+     * @return this UdpSender
+     * @throws UnknownHostException if no IP address for the host could be found.
+     * @throws IOException          if an I/O error occurs.
+     */
     public UdpSender send(String message, String remoteAddress, int remotePort)
             throws UnknownHostException, IOException {
-        return send(message, InetAddress.getByName(remoteAddress), remotePort);
+        return send(message, destinationCache().resolve(remoteAddress), remotePort);
     }
 
     /**
      * Sends a UDP message.
      *
+     * @param message  The message to be sent.
+     * @param endpoint The destination.
+     * @return this UdpSender
+     * @throws IOException if an I/O error occurs.
+     */
+    public UdpSender send(String message, Endpoint endpoint) throws IOException {
+        if (message == null) {
+            throw new IllegalArgumentException("Given message must not be NULL.");
+        }
+        if (endpoint == null) {
+            throw new SocketException("No receiver address given.");
+        }
+
+        transmitText(message, endpoint.getAddress());
+
+        return this;
+    }
+
+    /**
+     * Sends a UDP message to the recipient set on this sender.
+     *
      * @param bytes The message to be sent as byte array.
      * @return this UdpSender.
      * @throws IOException if an I/O error occurs.
      */
     public UdpSender send(byte[] bytes) throws IOException {
-        return send(bytes, this.remoteAddress, this.remotePort);
+        return send(bytes, remoteEndpoint());
     }
 
     /**
@@ -195,7 +725,7 @@ public class UdpSender implements AutoCloseable {
      * @return This UdpSender.
      * @throws IOException if an I/O error occurs
      */
-    public synchronized UdpSender send(byte[] bytes, InetAddress remoteAddress, int remotePort) throws IOException {
+    public UdpSender send(byte[] bytes, InetAddress remoteAddress, int remotePort) throws IOException {
         if (remoteAddress == null) {
             throw new SocketException("No receiver address given.");
         }
@@ -208,20 +738,791 @@ public class UdpSender implements AutoCloseable {
             throw new IllegalArgumentException("Given message must not be NULL.");
         }
 
-        if (socket == null) {
-            openSocket();
+        transmit(ByteBuffer.wrap(bytes), new InetSocketAddress(remoteAddress, remotePort));
+
+        return this;
+    }
+
+    /**
+     * Sends a UDP message. The host name is resolved through the destination
+     * cache of this sender.
+     *
+     * @param bytes         The byte array to be sent.
+     * @param remoteAddress The address of the destination (ip address, host name).
+     * @param remotePort    The port of the destination.
+     * @return This UdpSender.
+     * @throws UnknownHostException if no IP address for the host could be found.
+     * @throws IOException          if an I/O error occurs.
+     */
+    public UdpSender send(byte[] bytes, String remoteAddress, int remotePort) throws UnknownHostException, IOException {
+        return send(bytes, destinationCache().resolve(remoteAddress), remotePort);
+    }
+
+    /**
+     * Sends a UDP message to a prepared endpoint. Neither resolves a host name
+     * nor creates an address object.
+     *
+     * @param bytes    The byte array to be sent.
+     * @param endpoint The destination.
+     * @return This UdpSender.
+     * @throws IOException if an I/O error occurs
+     */
+    public UdpSender send(byte[] bytes, Endpoint endpoint) throws IOException {
+        if (endpoint == null) {
+            throw new SocketException("No receiver address given.");
         }
 
-        DatagramPacket packet = new DatagramPacket(bytes, bytes.length, remoteAddress, remotePort);
+        if (bytes == null) {
+            throw new IllegalArgumentException("Given message must not be NULL.");
+        }
 
-        this.socket.setBroadcast(broadcast);
-        this.socket.send(packet);
+        transmit(ByteBuffer.wrap(bytes), endpoint.getAddress());
 
         return this;
     }
 
-    public UdpSender send(byte[] bytes, String remoteAddress, int remotePort) throws UnknownHostException, IOException {
-        return send(bytes, InetAddress.getByName(remoteAddress), remotePort);
+    /**
+     * Sends the bytes of the buffer to the recipient set on this sender. The
+     * position of the buffer is not changed, so an encoder may reuse it.
+     *
+     * @param payload The message, from its position to its limit.
+     * @return this UdpSender.
+     * @throws IOException if an I/O error occurs.
+     */
+    public UdpSender send(ByteBuffer payload) throws IOException {
+        return send(payload, remoteEndpoint());
+    }
+
+    /**
+     * Sends the bytes of the buffer to a prepared endpoint. The position of
+     * the buffer is not changed, so an encoder may reuse it.
+     *
+     * @param payload  The message, from its position to its limit.
+     * @param endpoint The destination.
+     * @return this UdpSender.
+     * @throws IOException if an I/O error occurs.
+     */
+    public UdpSender send(ByteBuffer payload, Endpoint endpoint) throws IOException {
+        if (endpoint == null) {
+            throw new SocketException("No receiver address given.");
+        }
+
+        if (payload == null) {
+            throw new IllegalArgumentException("Given message must not be NULL.");
+        }
+
+        int position = payload.position();
+        try {
+            transmit(payload, endpoint.getAddress());
+        } finally {
+            payload.position(position);
+        }
+
+        return this;
+    }
+
+    /**
+     * Replays the datagrams of a capture log to the recipient set on this
+     * sender. The datagrams are sent as they were captured, so framing,
+     * fragmentation and coalescing of this sender are not applied. The
+     * payloads are sent straight from the mapped segments.
+     *
+     * @param reader The capture to replay, from its current record on.
+     * @param speed  1.0 to keep the original time between the datagrams, 2.0
+     *               for twice as fast and so on, 0 to send as fast as
+     *               possible.
+     * @return the number of datagrams sent.
+     * @throws IOException if an I/O error occurs or the thread was
+     *                     interrupted while waiting for the next datagram.
+     */
+    public long replay(CaptureReader reader, double speed) throws IOException {
+        if (reader == null) {
+            throw new IllegalArgumentException("Given reader must not be NULL.");
+        }
+        if (speed < 0.0) {
+            throw new IllegalArgumentException("Speed must not be negative.");
+        }
+        InetSocketAddress target = remoteEndpoint().getAddress();
+
+        long sent = 0;
+        long firstTimestamp = 0;
+        long start = System.nanoTime();
+        while (reader.next()) {
+            if (speed > 0.0) {
+                if (sent == 0) {
+                    firstTimestamp = reader.getTimestamp();
+                }
+                long due = start + (long) ((reader.getTimestamp() - firstTimestamp) / speed);
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException("Replay interrupted after " + sent + " datagrams.");
+                    }
+                }
+            }
+            transmitDatagram(reader.getPayload(), target);
+            sent++;
+        }
+
+        return sent;
+    }
+
+    /**
+     * Sends a UDP message asynchronously to the recipient set on this sender.
+     *
+     * @param bytes The message to be sent as byte array.
+     * @return a future completed with this UdpSender once the message was
+     * written to the socket, or completed exceptionally if it could not be
+     * sent or pacing discarded it.
+     */
+    public CompletableFuture<UdpSender> sendAsync(byte[] bytes) {
+        try {
+            return sendAsync(bytes, remoteEndpoint());
+        } catch (SocketException e) {
+            return failedFuture(e);
+        }
+    }
+
+    /**
+     * Sends a UDP message asynchronously. The message is written on the
+     * calling thread if the send buffer has room for it, which is the common
+     * case, so the caller never waits for the socket. Only if the send buffer
+     * is full, the write is handed to the executor of this sender.
+     *
+     * @param bytes         The byte array to be sent.
+     * @param remoteAddress The address of the destination.
+     * @param remotePort    The port of the destination.
+     * @return a future completed with this UdpSender once the message was
+     * written to the socket, or completed exceptionally if it could not be
+     * sent or pacing discarded it.
+     */
+    public CompletableFuture<UdpSender> sendAsync(byte[] bytes, InetAddress remoteAddress, int remotePort) {
+        if (remoteAddress == null) {
+            return failedFuture(new SocketException("No receiver address given."));
+        }
+        if (remotePort <= 0) {
+            return failedFuture(new SocketException("No receiver port given."));
+        }
+        return sendAsync(bytes, new InetSocketAddress(remoteAddress, remotePort));
+    }
+
+    /**
+     * Sends a UDP message asynchronously to a prepared endpoint.
+     *
+     * @param bytes    The byte array to be sent.
+     * @param endpoint The destination.
+     * @return a future completed with this UdpSender once the message was
+     * written to the socket, or completed exceptionally if it could not be
+     * sent or pacing discarded it.
+     * @see #sendAsync(byte[], InetAddress, int)
+     */
+    public CompletableFuture<UdpSender> sendAsync(byte[] bytes, Endpoint endpoint) {
+        if (endpoint == null) {
+            return failedFuture(new SocketException("No receiver address given."));
+        }
+        return sendAsync(bytes, endpoint.getAddress());
+    }
+
+    /**
+     * Sends a UDP message asynchronously.
+     *
+     * @param message       The message to be sent.
+     * @param remoteAddress The address of the destination.
+     * @param remotePort    The port of the destination.
+     * @return a future completed with this UdpSender once the message was
+     * written to the socket, or completed exceptionally if it could not be
+     * sent or pacing discarded it.
+     */
+    public CompletableFuture<UdpSender> sendAsync(String message, InetAddress remoteAddress, int remotePort) {
+        if (message == null) {
+            return failedFuture(new IllegalArgumentException("Given message must not be NULL."));
+        }
+        if (remoteAddress == null) {
+            return failedFuture(new SocketException("No receiver address given."));
+        }
+        if (remotePort <= 0) {
+            return failedFuture(new SocketException("No receiver port given."));
+        }
+        try {
+            InetSocketAddress target = new InetSocketAddress(remoteAddress, remotePort);
+            if (payloadCodec != null) {
+                return sendMessageAsync(encodePayload(utf8(message)), target);
+            }
+            if (fragmentSize > 0) {
+                ByteBuffer encoded = utf8(message);
+                ByteBuffer copy = ByteBuffer.allocate(encoded.remaining()).put(encoded);
+                copy.flip();
+                return sendFragmentsAsync(copy, true, target);
+            }
+            return sendAsync(encodeText(message), target);
+        } catch (RuntimeException e) {
+            return failedFuture(e);
+        }
+    }
+
+    private CompletableFuture<UdpSender> sendAsync(byte[] bytes, InetSocketAddress target) {
+        if (bytes == null) {
+            return failedFuture(new IllegalArgumentException("Given message must not be NULL."));
+        }
+        if (payloadCodec != null) {
+            return sendMessageAsync(encodePayload(ByteBuffer.wrap(bytes)), target);
+        }
+        if (fragmentSize > 0) {
+            return sendFragmentsAsync(ByteBuffer.wrap(bytes.clone()), true, target);
+        }
+        try {
+            return sendAsync(frame(ByteBuffer.wrap(bytes)), target);
+        } catch (RuntimeException e) {
+            return failedFuture(e);
+        }
+    }
+
+    /**
+     * Sends an encoded message asynchronously, framed and as one datagram or
+     * in fragments.
+     *
+     * @param message The message, in a buffer of the calling thread.
+     * @param target  The address of the destination.
+     * @return the future completed once the message was written.
+     */
+    private CompletableFuture<UdpSender> sendMessageAsync(ByteBuffer message, InetSocketAddress target) {
+        try {
+            if (fragmentSize > 0) {
+                ByteBuffer copy = ByteBuffer.allocate(message.remaining()).put(message);
+                copy.flip();
+                return sendFragmentsAsync(copy, true, target);
+            }
+            return sendAsync(frame(message), target);
+        } catch (RuntimeException e) {
+            return failedFuture(e);
+        }
+    }
+
+    private CompletableFuture<UdpSender> sendAsync(ByteBuffer datagram, InetSocketAddress target) {
+        CompletableFuture<UdpSender> future = new CompletableFuture<>();
+        try {
+            SendChannel channel = channel();
+            channel.applyBroadcast(broadcast);
+
+            Pacer current = pacer;
+            // a paced datagram is written or queued at once, unless it
+            // conforms and the send buffer is full; the pacer completes the
+            // future of a datagram it handled
+            if (current == null && channel.tryWrite(datagram, target)) {
+                future.complete(this);
+            } else if (current == null || !current.trySend(channel, datagram, target, future)) {
+                // the datagram may live in a buffer of the calling thread
+                ByteBuffer copy = ByteBuffer.allocate(datagram.remaining()).put(datagram);
+                copy.flip();
+                executor.execute(() -> {
+                    try {
+                        channel.write(copy, target);
+                        future.complete(this);
+                    } catch (IOException | RuntimeException e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+            }
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * Hands the fragments of a message to the executor of this sender.
+     *
+     * @param message The message, owned by the task.
+     * @param frame   Whether the message still has to be framed.
+     * @param target  The address of the destination.
+     * @return the future completed once all fragments were written.
+     */
+    private CompletableFuture<UdpSender> sendFragmentsAsync(ByteBuffer message, boolean frame,
+                                                            InetSocketAddress target) {
+        CompletableFuture<UdpSender> future = new CompletableFuture<>();
+        try {
+            SendChannel channel = channel();
+            channel.applyBroadcast(broadcast);
+            executor.execute(() -> {
+                try {
+                    List<CompletableFuture<UdpSender>> paced = new ArrayList<>();
+                    writeFragments(channel, message, frame, target, paced);
+                    if (paced.isEmpty()) {
+                        future.complete(this);
+                        return;
+                    }
+                    CompletableFuture.allOf(paced.toArray(new CompletableFuture<?>[0])).whenComplete((done, e) -> {
+                        if (e == null) {
+                            future.complete(this);
+                        } else {
+                            future.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                        }
+                    });
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    private static CompletableFuture<UdpSender> failedFuture(Throwable cause) {
+        CompletableFuture<UdpSender> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    /**
+     * Sends all datagrams of the batch. The socket options are applied once
+     * for the whole batch and the datagrams are submitted back to back on the
+     * non-blocking channel. A datagram that fails does not abort the batch;
+     * use {@link SendBatch#isSent(int)} and {@link SendBatch#getError(int)}
+     * to check the result of each datagram.<br />
+     * The position of the payload buffers is not changed, so the same buffer
+     * may be added for many destinations.
+     *
+     * @param batch The datagrams to be sent.
+     * @return the number of datagrams that were sent.
+     * @throws IOException if the socket could not be opened.
+     */
+    public int sendBatch(SendBatch batch) throws IOException {
+        if (batch == null) {
+            throw new IllegalArgumentException("Given batch must not be NULL.");
+        }
+
+        SendChannel channel = channel();
+        channel.applyBroadcast(broadcast);
+
+        int sent = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            ByteBuffer payload = batch.getPayload(i);
+            int position = payload.position();
+            batch.resetResult(i);
+            try {
+                write(channel, encodePayload(payload), batch.getTarget(i));
+                batch.setSent(i);
+                sent++;
+            } catch (IOException e) {
+                batch.setError(i, e);
+            } finally {
+                payload.position(position);
+            }
+        }
+
+        return sent;
+    }
+
+    /**
+     * Frames the payload, if a frame codec is set, and sends it as one
+     * datagram or in fragments.
+     *
+     * @param payload The payload, from its position to its limit.
+     * @param target  The address of the destination.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void transmit(ByteBuffer payload, InetSocketAddress target) throws IOException {
+        payload = encodePayload(payload);
+        if (coalescingSize > 0 && coalescer(target).add(payload, false)) {
+            return;
+        }
+        SendChannel channel = channel();
+        channel.applyBroadcast(broadcast);
+        write(channel, payload, target);
+    }
+
+    /**
+     * Encodes the message as UTF-8, frames it, if a frame codec is set, and
+     * sends it. A message sent in fragments is encoded into the growing text
+     * buffer, as it can be larger than a datagram.
+     *
+     * @param message The message.
+     * @param target  The address of the destination.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void transmitText(CharSequence message, InetSocketAddress target) throws IOException {
+        if (payloadCodec != null) {
+            transmit(utf8(message), target);
+            return;
+        }
+        if (fragmentSize > 0) {
+            ByteBuffer text = utf8(message);
+            if (coalescingSize > 0 && coalescer(target).add(text, false)) {
+                return;
+            }
+            SendChannel channel = channel();
+            channel.applyBroadcast(broadcast);
+            writeFragments(channel, text, true, target, null);
+            return;
+        }
+        if (coalescingSize > 0 && coalescer(target).add(encodeText(message), true)) {
+            return;
+        }
+        SendChannel channel = channel();
+        channel.applyBroadcast(broadcast);
+        emit(channel, encodeText(message), target, null);
+    }
+
+    /**
+     * Returns the coalescer collecting the messages to the destination.
+     *
+     * @param target The address of the destination.
+     * @return the coalescer.
+     */
+    private Coalescer coalescer(InetSocketAddress target) {
+        Coalescer coalescer = coalescers.get(target);
+        if (coalescer != null) {
+            return coalescer;
+        }
+        if (framing == null) {
+            throw new IllegalStateException("Coalescing requires a frame codec.");
+        }
+        // a coalesced datagram is sent as a single fragment if the receiver reassembles
+        int size = fragmentSize > 0 ? Math.min(coalescingSize, fragmentSize) : coalescingSize;
+        int prefix = fragmentSize > 0 ? Reassembler.HEADER_LENGTH : 0;
+        return coalescers.computeIfAbsent(target,
+                key -> new Coalescer(this, key, framing, size, prefix, maxDelayNanos, flushScheduler()));
+    }
+
+    private synchronized ScheduledExecutorService flushScheduler() {
+        if (flushScheduler == null) {
+            flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "UdpSender-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return flushScheduler;
+    }
+
+    /**
+     * Frames the payload, if a frame codec is set, and writes it as one
+     * datagram or, if a fragment size is set, as fragments.
+     *
+     * @param channel The channel to write to.
+     * @param payload The payload, from its position to its limit.
+     * @param target  The address of the destination.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void write(SendChannel channel, ByteBuffer payload, InetSocketAddress target) throws IOException {
+        if (fragmentSize > 0) {
+            writeFragments(channel, payload, true, target, null);
+        } else {
+            emit(channel, frame(payload), target, null);
+        }
+    }
+
+    /**
+     * Splits the message into fragments of at most the fragment size and
+     * writes them one after the other. The fragments are built in a buffer of
+     * the calling thread; the position of the message is not changed.
+     *
+     * @param channel The channel to write to.
+     * @param message The message, from its position to its limit.
+     * @param frame   Whether the frame header has to be written in front of
+     *                the message.
+     * @param target  The address of the destination.
+     * @param paced   Collects the futures of the fragments the pacer
+     *                handled, or <code>null</code>.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void writeFragments(SendChannel channel, ByteBuffer message, boolean frame, InetSocketAddress target,
+                                List<CompletableFuture<UdpSender>> paced) throws IOException {
+        int headerLength = frame && framing != null ? framing.headerLength() : 0;
+        int payloadLength = message.remaining();
+        long total = (long) headerLength + payloadLength;
+        int chunk = fragmentSize - Reassembler.HEADER_LENGTH;
+        long count = Math.max(1L, (total + chunk - 1) / chunk);
+        if (count > Reassembler.MAX_FRAGMENTS || total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Message of " + payloadLength + " bytes exceeds "
+                    + Reassembler.MAX_FRAGMENTS + " fragments.");
+        }
+
+        int id = messageIds.incrementAndGet();
+        ByteBuffer fragment = fragmentBuffer.get();
+        int position = message.position();
+        int limit = message.limit();
+        try {
+            for (int index = 0; index < count; index++) {
+                fragment.clear();
+                fragment.putInt(id).putInt((int) total).putShort((short) index).putShort((short) count);
+                int room = chunk;
+                if (index == 0 && headerLength > 0) {
+                    framing.writeHeader(fragment, fragment.position(), payloadLength);
+                    fragment.position(fragment.position() + headerLength);
+                    room -= headerLength;
+                }
+                message.limit(message.position() + Math.min(room, limit - message.position()));
+                fragment.put(message);
+                message.limit(limit);
+                fragment.flip();
+                emit(channel, fragment, target, paced);
+            }
+        } finally {
+            message.limit(limit).position(position);
+        }
+    }
+
+    /**
+     * Writes the header and the payload into the datagram buffer of the
+     * calling thread. Returns the payload itself if no frame codec is set. The
+     * position of the payload is not changed.
+     *
+     * @param payload The payload, from its position to its limit.
+     * @return the datagram to be sent.
+     */
+    private ByteBuffer frame(ByteBuffer payload) {
+        if (framing == null) {
+            if (payload.remaining() > MAX_DATAGRAM_SIZE) {
+                throw new IllegalArgumentException("Message of " + payload.remaining() + " bytes does not fit into a datagram.");
+            }
+            return payload;
+        }
+        ByteBuffer datagram = datagramBuffer.get();
+        datagram.clear();
+        int headerLength = framing.headerLength();
+        if (payload.remaining() > datagram.capacity() - headerLength) {
+            throw new IllegalArgumentException("Message of " + payload.remaining() + " bytes does not fit into a datagram.");
+        }
+        int position = payload.position();
+        datagram.position(headerLength);
+        datagram.put(payload);
+        payload.position(position);
+        framing.writeHeader(datagram, 0, datagram.position() - headerLength);
+        datagram.flip();
+
+        return datagram;
+    }
+
+    /**
+     * Encodes the message as UTF-8 into the datagram buffer of the calling
+     * thread, preceded by the frame header if a frame codec is set.
+     *
+     * @param message The message.
+     * @return the datagram to be sent.
+     */
+    private ByteBuffer encodeText(CharSequence message) {
+        ByteBuffer datagram = datagramBuffer.get();
+        datagram.clear();
+        int headerLength = framing != null ? framing.headerLength() : 0;
+        datagram.position(headerLength);
+        try {
+            Utf8.encode(message, datagram);
+        } catch (BufferOverflowException e) {
+            throw new IllegalArgumentException("Message does not fit into a datagram.");
+        }
+        if (framing != null) {
+            framing.writeHeader(datagram, 0, datagram.position() - headerLength);
+        }
+        datagram.flip();
+
+        return datagram;
+    }
+
+    /**
+     * Encodes the message with the payload codec, if one is set, into the
+     * codec buffer of the calling thread, preceded by the flag byte. The
+     * position of the message is not changed.
+     *
+     * @param message The message, from its position to its limit.
+     * @return the encoded message, or the message itself if no codec is set.
+     */
+    ByteBuffer encodePayload(ByteBuffer message) {
+        PayloadCodec codec = payloadCodec;
+        if (codec == null) {
+            return message;
+        }
+        int length = message.remaining();
+        ByteBuffer encoded = codecBuffer.get();
+        if (encoded.capacity() < length + 1) {
+            encoded = ByteBuffer.allocate(length + 1);
+            codecBuffer.set(encoded);
+        }
+        int position = message.position();
+        if (length >= payloadCodecThreshold && length > 1) {
+            // only an encoding smaller than the message is worth it
+            encoded.clear().limit(length).position(1);
+            boolean smaller = codec.encode(message, encoded);
+            message.position(position);
+            if (smaller) {
+                encoded.flip();
+                encoded.put(0, (byte) codec.id());
+                return encoded;
+            }
+        }
+        encoded.clear();
+        encoded.put((byte) PayloadCodec.RAW).put(message);
+        message.position(position);
+        encoded.flip();
+
+        return encoded;
+    }
+
+    /**
+     * Encodes the message as UTF-8 into the text buffer of the calling
+     * thread, which grows with the message.
+     *
+     * @param message The message.
+     * @return the encoded message.
+     */
+    private ByteBuffer utf8(CharSequence message) {
+        ByteBuffer text = textBuffer.get();
+        // at most 3 bytes per UTF-16 character
+        int maxLength = message.length() * 3;
+        if (text.capacity() < maxLength) {
+            text = ByteBuffer.allocate(maxLength);
+            textBuffer.set(text);
+        }
+        text.clear();
+        Utf8.encode(message, text);
+        text.flip();
+
+        return text;
+    }
+
+    /**
+     * @return the endpoint of the recipient set on this sender.
+     * @throws SocketException if no recipient address or port was set.
+     */
+    private Endpoint remoteEndpoint() throws SocketException {
+        Endpoint endpoint = remoteEndpoint;
+        if (endpoint == null) {
+            if (remoteAddress == null) {
+                throw new SocketException("No receiver address given.");
+            }
+            throw new SocketException("No receiver port given.");
+        }
+        return endpoint;
+    }
+
+    private void updateRemoteEndpoint() {
+        if (remoteAddress == null || remotePort <= 0) {
+            remoteEndpoint = null;
+            return;
+        }
+        if (remoteHost != null) {
+            try {
+                // follows the address of the host when the cache re-resolves it
+                remoteEndpoint = destinationCache().endpoint(remoteHost, remotePort);
+                return;
+            } catch (UnknownHostException e) {
+                System.err.println("Could not resolve " + remoteHost + ", keeping " + remoteAddress);
+            }
+        }
+        remoteEndpoint = Endpoint.of(remoteAddress, remotePort);
+    }
+
+    private DestinationCache destinationCache() {
+        if (destinationCache == null) {
+            destinationCache = DestinationCache.getDefault();
+        }
+        return destinationCache;
+    }
+
+    /**
+     * Returns the channel assigned to the calling thread, opening the sockets
+     * if they are not open yet.
+     *
+     * @return the channel to send on.
+     * @throws SocketException if the socket could not be opened.
+     */
+    private SendChannel channel() throws SocketException {
+        SendChannel[] opened = channels;
+        if (opened == null) {
+            synchronized (this) {
+                if (channels == null) {
+                    openSocket();
+                }
+                opened = channels;
+            }
+        }
+        if (opened.length == 1) {
+            return opened[0];
+        }
+        return opened[(int) (Thread.currentThread().getId() % opened.length)];
+    }
+
+    /**
+     * Returns all channels of this sender, opening the sockets if they are
+     * not open yet.
+     *
+     * @return the channels.
+     * @throws SocketException if the socket could not be opened.
+     */
+    SendChannel[] channels() throws SocketException {
+        channel();
+        return channels;
+    }
+
+    /**
+     * @return the fragment size of this sender, 0 if messages are not
+     * fragmented.
+     */
+    int fragmentSize() {
+        return fragmentSize;
+    }
+
+    /**
+     * @return the frame codec of this sender, or null.
+     */
+    FrameCodec framing() {
+        return framing;
+    }
+
+    /**
+     * Sends a datagram that is already framed, without changing the position
+     * of the buffer.
+     *
+     * @param datagram The datagram, from its position to its limit.
+     * @param target   The address of the destination.
+     * @throws IOException if an I/O error occurs.
+     */
+    void transmitDatagram(ByteBuffer datagram, InetSocketAddress target) throws IOException {
+        SendChannel channel = channel();
+        channel.applyBroadcast(broadcast);
+        int position = datagram.position();
+        try {
+            emit(channel, datagram, target, null);
+        } finally {
+            datagram.position(position);
+        }
+    }
+
+    /**
+     * Writes a datagram without pacing, used by the pacer for the queued
+     * datagrams.
+     *
+     * @param datagram The datagram, from its position to its limit.
+     * @param target   The address of the destination.
+     * @throws IOException if an I/O error occurs.
+     */
+    void writeDatagram(ByteBuffer datagram, InetSocketAddress target) throws IOException {
+        SendChannel channel = channel();
+        channel.applyBroadcast(broadcast);
+        channel.write(datagram, target);
+    }
+
+    /**
+     * Writes a datagram, or hands it to the pacer if pacing is enabled. If
+     * <code>paced</code> is given, the future of a paced datagram is added
+     * to it.
+     */
+    private void emit(SendChannel channel, ByteBuffer datagram, InetSocketAddress target,
+                      List<CompletableFuture<UdpSender>> paced) throws IOException {
+        Pacer current = pacer;
+        if (current != null) {
+            CompletableFuture<UdpSender> future = paced != null ? new CompletableFuture<>() : null;
+            current.send(channel, datagram, target, future);
+            if (future != null) {
+                paced.add(future);
+            }
+        } else {
+            channel.write(datagram, target);
+        }
     }
 
     /**
@@ -244,7 +1545,7 @@ public class UdpSender implements AutoCloseable {
      * @return the local address to which the socket is bound.
      */
     public InetAddress getLocalAddress() {
-        return socket.getLocalAddress();
+        return channels[0].channel().socket().getLocalAddress();
     }
 
     /**
@@ -254,16 +1555,34 @@ public class UdpSender implements AutoCloseable {
      * -1 if the socket is closed, or 0 if it is not bound yet.
      */
     public int getLocalPort() {
-        return socket.getLocalPort();
+        return channels[0].channel().socket().getLocalPort();
     }
 
     /**
-     * Closes the socket of the UdpSender.
+     * Sends the messages collected for coalescing and closes the socket of
+     * the UdpSender.
      */
     @Override
     public void close() {
-        if (socket != null) {
-            socket.close();
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        synchronized (this) {
+            if (flushScheduler != null) {
+                flushScheduler.shutdownNow();
+            }
+        }
+        Pacer current = pacer;
+        if (current != null) {
+            current.close();
+        }
+        SendChannel[] opened = channels;
+        if (opened != null) {
+            for (SendChannel channel : opened) {
+                channel.close();
+            }
         }
     }
 }
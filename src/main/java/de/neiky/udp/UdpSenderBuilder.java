@@ -1,14 +1,40 @@
 package de.neiky.udp;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 public class UdpSenderBuilder {
     private InetAddress address;
     private int port;
     private InetAddress remoteAddress;
+    private String remoteHost;
     private int remotePort;
     private boolean broadcast = false;
+    private int channelCount = 1;
+    private int multicastTtl = -1;
+    private Boolean multicastLoopback;
+    private NetworkInterface multicastInterface;
+    private final SocketOptions socketOptions = new SocketOptions();
+    private Executor executor;
+    private DestinationCache destinationCache;
+    private FrameCodec framing;
+    private int fragmentSize;
+    private PayloadCodec payloadCodec;
+    private int payloadCodecThreshold;
+    private int coalescingSize;
+    private long maxDelayMicros;
+    private UdpMetrics metrics;
+    private double pacingRate;
+    private int pacingBurst = 1;
+    private int pacingQueueCapacity = 1024;
+    private BackpressurePolicy pacingPolicy = BackpressurePolicy.DROP_NEWEST;
+    private final Map<InetSocketAddress, DestinationRate> destinationRates = new LinkedHashMap<>();
 
     public UdpSenderBuilder() {
 
@@ -34,12 +60,23 @@ public class UdpSenderBuilder {
 
     public UdpSenderBuilder setRemoteAddress(InetAddress remoteAddress) {
         this.remoteAddress = remoteAddress;
+        this.remoteHost = null;
 
         return this;
     }
 
+    /**
+     * Sets the recipient of the built sender by host name. The name is only
+     * checked here; the built sender resolves it through its destination
+     * cache and follows its address when the cache re-resolves it.
+     *
+     * @param remoteAddress The address of the recipient (ip address, host name).
+     * @return this UdpSenderBuilder.
+     * @throws UnknownHostException if no IP address for the host could be found.
+     */
     public UdpSenderBuilder setRemoteAddress(String remoteAddress) throws UnknownHostException {
         this.remoteAddress = InetAddress.getByName(remoteAddress);
+        this.remoteHost = remoteAddress;
 
         return this;
     }
@@ -56,12 +93,383 @@ public class UdpSenderBuilder {
         return this;
     }
 
+    /**
+     * Sets the time-to-live of the multicast datagrams the built sender sends,
+     * see {@link UdpSender#setMulticastTtl(int)}.
+     *
+     * @param ttl The time-to-live, the kernel default of 1 if not set.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setMulticastTtl(int ttl) {
+        if (ttl < 0 || ttl > 255) {
+            throw new IllegalArgumentException("Multicast TTL must be between 0 and 255.");
+        }
+        this.multicastTtl = ttl;
+
+        return this;
+    }
+
+    /**
+     * Enable/disable the delivery of the multicast datagrams the built sender
+     * sends to receivers on the same host.
+     *
+     * @param on whether or not multicast datagrams are looped back, enabled
+     *           by the kernel if not set.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setMulticastLoopback(boolean on) {
+        this.multicastLoopback = on;
+
+        return this;
+    }
+
+    /**
+     * Sets the network interface the built sender sends multicast datagrams
+     * on.
+     *
+     * @param networkInterface The interface, chosen by the kernel if not set.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setMulticastInterface(NetworkInterface networkInterface) {
+        this.multicastInterface = networkInterface;
+
+        return this;
+    }
+
+    /**
+     * Sets the network interface the built sender sends multicast datagrams
+     * on.
+     *
+     * @param name The name of the interface, e.g. <code>eth0</code>.
+     * @return this UdpSenderBuilder.
+     * @throws SocketException if there is no interface with the given name.
+     */
+    public UdpSenderBuilder setMulticastInterface(String name) throws SocketException {
+        NetworkInterface networkInterface = NetworkInterface.getByName(name);
+        if (networkInterface == null) {
+            throw new SocketException("Unknown network interface " + name + ".");
+        }
+        this.multicastInterface = networkInterface;
+
+        return this;
+    }
+
+    /**
+     * Sets SO_SNDBUF of the sockets of the built sender, see
+     * {@link SocketOptions#setSendBufferSize(int)}.
+     *
+     * @param sendBufferSize The size in bytes, the kernel default if not set.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setSendBufferSize(int sendBufferSize) {
+        socketOptions.setSendBufferSize(sendBufferSize);
+
+        return this;
+    }
+
+    /**
+     * Sets SO_RCVBUF of the sockets of the built sender, which receive the
+     * acknowledgements and replies sent back to it.
+     *
+     * @param receiveBufferSize The size in bytes, the kernel default if not
+     *                          set.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setReceiveBufferSize(int receiveBufferSize) {
+        socketOptions.setReceiveBufferSize(receiveBufferSize);
+
+        return this;
+    }
+
+    /**
+     * Sets IP_TOS of the datagrams the built sender sends, see
+     * {@link SocketOptions#setTrafficClass(int)}.
+     *
+     * @param trafficClass The byte, the kernel default if not set.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setTrafficClass(int trafficClass) {
+        socketOptions.setTrafficClass(trafficClass);
+
+        return this;
+    }
+
+    /**
+     * Sets the differentiated services code point of the datagrams the built
+     * sender sends, see {@link SocketOptions#setDscp(int)}.
+     *
+     * @param dscp The code point, e.g. 46 for expedited forwarding.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setDscp(int dscp) {
+        socketOptions.setDscp(dscp);
+
+        return this;
+    }
+
+    /**
+     * Enable/disable SO_REUSEADDR on the sockets of the built sender.
+     *
+     * @param on whether or not the address may be reused, the kernel default
+     *           if not set.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setReuseAddress(boolean on) {
+        socketOptions.setReuseAddress(on);
+
+        return this;
+    }
+
+    /**
+     * Enable/disable SO_REUSEPORT on the sockets of the built sender. It is
+     * enabled regardless if more than one channel is bound to the local port.
+     *
+     * @param on whether or not the port may be reused, the kernel default if
+     *           not set.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setReusePort(boolean on) {
+        socketOptions.setReusePort(on);
+
+        return this;
+    }
+
+    /**
+     * Sets the number of sockets the built sender spreads its datagrams over,
+     * so that many threads can send through one sender without contending on
+     * a single socket. If a local port is set, all sockets are bound to it
+     * using SO_REUSEPORT.
+     *
+     * @param channelCount The number of sockets, 1 by default.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setChannelCount(int channelCount) {
+        if (channelCount <= 0) {
+            throw new IllegalArgumentException("Number of channels must be greater than 0.");
+        }
+        this.channelCount = channelCount;
+
+        return this;
+    }
+
+    /**
+     * Sets the executor that completes asynchronous sends which cannot be
+     * written immediately. On Java 21 and newer an executor creating a virtual
+     * thread per task may be used.
+     *
+     * @param executor The executor, the common fork/join pool by default.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setExecutor(Executor executor) {
+        this.executor = executor;
+
+        return this;
+    }
+
+    /**
+     * Sets the cache the built sender resolves host names with.
+     *
+     * @param destinationCache The cache, {@link DestinationCache#getDefault()}
+     *                         by default.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setDestinationCache(DestinationCache destinationCache) {
+        this.destinationCache = destinationCache;
+
+        return this;
+    }
+
+    /**
+     * Sets the codec framing every message the built sender sends.
+     *
+     * @param framing The frame codec, <code>null</code> by default.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setFraming(FrameCodec framing) {
+        this.framing = framing;
+
+        return this;
+    }
+
+    /**
+     * Sets the size of the fragments the built sender splits every message
+     * into, see {@link UdpSender#setFragmentSize(int)}.
+     *
+     * @param fragmentSize The largest datagram sent, 0 by default.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setFragmentSize(int fragmentSize) {
+        this.fragmentSize = fragmentSize;
+
+        return this;
+    }
+
+    /**
+     * Sets the codec the built sender encodes every message with, see
+     * {@link UdpSender#setPayloadCodec(PayloadCodec, int)}.
+     *
+     * @param codec     The codec, e.g. a {@link DeflateCodec},
+     *                  <code>null</code> by default.
+     * @param threshold The size in bytes from which on a message is encoded.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setPayloadCodec(PayloadCodec codec, int threshold) {
+        this.payloadCodec = codec;
+        this.payloadCodecThreshold = threshold;
+
+        return this;
+    }
+
+    /**
+     * Lets the built sender collect small messages into one datagram per
+     * destination, see {@link UdpSender#setCoalescing(int, long)}. Requires a
+     * frame codec.
+     *
+     * @param datagramSize   The largest datagram sent, 0 by default.
+     * @param maxDelayMicros The longest time a message waits for further
+     *                       messages, in microseconds.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setCoalescing(int datagramSize, long maxDelayMicros) {
+        this.coalescingSize = datagramSize;
+        this.maxDelayMicros = maxDelayMicros;
+
+        return this;
+    }
+
+    /**
+     * Sets the metrics the built sender counts its datagrams in.
+     *
+     * @param metrics The metrics, <code>null</code> by default.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setMetrics(UdpMetrics metrics) {
+        this.metrics = metrics;
+
+        return this;
+    }
+
+    /**
+     * Limits the datagrams the built sender sends to each destination, see
+     * {@link UdpSender#setPacing(double, int, int, BackpressurePolicy)}.
+     *
+     * @param ratePerSecond The datagrams per second sent to a destination, 0
+     *                      by default.
+     * @param burst         The datagrams sent back to back, 1 by default.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setPacing(double ratePerSecond, int burst) {
+        if (!(ratePerSecond >= 0.0) || Double.isInfinite(ratePerSecond)) {
+            throw new IllegalArgumentException("Rate must not be negative.");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be at least 1.");
+        }
+        this.pacingRate = ratePerSecond;
+        this.pacingBurst = burst;
+
+        return this;
+    }
+
+    /**
+     * Sets the rate of one destination of the built sender, instead of the
+     * rate given with {@link #setPacing(double, int)}.
+     *
+     * @param target        The destination.
+     * @param ratePerSecond The datagrams per second sent to the destination.
+     * @param burst         The datagrams sent back to back.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setPacing(InetSocketAddress target, double ratePerSecond, int burst) {
+        if (target == null) {
+            throw new IllegalArgumentException("Given target must not be NULL.");
+        }
+        if (!(ratePerSecond > 0.0) || Double.isInfinite(ratePerSecond)) {
+            throw new IllegalArgumentException("Rate must be greater than 0.");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be at least 1.");
+        }
+        destinationRates.put(target, new DestinationRate(ratePerSecond, burst));
+
+        return this;
+    }
+
+    /**
+     * Sets the queue of the datagrams waiting to be paced.
+     *
+     * @param capacity The datagrams queued per destination, 1024 by default.
+     * @param policy   What happens if the queue is full,
+     *                 {@link BackpressurePolicy#DROP_NEWEST} by default.
+     * @return this UdpSenderBuilder.
+     */
+    public UdpSenderBuilder setPacingQueue(int capacity, BackpressurePolicy policy) {
+        this.pacingQueueCapacity = capacity;
+        this.pacingPolicy = policy;
+
+        return this;
+    }
+
     public UdpSender build() {
+        if (coalescingSize > 0 && framing == null) {
+            throw new IllegalStateException("Coalescing requires a frame codec.");
+        }
+        if (!destinationRates.isEmpty() && pacingRate <= 0.0) {
+            throw new IllegalStateException("Destination rates require pacing.");
+        }
         UdpSender udpSender = new UdpSender(address, port);
-        udpSender.setRemoteAddress(remoteAddress);
+        if (destinationCache != null) {
+            udpSender.setDestinationCache(destinationCache);
+        }
+        if (remoteHost != null) {
+            try {
+                udpSender.setRemoteAddress(remoteHost);
+            } catch (UnknownHostException e) {
+                // resolved in setRemoteAddress(String), keep that address
+                udpSender.setRemoteAddress(remoteAddress);
+            }
+        } else {
+            udpSender.setRemoteAddress(remoteAddress);
+        }
         udpSender.setRemotePort(remotePort);
         udpSender.setBroadcast(broadcast);
+        udpSender.setChannelCount(channelCount);
+        if (multicastTtl >= 0) {
+            udpSender.setMulticastTtl(multicastTtl);
+        }
+        if (multicastLoopback != null) {
+            udpSender.setMulticastLoopback(multicastLoopback);
+        }
+        udpSender.setMulticastInterface(multicastInterface);
+        udpSender.setSocketOptions(new SocketOptions(socketOptions));
+        if (executor != null) {
+            udpSender.setExecutor(executor);
+        }
+        udpSender.setFraming(framing);
+        udpSender.setFragmentSize(fragmentSize);
+        udpSender.setPayloadCodec(payloadCodec, payloadCodecThreshold);
+        udpSender.setCoalescing(coalescingSize, maxDelayMicros);
+        udpSender.setMetrics(metrics);
+        if (pacingRate != 0.0) {
+            udpSender.setPacing(pacingRate, pacingBurst, pacingQueueCapacity, pacingPolicy);
+            for (Map.Entry<InetSocketAddress, DestinationRate> rate : destinationRates.entrySet()) {
+                udpSender.setPacing(rate.getKey(), rate.getValue().rate, rate.getValue().burst);
+            }
+        }
 
         return udpSender;
     }
+
+    /**
+     * The rate and burst set for one destination.
+     */
+    private static final class DestinationRate {
+        private final double rate;
+        private final int burst;
+
+        private DestinationRate(double rate, int burst) {
+            this.rate = rate;
+            this.burst = burst;
+        }
+    }
 }
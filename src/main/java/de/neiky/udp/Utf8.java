@@ -0,0 +1,52 @@
+package de.neiky.udp;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes character sequences to UTF-8 straight into a buffer, without the
+ * intermediate byte array of {@link String#getBytes(java.nio.charset.Charset)}.
+ *
+ * @author Michael Neike
+ */
+final class Utf8 {
+    private Utf8() {
+    }
+
+    /**
+     * Writes the UTF-8 encoding of the characters at the position of the
+     * buffer. Unpaired surrogates are written as '?'.
+     *
+     * @param chars The characters to encode.
+     * @param out   The buffer to write to.
+     * @return the number of bytes written.
+     * @throws BufferOverflowException if the buffer is too small.
+     */
+    static int encode(CharSequence chars, ByteBuffer out) {
+        int start = out.position();
+        int length = chars.length();
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                out.put((byte) (0xF0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return out.position() - start;
+    }
+}
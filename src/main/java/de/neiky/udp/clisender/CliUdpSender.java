@@ -1,16 +1,157 @@
 package de.neiky.udp.clisender;
 
+import de.neiky.udp.LengthPrefixFraming;
+import de.neiky.udp.UdpReceiver;
 import de.neiky.udp.UdpSender;
 import de.neiky.udp.UdpSenderBuilder;
-import org.apache.commons.lang3.ArrayUtils;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Command line sender. Without arguments it asks for the addresses and sends
+ * the typed messages. With arguments it generates load or receives and
+ * reports it:
+ * <pre>
+ * CliUdpSender load --remote host:port [--local host:port] [--rate msgs/s] [--threads n]
+ *                   [--size n|min-max] [--template virtuos] [--duration s] [--framing]
+ * CliUdpSender receive --port port [--host host] [--duration s] [--interval s]
+ *                      [--max-size n] [--framing]
+ * </pre>
+ */
 public class CliUdpSender {
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            interactive();
+            return;
+        }
+
+        Map<String, String> options = parseOptions(args);
+        switch (args[0]) {
+            case "load":
+                load(options);
+                break;
+            case "receive":
+                receive(options);
+                break;
+            default:
+                System.err.println("Unknown mode " + args[0] + ", use 'load' or 'receive'.");
+                System.exit(1);
+        }
+    }
+
+    private static void load(Map<String, String> options) throws IOException, InterruptedException {
+        String remote = options.get("remote");
+        if (remote == null) {
+            throw new IllegalArgumentException("--remote host:port must be given.");
+        }
+        int threads = Integer.parseInt(options.getOrDefault("threads", "1"));
+        UdpSenderBuilder builder = new UdpSenderBuilder()
+                .setRemoteAddress(InetAddress.getByName(host(remote)))
+                .setRemotePort(port(remote))
+                .setChannelCount(threads);
+        if (options.containsKey("local")) {
+            builder.setLocalAddress(InetAddress.getByName(host(options.get("local"))))
+                    .setLocalPort(port(options.get("local")));
+        }
+        if (options.containsKey("framing")) {
+            builder.setFraming(new LengthPrefixFraming());
+        }
+
+        LoadGenerator generator = new LoadGenerator()
+                .setRate(Long.parseLong(options.getOrDefault("rate", "0")))
+                .setThreads(threads)
+                .setDuration(Long.parseLong(options.getOrDefault("duration", "10")), TimeUnit.SECONDS);
+        String size = options.getOrDefault("size", "64");
+        int dash = size.indexOf('-');
+        if (dash < 0) {
+            generator.setPayloadSize(Integer.parseInt(size), Integer.parseInt(size));
+        } else {
+            generator.setPayloadSize(Integer.parseInt(size.substring(0, dash)),
+                    Integer.parseInt(size.substring(dash + 1)));
+        }
+        String template = options.get("template");
+        if (template != null) {
+            if (!template.equals("virtuos")) {
+                throw new IllegalArgumentException("Unknown template " + template + ".");
+            }
+            generator.setVirtuos(true);
+        }
+
+        try (UdpSender sender = builder.build()) {
+            sender.openSocket();
+            long start = System.nanoTime();
+            generator.run(sender);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("sent %d, failed %d, %.0f msgs/s%n", generator.getSentCount(),
+                    generator.getFailureCount(), generator.getSentCount() / seconds);
+        }
+    }
+
+    private static void receive(Map<String, String> options) throws IOException, InterruptedException {
+        if (!options.containsKey("port")) {
+            throw new IllegalArgumentException("--port must be given.");
+        }
+        int port = Integer.parseInt(options.get("port"));
+        long durationMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("duration", "0")));
+        long intervalMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("interval", "1")));
+
+        LoadMonitor monitor = new LoadMonitor();
+        UdpReceiver receiver = new UdpReceiver(options.getOrDefault("host", "0.0.0.0"), port)
+                .setMaxDatagramSize(Integer.parseInt(options.getOrDefault("max-size",
+                        String.valueOf(UdpSender.MAX_DATAGRAM_SIZE))))
+                .setBufferHandler(monitor);
+        if (options.containsKey("framing")) {
+            receiver.setFraming(new LengthPrefixFraming());
+        }
+        receiver.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println("total: " + monitor.report())));
+
+        long start = System.currentTimeMillis();
+        long lastReceived = 0;
+        try {
+            while (durationMillis == 0 || System.currentTimeMillis() - start < durationMillis) {
+                Thread.sleep(intervalMillis);
+                long received = monitor.getReceivedCount();
+                System.out.printf("%.0f msgs/s, %s%n", (received - lastReceived) * 1000.0 / intervalMillis,
+                        monitor.report());
+                lastReceived = received;
+            }
+        } finally {
+            receiver.stop();
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i] + ".");
+            }
+            String name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "");
+            }
+        }
+        return options;
+    }
+
+    private static String host(String address) {
+        int colon = address.lastIndexOf(':');
+        return colon < 0 ? "localhost" : address.substring(0, colon);
+    }
+
+    private static int port(String address) {
+        return Integer.parseInt(address.substring(address.lastIndexOf(':') + 1));
+    }
+
+    private static void interactive() throws IOException {
         Scanner scanner = new Scanner(System.in);
 
         System.out.print("Local ip [localhost]:\t");
@@ -30,7 +171,8 @@ public class CliUdpSender {
                 .setLocalAddress(InetAddress.getByName(localIp))
                 .setLocalPort(localPort)
                 .setRemoteAddress(InetAddress.getByName(remoteIp))
-                .setRemotePort(remotePort);
+                .setRemotePort(remotePort)
+                .setFraming(new LengthPrefixFraming());
         try (UdpSender sender = builder.build()) {
             // ip = "192.168.0.2";
             // port = 11002;
@@ -40,19 +182,9 @@ public class CliUdpSender {
 
             String msg = scanner.next();
             while (!msg.equals("exit")) {
-                // calculate message length
-                int l = msg.length();
-                byte b1 = (byte) (l >> 24 & 0xFF);
-                byte b2 = (byte) (l >> 16 & 0xFF);
-                byte b3 = (byte) (l >> 8 & 0xFF);
-                byte b4 = (byte) (l & 0xFF);
-
-                byte[] buff = msg.getBytes(StandardCharsets.UTF_8);
-
-                byte[] res = ArrayUtils.addAll(new byte[]{b1, b2, b3, b4}, buff);
-
-                System.out.println("Sending: " + ArrayUtils.toString(res));
-                sender.send(res);
+                // the message is prefixed with its length in UTF-8 bytes
+                System.out.println("Sending: " + msg);
+                sender.send(msg);
                 System.out.print("> ");
                 msg = scanner.next();
             }
@@ -0,0 +1,205 @@
+package de.neiky.udp.clisender;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import de.neiky.udp.UdpSender;
+import de.neiky.udp.virtuos.VirtuosEncoder;
+
+/**
+ * Sends stamped messages with a number of threads at a target rate, or as
+ * fast as possible, for a given duration. Every message carries the stream
+ * it belongs to, its sequence number within the stream and the
+ * {@link System#nanoTime()} it was sent at, so a {@link LoadMonitor} can
+ * report loss, reordering and latency. Each sending thread is one stream.<br />
+ * Binary messages start with a {@value #STAMP_LENGTH} byte stamp
+ * (stream, sequence, time, as longs) followed by filler up to the chosen
+ * payload size. Virtuos messages are a VAR_WRITE envelope whose VALUE is
+ * <code>stream:sequence:time</code>.<br />
+ * The send times are only comparable to the receive times if sender and
+ * receiver run on the same host, e.g. over loopback.
+ *
+ * @author Michael Neike
+ */
+public class LoadGenerator {
+    /** The length of the stamp at the start of a binary message */
+    public static final int STAMP_LENGTH = 24;
+    private static final int VIRTUOS_VARIABLES = 16;
+
+    private long rate;
+    private int threads = 1;
+    private int minPayloadSize = 64;
+    private int maxPayloadSize = 64;
+    private boolean virtuos;
+    private long durationMillis = 10_000L;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Sets the number of messages per second all threads together send.
+     * Defaults to 0, i.e. as fast as possible.
+     *
+     * @param rate The messages per second, 0 for the max rate.
+     * @return this LoadGenerator.
+     */
+    public LoadGenerator setRate(long rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Rate must not be negative.");
+        }
+        this.rate = rate;
+
+        return this;
+    }
+
+    /**
+     * @param threads The number of sending threads, defaults to 1.
+     * @return this LoadGenerator.
+     */
+    public LoadGenerator setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1.");
+        }
+        this.threads = threads;
+
+        return this;
+    }
+
+    /**
+     * Sets the size of the binary messages. Each message gets a size drawn
+     * uniformly between min and max. Defaults to 64 bytes.
+     *
+     * @param minPayloadSize The smallest size, at least {@value #STAMP_LENGTH}.
+     * @param maxPayloadSize The largest size.
+     * @return this LoadGenerator.
+     */
+    public LoadGenerator setPayloadSize(int minPayloadSize, int maxPayloadSize) {
+        if (minPayloadSize < STAMP_LENGTH || maxPayloadSize < minPayloadSize
+                || maxPayloadSize > UdpSender.MAX_DATAGRAM_SIZE) {
+            throw new IllegalArgumentException("Payload size must be between " + STAMP_LENGTH + " and "
+                    + UdpSender.MAX_DATAGRAM_SIZE + ".");
+        }
+        this.minPayloadSize = minPayloadSize;
+        this.maxPayloadSize = maxPayloadSize;
+
+        return this;
+    }
+
+    /**
+     * Sends Virtuos VAR_WRITE envelopes instead of binary messages. The
+     * payload size is then given by the envelope.
+     *
+     * @param virtuos Whether to send Virtuos envelopes.
+     * @return this LoadGenerator.
+     */
+    public LoadGenerator setVirtuos(boolean virtuos) {
+        this.virtuos = virtuos;
+
+        return this;
+    }
+
+    /**
+     * @param duration The time to send for.
+     * @param unit     The unit of the duration.
+     * @return this LoadGenerator.
+     */
+    public LoadGenerator setDuration(long duration, TimeUnit unit) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException("Duration must be positive.");
+        }
+        this.durationMillis = unit.toMillis(duration);
+
+        return this;
+    }
+
+    /**
+     * @return the number of messages sent so far.
+     */
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    /**
+     * @return the number of messages that could not be sent so far.
+     */
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * Sends with the given sender until the duration elapsed.
+     *
+     * @param sender The opened sender, with its recipient set.
+     * @throws InterruptedException if interrupted while waiting for the
+     *                              sending threads.
+     */
+    public void run(UdpSender sender) throws InterruptedException {
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        // a random run id keeps the streams of consecutive runs apart; its top
+        // byte stays 0, so a binary stamp never starts with the '{' of a
+        // Virtuos envelope
+        long run = (long) (ThreadLocalRandom.current().nextInt() & 0x00FFFFFF) << 32;
+
+        Thread[] senders = new Thread[threads];
+        for (int i = 0; i < senders.length; i++) {
+            long stream = run | i;
+            senders[i] = new Thread(() -> send(sender, stream, start, end), "LoadGenerator-" + i);
+            senders[i].start();
+        }
+        for (Thread thread : senders) {
+            thread.join();
+        }
+    }
+
+    private void send(UdpSender sender, long stream, long start, long end) {
+        long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(threads) / rate : 0;
+        ByteBuffer binary = ByteBuffer.allocate(maxPayloadSize);
+        Arrays.fill(binary.array(), (byte) 'x');
+        VirtuosEncoder encoder = virtuos ? new VirtuosEncoder() : null;
+        StringBuilder value = new StringBuilder();
+        StringBuilder name = new StringBuilder();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        long next = start;
+        long sequence = 0;
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            if (intervalNanos > 0) {
+                if (now < next) {
+                    LockSupport.parkNanos(next - now);
+                    continue;
+                }
+                // a late message is sent at once, so the rate is kept on average
+                next += intervalNanos;
+            }
+
+            ByteBuffer payload;
+            if (encoder != null) {
+                value.setLength(0);
+                value.append(stream).append(':').append(sequence).append(':').append(System.nanoTime());
+                name.setLength(0);
+                name.append("LOAD_").append(sequence % VIRTUOS_VARIABLES);
+                payload = encoder.encodeVarWrite("1", "1", "LOAD", name, value);
+            } else {
+                binary.clear();
+                binary.limit(minPayloadSize == maxPayloadSize ? maxPayloadSize
+                        : random.nextInt(minPayloadSize, maxPayloadSize + 1));
+                binary.putLong(0, stream).putLong(8, sequence).putLong(16, System.nanoTime());
+                payload = binary;
+            }
+            sequence++;
+
+            try {
+                sender.send(payload);
+                sent.increment();
+            } catch (IOException e) {
+                failures.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package de.neiky.udp.clisender;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.neiky.udp.LatencyHistogram;
+import de.neiky.udp.UdpReceiver;
+import de.neiky.udp.virtuos.VarWrite;
+import de.neiky.udp.virtuos.VirtuosDecoder;
+
+/**
+ * Receives the messages of a {@link LoadGenerator} and counts them per
+ * stream: a message with a sequence number below the highest one seen is
+ * reordered, the sequence numbers never seen below the highest one are
+ * lost. A message that arrives late therefore reduces the loss again.<br />
+ * The latency is measured from the time stamped by the sender, which is only
+ * meaningful if both run on the same host. Messages without a stamp are
+ * counted as foreign.
+ *
+ * @author Michael Neike
+ */
+public class LoadMonitor implements UdpReceiver.BufferHandler {
+    private final Map<Long, Stream> streams = new HashMap<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final VirtuosDecoder decoder = new VirtuosDecoder();
+    private final long[] fields = new long[3];
+    private long received;
+    private long bytes;
+    private long reordered;
+    private long foreign;
+    private long receiveNanos;
+
+    @Override
+    public synchronized void handleBuffer(InetSocketAddress source, ByteBuffer payload) {
+        receiveNanos = System.nanoTime();
+        received++;
+        bytes += payload.remaining();
+        // the stream of a binary stamp starts with a 0 byte
+        if (payload.hasRemaining() && payload.get(payload.position()) == '{') {
+            if (decoder.decode(source, payload, this::handleVarWrite) <= 0) {
+                foreign++;
+            }
+        } else if (payload.remaining() >= LoadGenerator.STAMP_LENGTH) {
+            int position = payload.position();
+            record(payload.getLong(position), payload.getLong(position + 8), payload.getLong(position + 16));
+        } else {
+            foreign++;
+        }
+    }
+
+    /**
+     * @return the number of received messages, including foreign ones.
+     */
+    public synchronized long getReceivedCount() {
+        return received;
+    }
+
+    /**
+     * @return the number of received payload bytes.
+     */
+    public synchronized long getReceivedBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of messages never received, over all streams.
+     */
+    public synchronized long getLostCount() {
+        long lost = 0;
+        for (Stream stream : streams.values()) {
+            lost += Math.max(0, stream.highest + 1 - stream.received);
+        }
+        return lost;
+    }
+
+    /**
+     * @return the number of messages received after a later message of the
+     * same stream.
+     */
+    public synchronized long getReorderedCount() {
+        return reordered;
+    }
+
+    /**
+     * @return the number of received messages without a load stamp.
+     */
+    public synchronized long getForeignCount() {
+        return foreign;
+    }
+
+    /**
+     * @return the number of streams, i.e. sending threads, seen.
+     */
+    public synchronized int getStreamCount() {
+        return streams.size();
+    }
+
+    /**
+     * @return the latency from sending to receiving in nanoseconds.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return a one line summary of the counters.
+     */
+    public synchronized String report() {
+        return String.format("received %d (%d bytes), lost %d, reordered %d, foreign %d, streams %d,"
+                        + " latency us p50 %.1f p99 %.1f p999 %.1f max %.1f",
+                received, bytes, getLostCount(), reordered, foreign, streams.size(),
+                latency.getValueAtPercentile(50.0) / 1000.0, latency.getValueAtPercentile(99.0) / 1000.0,
+                latency.getValueAtPercentile(99.9) / 1000.0, latency.getMax() / 1000.0);
+    }
+
+    private void handleVarWrite(InetSocketAddress source, VarWrite event) {
+        CharSequence value = event.getValue();
+        if (value == null) {
+            foreign++;
+            return;
+        }
+        // stream:sequence:time
+        int field = 0;
+        int start = 0;
+        for (int i = 0; i <= value.length() && field < fields.length; i++) {
+            if (i == value.length() || value.charAt(i) == ':') {
+                try {
+                    fields[field++] = parseLong(value, start, i);
+                } catch (NumberFormatException e) {
+                    foreign++;
+                    return;
+                }
+                start = i + 1;
+            }
+        }
+        if (field < fields.length) {
+            foreign++;
+            return;
+        }
+        record(fields[0], fields[1], fields[2]);
+    }
+
+    private void record(long streamId, long sequence, long sentNanos) {
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            stream = new Stream();
+            streams.put(streamId, stream);
+        }
+        stream.received++;
+        if (sequence < stream.highest) {
+            reordered++;
+        } else {
+            stream.highest = sequence;
+        }
+        latency.record(receiveNanos - sentNanos);
+    }
+
+    private static long parseLong(CharSequence text, int start, int end) {
+        boolean negative = start < end && text.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end) {
+            throw new NumberFormatException();
+        }
+        long result = 0;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException();
+            }
+            result = result * 10 + (c - '0');
+        }
+        return negative ? -result : result;
+    }
+
+    private static final class Stream {
+        private long highest = -1;
+        private long received;
+    }
+}
@@ -0,0 +1,208 @@
+package de.neiky.udp.virtuos;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A JSON string or scalar value as a {@link CharSequence} over the receive
+ * buffer. Values without escape sequences and non-ASCII characters are read
+ * straight from the buffer; all others are decoded on first access into a
+ * builder that is reused for the next value.<br />
+ * An instance is reused for the next message, so it is only valid while the
+ * handler it was passed to is running.
+ *
+ * @author Michael Neike
+ */
+public final class JsonText implements CharSequence {
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final StringBuilder decoded = new StringBuilder();
+    private ByteBuffer buffer;
+    private int start;
+    private int end;
+    private boolean plain;
+    private boolean decodedValid;
+
+    JsonText() {
+    }
+
+    void set(ByteBuffer buffer, int start, int end, boolean plain) {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+        this.plain = plain;
+        this.decodedValid = false;
+    }
+
+    @Override
+    public int length() {
+        if (plain) {
+            return end - start;
+        }
+        return decoded().length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (plain) {
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", length: " + (end - start));
+            }
+            return (char) buffer.get(start + index);
+        }
+        return decoded().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        return toString().substring(from, to);
+    }
+
+    /**
+     * Compares the value to the given characters without creating a string.
+     *
+     * @param other The characters to compare to.
+     * @return whether both contain the same characters.
+     */
+    public boolean contentEquals(CharSequence other) {
+        int length = length();
+        if (other == null || other.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (charAt(i) != other.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        if (plain) {
+            char[] chars = new char[end - start];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) buffer.get(start + i);
+            }
+            return new String(chars);
+        }
+        return decoded().toString();
+    }
+
+    /**
+     * Unescapes the JSON string and decodes its UTF-8 bytes. Malformed UTF-8
+     * and invalid unicode escapes are replaced by U+FFFD, as the receiver's
+     * charset decoder does.
+     */
+    private StringBuilder decoded() {
+        if (decodedValid) {
+            return decoded;
+        }
+        decoded.setLength(0);
+        int i = start;
+        while (i < end) {
+            int b = buffer.get(i++) & 0xFF;
+            if (b == '\\' && i < end) {
+                char escaped = (char) buffer.get(i++);
+                switch (escaped) {
+                    case 'b':
+                        decoded.append('\b');
+                        break;
+                    case 'f':
+                        decoded.append('\f');
+                        break;
+                    case 'n':
+                        decoded.append('\n');
+                        break;
+                    case 'r':
+                        decoded.append('\r');
+                        break;
+                    case 't':
+                        decoded.append('\t');
+                        break;
+                    case 'u':
+                        int code = unicodeEscape(i);
+                        if (code < 0) {
+                            decoded.append(REPLACEMENT);
+                        } else {
+                            decoded.append((char) code);
+                            i += 4;
+                        }
+                        break;
+                    default:
+                        decoded.append(escaped);
+                }
+            } else if (b < 0x80) {
+                decoded.append((char) b);
+            } else {
+                i = appendUtf8(b, i);
+            }
+        }
+        decodedValid = true;
+        return decoded;
+    }
+
+    /**
+     * Reads the four hex digits of a unicode escape.
+     *
+     * @param i The index of the first digit.
+     * @return the character code, or -1 if the escape is invalid.
+     */
+    private int unicodeEscape(int i) {
+        if (end - i < 4) {
+            return -1;
+        }
+        int code = 0;
+        for (int j = 0; j < 4; j++) {
+            int digit = Character.digit((char) buffer.get(i + j), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            code = (code << 4) | digit;
+        }
+        return code;
+    }
+
+    /**
+     * Decodes a multi-byte UTF-8 sequence and appends its code point, or
+     * U+FFFD if the sequence is malformed. A malformed sequence ends before
+     * the first byte that does not continue it.
+     *
+     * @param lead The first byte of the sequence.
+     * @param i    The index of the byte following it.
+     * @return the index following the decoded bytes.
+     */
+    private int appendUtf8(int lead, int i) {
+        int extra;
+        int min;
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            extra = 1;
+            min = 0x80;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            extra = 2;
+            min = 0x800;
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            extra = 3;
+            min = 0x10000;
+        } else {
+            decoded.append(REPLACEMENT);
+            return i;
+        }
+        int codePoint = lead & (0x3F >> extra);
+        for (int j = 0; j < extra; j++) {
+            int b = i < end ? buffer.get(i) & 0xFF : -1;
+            if ((b & 0xC0) != 0x80) {
+                decoded.append(REPLACEMENT);
+                return i;
+            }
+            codePoint = (codePoint << 6) | (b & 0x3F);
+            i++;
+        }
+        if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+                || codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+            decoded.append(REPLACEMENT);
+        } else {
+            decoded.appendCodePoint(codePoint);
+        }
+        return i;
+    }
+}
@@ -0,0 +1,67 @@
+package de.neiky.udp.virtuos;
+
+/**
+ * A VAR_WRITE event of a Virtuos envelope. The values are views on the
+ * receive buffer and the instance is reused for the next event, so neither
+ * may be kept after the handler returned. Use {@link CharSequence#toString()}
+ * to keep a value.
+ *
+ * @author Michael Neike
+ */
+public final class VarWrite {
+    final JsonText l = new JsonText();
+    final JsonText c = new JsonText();
+    final JsonText sender = new JsonText();
+    final JsonText name = new JsonText();
+    final JsonText value = new JsonText();
+    boolean hasL;
+    boolean hasC;
+    boolean hasSender;
+    boolean hasName;
+    boolean hasValue;
+
+    VarWrite() {
+    }
+
+    /**
+     * @return the L field of the envelope, or null if missing.
+     */
+    public JsonText getL() {
+        return hasL ? l : null;
+    }
+
+    /**
+     * @return the C field of the envelope, or null if missing.
+     */
+    public JsonText getC() {
+        return hasC ? c : null;
+    }
+
+    /**
+     * @return the SENDER of the event, or null if missing.
+     */
+    public JsonText getSender() {
+        return hasSender ? sender : null;
+    }
+
+    /**
+     * @return the NAME of the variable, or null if missing.
+     */
+    public JsonText getName() {
+        return hasName ? name : null;
+    }
+
+    /**
+     * @return the VALUE written to the variable, or null if missing. A value
+     * that is not a JSON string is returned as written, e.g. true or 42.
+     */
+    public JsonText getValue() {
+        return hasValue ? value : null;
+    }
+
+    @Override
+    public String toString() {
+        return "VarWrite[L=" + getL() + ", C=" + getC() + ", SENDER=" + getSender()
+                + ", NAME=" + getName() + ", VALUE=" + getValue() + "]";
+    }
+}
@@ -0,0 +1,20 @@
+package de.neiky.udp.virtuos;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Handles the VAR_WRITE events of received Virtuos envelopes.
+ *
+ * @author Michael Neike
+ */
+@FunctionalInterface
+public interface VarWriteHandler {
+    /**
+     * Called once for every VAR_WRITE event of an envelope, in the order of
+     * the envelope. The event is only valid until this method returns.
+     *
+     * @param source The address the envelope was sent from.
+     * @param event  The event.
+     */
+    void handleVarWrite(InetSocketAddress source, VarWrite event);
+}
@@ -0,0 +1,154 @@
+package de.neiky.udp.virtuos;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands every VAR_WRITE event to the handler registered for the NAME of its
+ * variable:
+ * <pre>
+ * VarWriteRouter router = new VarWriteRouter()
+ *         .addRoute("MOTOR_1", (source, event) -&gt; ...)
+ *         .addRoute("MOTOR_2", (source, event) -&gt; ...);
+ * receiver.setBufferHandler(new VirtuosHandler(router));
+ * </pre>
+ * The names are looked up in an open addressing table straight from the
+ * receive buffer, without creating a string. The table is rebuilt when a
+ * route is added or removed, so routes may be changed while the receiver is
+ * running and the receive path never takes a lock. An event without a route
+ * is handed to the default handler, if set, and counted.
+ *
+ * @author Michael Neike
+ */
+public class VarWriteRouter implements VarWriteHandler {
+    private final Map<String, VarWriteHandler> routes = new HashMap<>();
+    private volatile Table table = new Table(routes);
+    private volatile VarWriteHandler defaultHandler;
+    private final LongAdder unrouted = new LongAdder();
+
+    /**
+     * Adds or replaces the route for a variable.
+     *
+     * @param name    The NAME of the variable.
+     * @param handler The handler of its events.
+     * @return this VarWriteRouter.
+     */
+    public synchronized VarWriteRouter addRoute(String name, VarWriteHandler handler) {
+        if (name == null || handler == null) {
+            throw new IllegalArgumentException("Given name and handler must not be NULL.");
+        }
+        routes.put(name, handler);
+        table = new Table(routes);
+
+        return this;
+    }
+
+    /**
+     * @param name The NAME of the variable to remove the route of.
+     * @return this VarWriteRouter.
+     */
+    public synchronized VarWriteRouter removeRoute(String name) {
+        if (routes.remove(name) != null) {
+            table = new Table(routes);
+        }
+
+        return this;
+    }
+
+    /**
+     * Sets the handler for events without a route.
+     *
+     * @param defaultHandler The handler, <code>null</code> to discard those
+     *                       events (default).
+     * @return this VarWriteRouter.
+     */
+    public VarWriteRouter setDefaultHandler(VarWriteHandler defaultHandler) {
+        this.defaultHandler = defaultHandler;
+
+        return this;
+    }
+
+    /**
+     * @return the number of events without a route.
+     */
+    public long getUnroutedCount() {
+        return unrouted.sum();
+    }
+
+    @Override
+    public void handleVarWrite(InetSocketAddress source, VarWrite event) {
+        JsonText name = event.getName();
+        VarWriteHandler handler = name != null ? table.get(name) : null;
+        if (handler == null) {
+            unrouted.increment();
+            handler = defaultHandler;
+            if (handler == null) {
+                return;
+            }
+        }
+        handler.handleVarWrite(source, event);
+    }
+
+    /**
+     * An immutable open addressing table with linear probing, at most half
+     * full.
+     */
+    private static final class Table {
+        private final String[] keys;
+        private final VarWriteHandler[] values;
+        private final int mask;
+
+        private Table(Map<String, VarWriteHandler> routes) {
+            int capacity = Integer.highestOneBit(Math.max(1, routes.size()) * 2 - 1) << 1;
+            keys = new String[capacity];
+            values = new VarWriteHandler[capacity];
+            mask = capacity - 1;
+            for (Map.Entry<String, VarWriteHandler> route : routes.entrySet()) {
+                int i = hash(route.getKey()) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = route.getKey();
+                values[i] = route.getValue();
+            }
+        }
+
+        private VarWriteHandler get(CharSequence name) {
+            int i = hash(name) & mask;
+            String key;
+            while ((key = keys[i]) != null) {
+                if (equal(key, name)) {
+                    return values[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        /**
+         * @return {@link String#hashCode()} of the characters, spread over the
+         * lower bits.
+         */
+        private static int hash(CharSequence text) {
+            int h = 0;
+            for (int i = 0; i < text.length(); i++) {
+                h = 31 * h + text.charAt(i);
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean equal(String key, CharSequence name) {
+            if (key.length() != name.length()) {
+                return false;
+            }
+            for (int i = 0; i < key.length(); i++) {
+                if (key.charAt(i) != name.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
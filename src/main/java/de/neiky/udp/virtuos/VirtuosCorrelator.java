@@ -0,0 +1,68 @@
+package de.neiky.udp.virtuos;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import de.neiky.udp.RequestClient;
+
+/**
+ * Correlates Virtuos replies with their requests by the NAME of the variable
+ * written, assuming Virtuos answers a VAR_WRITE with a VAR_WRITE of the same
+ * variable:
+ * <pre>
+ * RequestClient client = new RequestClient(sender, new VirtuosCorrelator());
+ * receiver.setBufferHandler(client).start();
+ * client.request(encoder.encodeVarWrite("104", "234", "AM", "MOTOR_1", "true"),
+ *         VirtuosCorrelator.id("MOTOR_1"));
+ * </pre>
+ * The id is a 64 bit hash of the NAME, computed on the receive buffer. Only
+ * one request per variable can be pending; an envelope answers the request
+ * of its first VAR_WRITE event.
+ *
+ * @author Michael Neike
+ */
+public class VirtuosCorrelator implements RequestClient.Correlator {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final ThreadLocal<FirstName> firstName = ThreadLocal.withInitial(FirstName::new);
+
+    /**
+     * @param name The NAME of a variable.
+     * @return the correlation id of requests writing the variable.
+     */
+    public static long id(CharSequence name) {
+        // FNV-1a over the UTF-16 characters
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        // NO_ID is reserved
+        return hash == RequestClient.NO_ID ? 0 : hash;
+    }
+
+    @Override
+    public long correlationId(InetSocketAddress source, ByteBuffer reply) {
+        FirstName first = firstName.get();
+        first.id = RequestClient.NO_ID;
+        first.decoder.decode(source, reply, first);
+        return first.id;
+    }
+
+    /**
+     * Decodes an envelope and remembers the id of its first VAR_WRITE event.
+     */
+    private static final class FirstName implements VarWriteHandler {
+        private final VirtuosDecoder decoder = new VirtuosDecoder();
+        private long id;
+
+        @Override
+        public void handleVarWrite(InetSocketAddress source, VarWrite event) {
+            if (id == RequestClient.NO_ID && event.getName() != null) {
+                id = id(event.getName());
+            }
+        }
+    }
+}
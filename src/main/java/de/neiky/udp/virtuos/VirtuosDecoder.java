@@ -0,0 +1,349 @@
+package de.neiky.udp.virtuos;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Parses Virtuos envelopes in a single pass over the receive buffer, without
+ * building a JSON tree or creating strings:
+ * <pre>
+ * {"L":"104","C":"234","VIRTUOS_EVT":[{"VAR_WRITE":[{"SENDER":"AM"},{"NAME":"MOTOR_1"},{"VALUE":"true"}]}]}
+ * </pre>
+ * Unknown fields are skipped. The positions of the events are remembered
+ * while parsing and the events are handed out once the envelope is complete,
+ * so L and C are known even if they follow VIRTUOS_EVT.<br />
+ * A decoder is not thread safe; use one per receiving thread.
+ *
+ * @author Michael Neike
+ */
+public final class VirtuosDecoder {
+    private static final byte[] KEY_L = {'L'};
+    private static final byte[] KEY_C = {'C'};
+    private static final byte[] KEY_EVENTS = bytes("VIRTUOS_EVT");
+    private static final byte[] KEY_VAR_WRITE = bytes("VAR_WRITE");
+    private static final byte[] KEY_SENDER = bytes("SENDER");
+    private static final byte[] KEY_NAME = bytes("NAME");
+    private static final byte[] KEY_VALUE = bytes("VALUE");
+    private static final int FIELDS = 3;
+    private static final int SLOT = FIELDS * 3;
+    private static final int MISSING = -1;
+    private static final int ESCAPED = 0;
+    private static final int PLAIN = 1;
+    private static final Malformed MALFORMED = new Malformed();
+
+    private final VarWrite event = new VarWrite();
+    private ByteBuffer in;
+    private int pos;
+    private int end;
+    private int tokenStart;
+    private int tokenEnd;
+    private boolean tokenPlain;
+    private int[] slots = new int[4 * SLOT];
+    private int eventCount;
+
+    /**
+     * Parses the envelope and calls the handler for each VAR_WRITE event. The
+     * position of the payload is not changed.
+     *
+     * @param source  The address the envelope was sent from.
+     * @param payload The envelope, from its position to its limit.
+     * @param handler The handler of the events.
+     * @return the number of events handed out, or -1 if the payload is not a
+     * valid envelope. No event is handed out for an invalid envelope.
+     */
+    public int decode(InetSocketAddress source, ByteBuffer payload, VarWriteHandler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("Given handler must not be NULL.");
+        }
+        in = payload;
+        pos = payload.position();
+        end = payload.limit();
+        eventCount = 0;
+        event.hasL = false;
+        event.hasC = false;
+        try {
+            parseEnvelope();
+        } catch (Malformed e) {
+            return -1;
+        } finally {
+            in = null;
+        }
+
+        for (int i = 0; i < eventCount; i++) {
+            int base = i * SLOT;
+            event.hasSender = apply(event.sender, payload, base);
+            event.hasName = apply(event.name, payload, base + 3);
+            event.hasValue = apply(event.value, payload, base + 6);
+            handler.handleVarWrite(source, event);
+        }
+        return eventCount;
+    }
+
+    private boolean apply(JsonText text, ByteBuffer payload, int index) {
+        if (slots[index + 2] == MISSING) {
+            return false;
+        }
+        text.set(payload, slots[index], slots[index + 1], slots[index + 2] == PLAIN);
+        return true;
+    }
+
+    private void parseEnvelope() {
+        expect('{');
+        if (!peek('}')) {
+            do {
+                readString();
+                expect(':');
+                if (tokenIs(KEY_L)) {
+                    readValue();
+                    event.l.set(in, tokenStart, tokenEnd, tokenPlain);
+                    event.hasL = true;
+                } else if (tokenIs(KEY_C)) {
+                    readValue();
+                    event.c.set(in, tokenStart, tokenEnd, tokenPlain);
+                    event.hasC = true;
+                } else if (tokenIs(KEY_EVENTS)) {
+                    parseEvents();
+                } else {
+                    skipValue();
+                }
+            } while (next(','));
+        }
+        expect('}');
+        skipWhitespace();
+        if (pos != end) {
+            throw MALFORMED;
+        }
+    }
+
+    private void parseEvents() {
+        expect('[');
+        if (!peek(']')) {
+            do {
+                expect('{');
+                if (!peek('}')) {
+                    do {
+                        readString();
+                        expect(':');
+                        if (tokenIs(KEY_VAR_WRITE)) {
+                            parseVarWrite();
+                        } else {
+                            skipValue();
+                        }
+                    } while (next(','));
+                }
+                expect('}');
+            } while (next(','));
+        }
+        expect(']');
+    }
+
+    /**
+     * Parses the fields of a VAR_WRITE, given as array of single-field objects
+     * or as one object.
+     */
+    private void parseVarWrite() {
+        int base = eventCount * SLOT;
+        if (base + SLOT > slots.length) {
+            int[] grown = new int[slots.length * 2];
+            System.arraycopy(slots, 0, grown, 0, slots.length);
+            slots = grown;
+        }
+        for (int i = 0; i < FIELDS; i++) {
+            slots[base + i * 3 + 2] = MISSING;
+        }
+
+        if (peek('[')) {
+            expect('[');
+            if (!peek(']')) {
+                do {
+                    parseVarWriteFields(base);
+                } while (next(','));
+            }
+            expect(']');
+        } else {
+            parseVarWriteFields(base);
+        }
+        eventCount++;
+    }
+
+    private void parseVarWriteFields(int base) {
+        expect('{');
+        if (!peek('}')) {
+            do {
+                readString();
+                expect(':');
+                int field = tokenIs(KEY_SENDER) ? 0 : tokenIs(KEY_NAME) ? 1 : tokenIs(KEY_VALUE) ? 2 : -1;
+                if (field < 0) {
+                    skipValue();
+                } else {
+                    readValue();
+                    int index = base + field * 3;
+                    slots[index] = tokenStart;
+                    slots[index + 1] = tokenEnd;
+                    slots[index + 2] = tokenPlain ? PLAIN : ESCAPED;
+                }
+            } while (next(','));
+        }
+        expect('}');
+    }
+
+    /**
+     * Reads a string or a scalar into the token. Objects and arrays are
+     * skipped and their JSON text becomes the token.
+     */
+    private void readValue() {
+        skipWhitespace();
+        if (pos >= end) {
+            throw MALFORMED;
+        }
+        byte b = in.get(pos);
+        if (b == '"') {
+            readString();
+        } else {
+            int start = pos;
+            skipValue();
+            tokenStart = start;
+            tokenEnd = pos;
+            tokenPlain = true;
+            for (int i = start; i < tokenEnd; i++) {
+                if (in.get(i) < 0) {
+                    tokenPlain = false;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a string into the token, without the quotes.
+     */
+    private void readString() {
+        skipWhitespace();
+        if (pos >= end || in.get(pos) != '"') {
+            throw MALFORMED;
+        }
+        tokenStart = ++pos;
+        tokenPlain = true;
+        while (pos < end) {
+            byte b = in.get(pos);
+            if (b == '"') {
+                tokenEnd = pos++;
+                return;
+            }
+            if (b == '\\') {
+                tokenPlain = false;
+                pos++;
+            } else if (b < 0) {
+                tokenPlain = false;
+            }
+            pos++;
+        }
+        throw MALFORMED;
+    }
+
+    private void skipValue() {
+        skipWhitespace();
+        if (pos >= end) {
+            throw MALFORMED;
+        }
+        byte b = in.get(pos);
+        if (b == '"') {
+            readString();
+        } else if (b == '{') {
+            pos++;
+            if (!peek('}')) {
+                do {
+                    readString();
+                    expect(':');
+                    skipValue();
+                } while (next(','));
+            }
+            expect('}');
+        } else if (b == '[') {
+            pos++;
+            if (!peek(']')) {
+                do {
+                    skipValue();
+                } while (next(','));
+            }
+            expect(']');
+        } else {
+            int start = pos;
+            while (pos < end) {
+                b = in.get(pos);
+                if (b == ',' || b == '}' || b == ']' || isWhitespace(b)) {
+                    break;
+                }
+                pos++;
+            }
+            if (pos == start) {
+                throw MALFORMED;
+            }
+        }
+    }
+
+    private boolean tokenIs(byte[] key) {
+        if (tokenEnd - tokenStart != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (in.get(tokenStart + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void expect(char c) {
+        skipWhitespace();
+        if (pos >= end || in.get(pos) != c) {
+            throw MALFORMED;
+        }
+        pos++;
+    }
+
+    private boolean peek(char c) {
+        skipWhitespace();
+        return pos < end && in.get(pos) == c;
+    }
+
+    /**
+     * Consumes the character if it is next.
+     */
+    private boolean next(char c) {
+        if (peek(c)) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && isWhitespace(in.get(pos))) {
+            pos++;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static byte[] bytes(String key) {
+        byte[] bytes = new byte[key.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) key.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Thrown without stack trace to leave the parser on invalid input.
+     */
+    private static final class Malformed extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Malformed() {
+            super(null, null, false, false);
+        }
+    }
+}
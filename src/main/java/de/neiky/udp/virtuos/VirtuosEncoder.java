@@ -0,0 +1,203 @@
+package de.neiky.udp.virtuos;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes Virtuos envelopes as UTF-8 JSON straight into a reused buffer, which
+ * can be passed to {@link de.neiky.udp.UdpSender#send(ByteBuffer)}:
+ * <pre>
+ * ByteBuffer envelope = encoder.begin("104", "234")
+ *         .addVarWrite("AM", "MOTOR_1", "true")
+ *         .finish();
+ * sender.send(envelope);
+ * </pre>
+ * The returned buffer is overwritten by the next envelope. An encoder is not
+ * thread safe; use one per sending thread.
+ *
+ * @author Michael Neike
+ */
+public final class VirtuosEncoder {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ByteBuffer buffer;
+    private boolean open;
+    private boolean firstEvent;
+
+    public VirtuosEncoder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The initial size of the buffer. The buffer grows if an
+     *                 envelope does not fit.
+     */
+    public VirtuosEncoder(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than 0.");
+        }
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Encodes an envelope holding a single VAR_WRITE event.
+     *
+     * @param l      The L field of the envelope.
+     * @param c      The C field of the envelope.
+     * @param sender The SENDER of the event.
+     * @param name   The NAME of the variable.
+     * @param value  The VALUE written to the variable.
+     * @return the envelope, from its position to its limit.
+     */
+    public ByteBuffer encodeVarWrite(CharSequence l, CharSequence c, CharSequence sender,
+                                     CharSequence name, CharSequence value) {
+        return begin(l, c).addVarWrite(sender, name, value).finish();
+    }
+
+    /**
+     * Starts a new envelope. Discards an envelope that was not finished.
+     *
+     * @param l The L field of the envelope.
+     * @param c The C field of the envelope.
+     * @return this VirtuosEncoder.
+     */
+    public VirtuosEncoder begin(CharSequence l, CharSequence c) {
+        buffer.clear();
+        put('{');
+        field("L", l);
+        put(',');
+        field("C", c);
+        put(',');
+        writeString("VIRTUOS_EVT");
+        put(':');
+        put('[');
+        open = true;
+        firstEvent = true;
+        return this;
+    }
+
+    /**
+     * Adds a VAR_WRITE event to the envelope. A null field is left out.
+     *
+     * @param sender The SENDER of the event.
+     * @param name   The NAME of the variable.
+     * @param value  The VALUE written to the variable.
+     * @return this VirtuosEncoder.
+     */
+    public VirtuosEncoder addVarWrite(CharSequence sender, CharSequence name, CharSequence value) {
+        if (!open) {
+            throw new IllegalStateException("No envelope begun.");
+        }
+        if (!firstEvent) {
+            put(',');
+        }
+        firstEvent = false;
+        put('{');
+        writeString("VAR_WRITE");
+        put(':');
+        put('[');
+        boolean first = true;
+        first = element("SENDER", sender, first);
+        first = element("NAME", name, first);
+        element("VALUE", value, first);
+        put(']');
+        put('}');
+        return this;
+    }
+
+    /**
+     * Completes the envelope.
+     *
+     * @return the envelope, from its position to its limit.
+     */
+    public ByteBuffer finish() {
+        if (!open) {
+            throw new IllegalStateException("No envelope begun.");
+        }
+        put(']');
+        put('}');
+        open = false;
+        buffer.flip();
+        return buffer;
+    }
+
+    private boolean element(String key, CharSequence value, boolean first) {
+        if (value == null) {
+            return first;
+        }
+        if (!first) {
+            put(',');
+        }
+        put('{');
+        field(key, value);
+        put('}');
+        return false;
+    }
+
+    private void field(String key, CharSequence value) {
+        writeString(key);
+        put(':');
+        if (value == null) {
+            ensure(4);
+            buffer.put((byte) 'n').put((byte) 'u').put((byte) 'l').put((byte) 'l');
+        } else {
+            writeString(value);
+        }
+    }
+
+    /**
+     * Writes the characters as quoted and escaped JSON string in UTF-8.
+     */
+    private void writeString(CharSequence value) {
+        put('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                put('\\');
+                put(c);
+            } else if (c < 0x20) {
+                ensure(6);
+                buffer.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                        .put((byte) HEX[c >> 4]).put((byte) HEX[c & 0xF]);
+            } else if (c < 0x80) {
+                put(c);
+            } else if (c < 0x800) {
+                ensure(2);
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                ensure(4);
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                put('?');
+            } else {
+                ensure(3);
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        put('"');
+    }
+
+    private void put(char c) {
+        ensure(1);
+        buffer.put((byte) c);
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+}
@@ -0,0 +1,45 @@
+package de.neiky.udp.virtuos;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.neiky.udp.UdpReceiver;
+
+/**
+ * Decodes received Virtuos envelopes on the receive buffer and hands their
+ * VAR_WRITE events to a {@link VarWriteHandler}:
+ * <pre>
+ * receiver.setBufferHandler(new VirtuosHandler((source, event) -&gt; ...));
+ * </pre>
+ * Each receiving thread uses its own decoder, so the handler may be used by
+ * sharded receivers and worker threads.
+ *
+ * @author Michael Neike
+ */
+public class VirtuosHandler implements UdpReceiver.BufferHandler {
+    private final VarWriteHandler handler;
+    private final ThreadLocal<VirtuosDecoder> decoder = ThreadLocal.withInitial(VirtuosDecoder::new);
+    private final AtomicLong invalidEnvelopes = new AtomicLong();
+
+    public VirtuosHandler(VarWriteHandler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("Given handler must not be NULL.");
+        }
+        this.handler = handler;
+    }
+
+    @Override
+    public void handleBuffer(InetSocketAddress source, ByteBuffer payload) {
+        if (decoder.get().decode(source, payload, handler) < 0) {
+            invalidEnvelopes.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of messages that were no valid Virtuos envelope.
+     */
+    public long getInvalidEnvelopeCount() {
+        return invalidEnvelopes.get();
+    }
+}
@@ -9,11 +9,43 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.net.StandardSocketOptions;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.ObjectName;
+
+import de.neiky.udp.clisender.LoadGenerator;
+import de.neiky.udp.clisender.LoadMonitor;
+import de.neiky.udp.virtuos.VarWriteRouter;
+import de.neiky.udp.virtuos.VirtuosCorrelator;
+import de.neiky.udp.virtuos.VirtuosEncoder;
+import de.neiky.udp.virtuos.VirtuosHandler;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 public class UdpTest {
     private static final String SENDER_HOST = "localhost";
@@ -83,6 +115,1004 @@ public class UdpTest {
         assertEquals(TESTMESSAGE, receivedMessage);
     }
 
+    @Test
+    public void useBufferHandler() throws IOException, InterruptedException {
+        assertNull(receivedMessage);
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setBufferHandler((source, payload) -> {
+            assertTrue(payload.isReadOnly());
+            byte[] data = new byte[payload.remaining()];
+            payload.get(data);
+
+            ThreadContext.put("name", "receiver");
+            logger.info(new StringFormattedMessage("Buffer received from %s, length %d:", source, data.length));
+
+            setReceivedMessage(new String(data, StandardCharsets.UTF_8));
+        }).start();
+
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+            sender.send(TESTMESSAGE, RECEIVER_HOST, RECEIVER_PORT);
+
+            ThreadContext.put("name", "sender");
+            logger.info("Message sent: {}", TESTMESSAGE);
+        }
+
+        // give the receiver some time to receive the message
+        Thread.sleep(100);
+
+        assertEquals(TESTMESSAGE, receivedMessage);
+    }
+
+    @Test
+    public void shardedReceiverDeliversFromAllSenders() throws IOException, InterruptedException {
+        assumeReusePort();
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setShards(4)
+                .setMessageHandler((address, port, message) -> received.add(message)).start();
+
+        for (int i = 0; i < 8; i++) {
+            try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT + i)) {
+                sender.send(TESTMESSAGE + i, RECEIVER_HOST, RECEIVER_PORT);
+            }
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+
+        assertEquals(8, received.size());
+    }
+
+    @Test
+    public void workerThreadsHandleMessages() throws IOException, InterruptedException {
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setWorkerThreads(2)
+                .setMessageHandler((address, port, message) -> received.add(message)).start();
+
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+            for (int i = 0; i < 10; i++) {
+                sender.send(TESTMESSAGE + i, RECEIVER_HOST, RECEIVER_PORT);
+            }
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+
+        assertEquals(10, received.size());
+        assertEquals(0, receiver.getDroppedCount());
+        assertEquals(0, receiver.getQueueDepth());
+    }
+
+    @Test
+    public void workerThreadsSurviveFailingHandlers() throws IOException, InterruptedException {
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setWorkerThreads(1)
+                .setMessageHandler((address, port, message) -> {
+                    if (message.endsWith("0")) {
+                        throw new IllegalStateException(message);
+                    }
+                    received.add(message);
+                }).start();
+
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+            for (int i = 0; i < 10; i++) {
+                sender.send(TESTMESSAGE + i, RECEIVER_HOST, RECEIVER_PORT);
+            }
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+
+        assertEquals(9, received.size());
+        assertEquals(0, receiver.getQueueDepth());
+    }
+
+    @Test
+    public void fullQueueDropsNewestMessages() throws IOException, InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setWorkerThreads(1).setQueueCapacity(2)
+                .setBackpressurePolicy(BackpressurePolicy.DROP_NEWEST)
+                .setMessageHandler((address, port, message) -> {
+                    try {
+                        blocked.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }).start();
+
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+            for (int i = 0; i < 10; i++) {
+                sender.send(TESTMESSAGE + i, RECEIVER_HOST, RECEIVER_PORT);
+            }
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+        blocked.countDown();
+
+        assertTrue(receiver.getDroppedCount() > 0);
+    }
+
+    @Test
+    public void sendBatchToSeveralDestinations() throws IOException, InterruptedException {
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT)
+                .setMessageHandler((address, port, message) -> received.add(message)).start();
+
+        ByteBuffer payload = ByteBuffer.wrap(TESTMESSAGE.getBytes(StandardCharsets.UTF_8));
+        SendBatch batch = new SendBatch(2).add(payload, new InetSocketAddress(RECEIVER_HOST, RECEIVER_PORT));
+        for (int i = 0; i < 4; i++) {
+            batch.add((TESTMESSAGE + i).getBytes(StandardCharsets.UTF_8), InetAddress.getByName(RECEIVER_HOST), RECEIVER_PORT);
+        }
+        batch.add(payload, InetSocketAddress.createUnresolved("abc", RECEIVER_PORT));
+
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+            assertEquals(5, sender.sendBatch(batch));
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+
+        assertEquals(5, received.size());
+        assertEquals(5, batch.getSentCount());
+        assertEquals(1, batch.getFailedCount());
+        assertFalse(batch.isSent(5));
+        assertEquals(0, payload.position());
+    }
+
+    @Test
+    public void concurrentSendersShareStripedSender() throws Exception {
+        assumeReusePort();
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT)
+                .setMessageHandler((address, port, message) -> received.add(message)).start();
+
+        UdpSenderBuilder senderBuilder = new UdpSenderBuilder().setLocalAddress(SENDER_HOST).setLocalPort(SENDER_PORT)
+                .setRemoteAddress(RECEIVER_HOST).setRemotePort(RECEIVER_PORT).setChannelCount(4);
+        try (UdpSender sender = senderBuilder.build()) {
+            Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; t++) {
+                final int thread = t;
+                threads[t] = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 10; i++) {
+                            sender.send((TESTMESSAGE + thread + "-" + i).getBytes(StandardCharsets.UTF_8));
+                        }
+                    } catch (IOException e) {
+                        logger.error(e.getMessage());
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(SENDER_PORT, sender.getLocalPort());
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+
+        assertEquals(80, received.size());
+    }
+
+    @Test
+    public void sendAsyncToExecutorReceiver() throws Exception {
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setHandlerExecutor(executor)
+                .setMessageHandler((address, port, message) -> received.add(message)).start();
+
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[10];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = sender.sendAsync(TESTMESSAGE + i, InetAddress.getByName(RECEIVER_HOST), RECEIVER_PORT);
+            }
+            CompletableFuture.allOf(futures).get(1, TimeUnit.SECONDS);
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+        executor.shutdown();
+
+        assertEquals(10, received.size());
+    }
+
+    @Test
+    public void hubReceivesOnSeveralPorts() throws IOException, InterruptedException {
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        UdpReceiverHub hub = new UdpReceiverHub().start();
+        try {
+            for (int i = 0; i < 3; i++) {
+                final int index = i;
+                hub.register(new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT + 10 + i)
+                        .setMessageHandler((address, port, message) -> received.add(index + message)));
+            }
+            // give the selector some time to register the sockets
+            Thread.sleep(50);
+
+            try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+                for (int i = 0; i < 3; i++) {
+                    sender.send(TESTMESSAGE, RECEIVER_HOST, RECEIVER_PORT + 10 + i);
+                }
+            }
+
+            // give the receiver some time to receive the messages
+            Thread.sleep(100);
+        } finally {
+            hub.stop();
+        }
+
+        assertEquals(3, received.size());
+        assertTrue(received.contains("2" + TESTMESSAGE));
+    }
+
+    @Test
+    public void hubReleasesUnregisteredPortsAndSurvivesFailingHandlers() throws IOException, InterruptedException {
+        List<String> received = new CopyOnWriteArrayList<>();
+        UdpReceiverHub hub = new UdpReceiverHub().start();
+        try {
+            UdpReceiver first = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT + 10);
+            hub.register(first).unregister(first);
+            // the port is free again once the selector has dropped the socket
+            Thread.sleep(50);
+            hub.register(new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT + 10).setMessageHandler((address, port, message) -> {
+                throw new IllegalStateException(message);
+            }));
+            hub.register(new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT + 11)
+                    .setMessageHandler((address, port, message) -> received.add(message)));
+            // give the selector some time to register the sockets
+            Thread.sleep(50);
+
+            try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+                sender.send(TESTMESSAGE, RECEIVER_HOST, RECEIVER_PORT + 10);
+                Thread.sleep(50);
+                sender.send(TESTMESSAGE, RECEIVER_HOST, RECEIVER_PORT + 11);
+            }
+
+            // give the receiver some time to receive the messages
+            Thread.sleep(100);
+        } finally {
+            hub.stop();
+        }
+
+        assertEquals(Arrays.asList(TESTMESSAGE), received);
+    }
+
+    @Test
+    public void useEndpointFromDestinationCache() throws IOException, InterruptedException {
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT)
+                .setMessageHandler((address, port, message) -> received.add(message)).start();
+
+        try (DestinationCache cache = new DestinationCache(); UdpSender sender = new UdpSenderBuilder()
+                .setDestinationCache(cache).setLocalAddress(SENDER_HOST).setLocalPort(SENDER_PORT)
+                .setRemoteAddress(RECEIVER_HOST).setRemotePort(RECEIVER_PORT).build()) {
+            Endpoint endpoint = cache.endpoint(RECEIVER_HOST, RECEIVER_PORT);
+            assertSame(endpoint, cache.endpoint(RECEIVER_HOST, RECEIVER_PORT));
+
+            sender.send(TESTMESSAGE + 1, endpoint);
+            sender.send(TESTMESSAGE + 2);
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+
+        assertTrue(received.contains(TESTMESSAGE + 1));
+        assertTrue(received.contains(TESTMESSAGE + 2));
+    }
+
+    @Test
+    public void remoteHostFollowsTheDestinationCache() throws IOException, InterruptedException {
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        receiver = new UdpReceiver("127.0.0.2", RECEIVER_PORT)
+                .setMessageHandler((address, port, message) -> received.add(message)).start();
+
+        // the cache is set after the host name and is still used
+        try (DestinationCache cache = new DestinationCache(); UdpSender sender = new UdpSenderBuilder()
+                .setLocalAddress(SENDER_HOST).setLocalPort(SENDER_PORT)
+                .setRemoteAddress(RECEIVER_HOST).setRemotePort(RECEIVER_PORT).setDestinationCache(cache).build()) {
+            // as if the cache had re-resolved the host name to another address
+            cache.endpoint(RECEIVER_HOST, RECEIVER_PORT).update(InetAddress.getByName("127.0.0.2"));
+
+            sender.send(TESTMESSAGE);
+        }
+
+        // give the receiver some time to receive the message
+        Thread.sleep(100);
+
+        assertTrue(received.contains(TESTMESSAGE));
+    }
+
+    @Test
+    public void stoppedReceiverReleasesPortAndSendUsesRemotePort() throws IOException, InterruptedException {
+        getUdpReceiver().start().stop();
+        // stop() returns once the port is free, so it can be bound again right away
+        receiver = getUdpReceiver().start();
+
+        try (UdpSender sender = new UdpSenderBuilder().setLocalAddress(SENDER_HOST).setLocalPort(SENDER_PORT)
+                .setRemoteAddress(RECEIVER_HOST).setRemotePort(RECEIVER_PORT).build()) {
+            sender.send(TESTMESSAGE);
+        }
+
+        // give the receiver some time to receive the message
+        Thread.sleep(100);
+
+        assertEquals(TESTMESSAGE, receivedMessage);
+    }
+
+    @Test
+    public void framedMessagesAreSlicedByTheReceiver() throws IOException, InterruptedException {
+        List<String> received = new CopyOnWriteArrayList<>();
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setFraming(new LengthPrefixFraming())
+                .setBufferHandler((source, payload) -> {
+                    byte[] data = new byte[payload.remaining()];
+                    payload.get(data);
+                    received.add(new String(data, StandardCharsets.UTF_8));
+                }).start();
+
+        String umlauts = "Empf\u00e4nger \u00fc\u00f6";
+        try (UdpSender sender = new UdpSenderBuilder().setLocalAddress(SENDER_HOST).setLocalPort(SENDER_PORT)
+                .setRemoteAddress(RECEIVER_HOST).setRemotePort(RECEIVER_PORT)
+                .setFraming(new LengthPrefixFraming()).build()) {
+            sender.send(umlauts);
+            sender.send(TESTMESSAGE.getBytes(StandardCharsets.UTF_8));
+
+            // two frames in one datagram, followed by a truncated header
+            ByteBuffer datagram = ByteBuffer.allocate(64);
+            datagram.putInt(2).put("ab".getBytes(StandardCharsets.UTF_8));
+            datagram.putInt(1).put((byte) 'c').put((byte) 0);
+            datagram.flip();
+            try (UdpSender plain = new UdpSender()) {
+                plain.send(Arrays.copyOf(datagram.array(), datagram.limit()), RECEIVER_HOST, RECEIVER_PORT);
+            }
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+
+        assertEquals(Arrays.asList(umlauts, TESTMESSAGE, "ab", "c"), received);
+        assertEquals(1, receiver.getInvalidFrameCount());
+    }
+
+    @Test
+    public void useTextHandler() throws IOException, InterruptedException {
+        List<String> received = new CopyOnWriteArrayList<>();
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setTextHandler((source, text) -> {
+            if (text.indexOf("skip") < 0) {
+                received.add(text.length() + ":" + text);
+            }
+        }).start();
+
+        String umlauts = "Empf\u00e4nger";
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+            sender.send(TESTMESSAGE, RECEIVER_HOST, RECEIVER_PORT);
+            sender.send("skip me", RECEIVER_HOST, RECEIVER_PORT);
+            sender.send(umlauts, RECEIVER_HOST, RECEIVER_PORT);
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+
+        assertEquals(Arrays.asList(TESTMESSAGE.length() + ":" + TESTMESSAGE, umlauts.length() + ":" + umlauts),
+                received);
+    }
+
+    @Test
+    public void virtuosEnvelopesAreDecodedOnTheReceiveBuffer() throws IOException, InterruptedException {
+        List<String> received = new CopyOnWriteArrayList<>();
+        VirtuosHandler handler = new VirtuosHandler((source, event) -> received.add(event.getL() + "/"
+                + event.getC() + " " + event.getSender() + ":" + event.getName() + "=" + event.getValue()));
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setBufferHandler(handler).start();
+
+        VirtuosEncoder encoder = new VirtuosEncoder();
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+            Endpoint endpoint = Endpoint.of(InetAddress.getByName(RECEIVER_HOST), RECEIVER_PORT);
+            sender.send("{\"VIRTUOS_EVT\":[{\"VAR_WRITE\":[{\"SENDER\":\"AM\"},{\"NAME\":\"MOTOR_1\"},"
+                    + "{\"VALUE\":true}]}],\"L\":\"104\",\"C\":\"234\"}", endpoint);
+            sender.send(encoder.begin("105", "235")
+                    .addVarWrite("AM", "Empfänger", "say \"hi\"")
+                    .addVarWrite("AM", "MOTOR_2", "false")
+                    .finish(), endpoint);
+            sender.send("{\"L\":\"106\"", endpoint);
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+
+        assertEquals(Arrays.asList("104/234 AM:MOTOR_1=true", "105/235 AM:Empfänger=say \"hi\"",
+                "105/235 AM:MOTOR_2=false"), received);
+        assertEquals(1, handler.getInvalidEnvelopeCount());
+    }
+
+    @Test
+    public void malformedVirtuosTextIsReplaced() throws IOException, InterruptedException {
+        List<String> received = new CopyOnWriteArrayList<>();
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setBufferHandler(
+                new VirtuosHandler((source, event) -> received.add(event.getValue().toString()))).start();
+
+        // a truncated UTF-8 sequence, a stray continuation byte and an invalid escape
+        byte[] envelope = ("{\"VIRTUOS_EVT\":[{\"VAR_WRITE\":[{\"SENDER\":\"AM\"},{\"NAME\":\"TEXT\"},"
+                + "{\"VALUE\":\"aÃ(b\u0080c\\u12G4\"}]}],\"L\":\"104\",\"C\":\"234\"}")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+            sender.send(envelope, Endpoint.of(InetAddress.getByName(RECEIVER_HOST), RECEIVER_PORT));
+        }
+
+        // give the receiver some time to receive the message
+        Thread.sleep(100);
+
+        assertEquals(Arrays.asList("a�(b�c�12G4"), received);
+    }
+
+    @Test
+    public void messagesAreRoutedByHeaderAndSource() throws IOException, InterruptedException {
+        List<String> received = new CopyOnWriteArrayList<>();
+        HeaderRouter router = new HeaderRouter(0, 1)
+                .addRoute('a', (source, payload) -> received.add("a:" + payload.remaining()))
+                .addRoute('b', new SourceRouter()
+                        .addRoute(new InetSocketAddress(SENDER_HOST, SENDER_PORT),
+                                (source, payload) -> received.add("b from sender")));
+        router.setDefaultHandler((source, payload) -> received.add("default"));
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setBufferHandler(router).start();
+
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+            sender.setRemoteAddress(RECEIVER_HOST).setRemotePort(RECEIVER_PORT);
+            sender.send("abc").send("b").send("c");
+
+            // give the receiver some time to receive the messages
+            Thread.sleep(100);
+            router.removeRoute('a');
+            sender.send("a");
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+
+        assertEquals(Arrays.asList("a:3", "b from sender", "default", "default"), received);
+        assertEquals(2, router.getUnroutedCount());
+    }
+
+    @Test
+    public void varWritesAreRoutedByName() throws IOException, InterruptedException {
+        List<String> received = new CopyOnWriteArrayList<>();
+        VarWriteRouter router = new VarWriteRouter()
+                .addRoute("MOTOR_1", (source, event) -> received.add("1=" + event.getValue()))
+                .addRoute("Empfänger", (source, event) -> received.add("E=" + event.getValue()));
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setBufferHandler(new VirtuosHandler(router)).start();
+
+        VirtuosEncoder encoder = new VirtuosEncoder();
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+            Endpoint endpoint = Endpoint.of(InetAddress.getByName(RECEIVER_HOST), RECEIVER_PORT);
+            sender.send(encoder.begin("105", "235")
+                    .addVarWrite("AM", "Empf\u00e4nger", "x")
+                    .addVarWrite("AM", "MOTOR_2", "false")
+                    .addVarWrite("AM", "MOTOR_1", "true")
+                    .finish(), endpoint);
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+
+        assertEquals(Arrays.asList("E=x", "1=true"), received);
+        assertEquals(1, router.getUnroutedCount());
+    }
+
+    @Test
+    public void repliesCompleteTheirRequests() throws Exception {
+        // the server answers every request but 999 with the id and the request
+        UdpSender server = new UdpSenderBuilder().setRemoteAddress(RECEIVER_HOST).setRemotePort(SENDER_PORT + 1).build();
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setBufferHandler((source, payload) -> {
+            if (payload.getLong(payload.position()) != 999) {
+                try {
+                    server.send(payload);
+                } catch (IOException e) {
+                    fail(e.getMessage());
+                }
+            }
+        }).start();
+
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT);
+             RequestClient client = new RequestClient(sender, (source, reply) -> reply.getLong(reply.position()))) {
+            sender.setRemoteAddress(RECEIVER_HOST).setRemotePort(RECEIVER_PORT);
+            UdpReceiver replies = new UdpReceiver(RECEIVER_HOST, SENDER_PORT + 1).setBufferHandler(client).start();
+            try {
+                List<CompletableFuture<byte[]>> futures = new CopyOnWriteArrayList<>();
+                for (long id = 0; id < 100; id++) {
+                    futures.add(client.request(ByteBuffer.allocate(12).putLong(0, id).putInt(8, (int) id), id));
+                }
+                CompletableFuture<byte[]> unanswered = client.request(ByteBuffer.allocate(8).putLong(0, 999), 999,
+                        null, 50);
+                for (int i = 0; i < futures.size(); i++) {
+                    assertEquals(i, ByteBuffer.wrap(futures.get(i).get(1, TimeUnit.SECONDS)).getInt(8));
+                }
+                try {
+                    unanswered.get(1, TimeUnit.SECONDS);
+                    fail("Request should have timed out!");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof TimeoutException);
+                }
+                assertEquals(0, client.getPendingCount());
+                assertEquals(1, client.getTimeoutCount());
+            } finally {
+                replies.stop();
+                server.close();
+            }
+        }
+
+        VirtuosEncoder encoder = new VirtuosEncoder();
+        assertEquals(VirtuosCorrelator.id("MOTOR_1"), new VirtuosCorrelator()
+                .correlationId(null, encoder.encodeVarWrite("104", "234", "AM", "MOTOR_1", "true")));
+    }
+
+    @Test
+    public void reliableMessagesAreAcknowledgedOnce() throws Exception {
+        List<String> received = new CopyOnWriteArrayList<>();
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setReliable(true)
+                .setMessageHandler((address, port, message) -> received.add(message)).start();
+
+        Endpoint endpoint = Endpoint.of(InetAddress.getByName(RECEIVER_HOST), RECEIVER_PORT);
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT);
+             ReliableSender reliableSender = new ReliableSender(sender).setWindowSize(4)) {
+            List<CompletableFuture<Void>> futures = new CopyOnWriteArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(reliableSender.send((TESTMESSAGE + i).getBytes(StandardCharsets.UTF_8), endpoint));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(2, TimeUnit.SECONDS);
+            assertEquals(0, reliableSender.getInFlightCount());
+        }
+
+        // a datagram received twice is handed to the handlers once
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT + 1)) {
+            ByteBuffer datagram = ByteBuffer.allocate(ReliableSender.DATA_HEADER_LENGTH + 1);
+            datagram.put(ReliableSender.DATA).putInt(42).putInt(1).put((byte) 'x').flip();
+            sender.send(datagram, endpoint).send(datagram, endpoint);
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+
+        assertEquals(21, received.size());
+        assertEquals(1, receiver.getDuplicateCount());
+    }
+
+    @Test
+    public void reliableMessagesAreRetransmitted() throws Exception {
+        List<String> received = new CopyOnWriteArrayList<>();
+        CountDownLatch handled = new CountDownLatch(1);
+        Endpoint endpoint = Endpoint.of(InetAddress.getByName(RECEIVER_HOST), RECEIVER_PORT);
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT);
+             ReliableSender reliableSender = new ReliableSender(sender).setInitialRto(20)) {
+            // the receiver is not listening yet, so the first transmission is lost
+            CompletableFuture<Void> future = reliableSender.send(TESTMESSAGE.getBytes(StandardCharsets.UTF_8), endpoint);
+            Thread.sleep(50);
+            receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setReliable(true)
+                    .setMessageHandler((address, port, message) -> {
+                        received.add(message);
+                        handled.countDown();
+                    }).start();
+
+            future.get(2, TimeUnit.SECONDS);
+            assertTrue(reliableSender.getRetransmissionCount() > 0);
+        }
+
+        // the message is acknowledged before it is handled
+        assertTrue(handled.await(2, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList(TESTMESSAGE), received);
+    }
+
+    @Test
+    public void lateDatagramsOfOlderSessionsAreDropped() {
+        ReceiveWindow window = new ReceiveWindow();
+        assertTrue(window.mark(5, 1));
+        assertTrue(window.mark(5, 2));
+
+        // a newer session restarts the window
+        assertTrue(window.mark(6, 1));
+        // the older session must not restart it again
+        assertFalse(window.mark(5, 3));
+        assertFalse(window.mark(6, 1));
+        assertTrue(window.mark(6, 2));
+    }
+
+    @Test
+    public void largeMessagesAreFragmentedAndReassembled() throws IOException, InterruptedException {
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setMaxDatagramSize(1500).setReassembly(true)
+                .setFraming(new LengthPrefixFraming())
+                .setBufferHandler((source, payload) -> {
+                    int sum = 0;
+                    for (int i = payload.position(); i < payload.limit(); i++) {
+                        sum += payload.get(i) == (byte) (i - payload.position()) ? 1 : 0;
+                    }
+                    received.add(sum);
+                }).start();
+
+        byte[] large = new byte[10000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+        UdpSenderBuilder senderBuilder = new UdpSenderBuilder().setLocalAddress(SENDER_HOST).setLocalPort(SENDER_PORT)
+                .setFraming(new LengthPrefixFraming()).setFragmentSize(1472);
+        try (UdpSender sender = senderBuilder.build()) {
+            sender.send(large, RECEIVER_HOST, RECEIVER_PORT);
+            sender.send(new byte[]{0, 1, 2}, RECEIVER_HOST, RECEIVER_PORT);
+            sender.send(Arrays.copyOf(large, 3000), RECEIVER_HOST, RECEIVER_PORT);
+        }
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+            // larger than the max datagram size of the receiver
+            sender.send(new byte[2000], RECEIVER_HOST, RECEIVER_PORT);
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+
+        assertEquals(Arrays.asList(10000, 3, 3000), received);
+        assertEquals(1, receiver.getTruncatedCount());
+        assertEquals(0, receiver.getEvictedCount());
+    }
+
+    @Test
+    public void largeTextIsFragmentedAndReassembled() throws Exception {
+        List<String> received = new CopyOnWriteArrayList<>();
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setMaxDatagramSize(1500).setReassembly(true)
+                .setFraming(new LengthPrefixFraming())
+                .setMessageHandler((address, port, message) -> received.add(message)).start();
+
+        // larger than a datagram, also in UTF-16 characters
+        StringBuilder large = new StringBuilder();
+        while (large.length() < 100_000) {
+            large.append("Empfänger ").append(large.length()).append('\n');
+        }
+        UdpSenderBuilder senderBuilder = new UdpSenderBuilder().setLocalAddress(SENDER_HOST).setLocalPort(SENDER_PORT)
+                .setFraming(new LengthPrefixFraming()).setFragmentSize(1472);
+        try (UdpSender sender = senderBuilder.build()) {
+            sender.send(large.toString(), RECEIVER_HOST, RECEIVER_PORT);
+            sender.sendAsync(large.toString(), InetAddress.getByName(RECEIVER_HOST), RECEIVER_PORT)
+                    .get(2, TimeUnit.SECONDS);
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+
+        assertEquals(Arrays.asList(large.toString(), large.toString()), received);
+    }
+
+    @Test
+    public void smallMessagesAreCoalesced() throws IOException, InterruptedException {
+        List<String> received = new CopyOnWriteArrayList<>();
+        List<Integer> datagrams = new CopyOnWriteArrayList<>();
+        LengthPrefixFraming framing = new LengthPrefixFraming();
+        // unpacks the frames itself to count the datagrams
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setMaxDatagramSize(1500)
+                .setBufferHandler((source, payload) -> {
+                    datagrams.add(payload.remaining());
+                    while (payload.hasRemaining()) {
+                        byte[] data = new byte[framing.readHeader(payload)];
+                        payload.get(data);
+                        received.add(new String(data, StandardCharsets.UTF_8));
+                    }
+                }).start();
+
+        List<String> sent = new CopyOnWriteArrayList<>();
+        UdpSenderBuilder senderBuilder = new UdpSenderBuilder().setLocalAddress(SENDER_HOST).setLocalPort(SENDER_PORT)
+                .setFraming(framing).setCoalescing(1472, 200);
+        try (UdpSender sender = senderBuilder.build()) {
+            for (int i = 0; i < 50; i++) {
+                sender.send(TESTMESSAGE + i, RECEIVER_HOST, RECEIVER_PORT);
+                sent.add(TESTMESSAGE + i);
+            }
+
+            // the last datagram is sent once the max delay expired
+            Thread.sleep(100);
+            assertEquals(sent, received);
+        }
+
+        assertTrue(datagrams.size() < 10);
+    }
+
+    @Test
+    public void pacedDatagramsAreSpacedAndQueued() throws IOException, InterruptedException {
+        List<String> received = new CopyOnWriteArrayList<>();
+        List<Long> arrivals = new CopyOnWriteArrayList<>();
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setMessageHandler((address, port, message) -> {
+            arrivals.add(System.nanoTime());
+            received.add(message);
+        }).start();
+
+        List<String> sent = new ArrayList<>();
+        UdpSenderBuilder senderBuilder = new UdpSenderBuilder().setLocalAddress(SENDER_HOST).setLocalPort(SENDER_PORT)
+                .setRemoteAddress(RECEIVER_HOST).setRemotePort(RECEIVER_PORT)
+                .setPacing(100, 5).setPacingQueue(10, BackpressurePolicy.DROP_NEWEST);
+        try (UdpSender sender = senderBuilder.build()) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 20; i++) {
+                sender.send(TESTMESSAGE + i);
+                sent.add(TESTMESSAGE + i);
+            }
+            // the caller does not wait for the paced datagrams
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+
+            // 5 datagrams of the burst, 10 queued datagrams 10 ms apart and
+            // the rest dropped, one more is let through per token refilled
+            // while sending
+            Thread.sleep(250);
+            assertEquals(0, sender.getPacedQueueDepth());
+            assertTrue(received.size() >= 15);
+            assertEquals(20 - received.size(), sender.getPacedDropCount());
+        }
+
+        assertEquals(sent.subList(0, received.size()), received);
+        assertTrue(arrivals.get(14) - arrivals.get(5) >= TimeUnit.MILLISECONDS.toNanos(80));
+    }
+
+    @Test
+    public void pacedAsyncFuturesFollowTheQueue() throws Exception {
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setMessageHandler((address, port, message) -> {
+        }).start();
+
+        InetAddress address = InetAddress.getByName(RECEIVER_HOST);
+        UdpSenderBuilder senderBuilder = new UdpSenderBuilder().setLocalAddress(SENDER_HOST).setLocalPort(SENDER_PORT)
+                .setPacing(10, 1).setPacingQueue(1, BackpressurePolicy.DROP_NEWEST);
+        CompletableFuture<UdpSender> closed;
+        try (UdpSender sender = senderBuilder.build()) {
+            CompletableFuture<UdpSender> first = sender.sendAsync(TESTMESSAGE + 0, address, RECEIVER_PORT);
+            CompletableFuture<UdpSender> queued = sender.sendAsync(TESTMESSAGE + 1, address, RECEIVER_PORT);
+            CompletableFuture<UdpSender> dropped = sender.sendAsync(TESTMESSAGE + 2, address, RECEIVER_PORT);
+
+            assertSame(sender, first.get(1, TimeUnit.SECONDS));
+            assertFalse(queued.isDone());
+            assertTrue(dropped.isCompletedExceptionally());
+
+            // the queued datagram is written 100 ms after the first one
+            assertSame(sender, queued.get(1, TimeUnit.SECONDS));
+            closed = sender.sendAsync(TESTMESSAGE + 3, address, RECEIVER_PORT);
+        }
+
+        // a datagram still queued is discarded when the sender is closed
+        assertTrue(closed.isCompletedExceptionally());
+    }
+
+    @Test
+    public void socketOptionsAreAppliedBeforeBind() throws IOException, InterruptedException {
+        int defaultReceiveBufferSize;
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            defaultReceiveBufferSize = channel.getOption(StandardSocketOptions.SO_RCVBUF);
+        }
+        receiver = new UdpReceiverBuilder().setLocalAddress(RECEIVER_HOST).setLocalPort(RECEIVER_PORT)
+                .setReceiveBufferSize(4 * defaultReceiveBufferSize).setReuseAddress(true)
+                .setMessageHandler((address, port, message) -> setReceivedMessage(message))
+                .build().start();
+        SocketOptions receiverOptions = receiver.getEffectiveSocketOptions();
+        // the kernel may cap the buffer, but does not shrink it
+        assertTrue(receiverOptions.getReceiveBufferSize() >= defaultReceiveBufferSize);
+        assertEquals(Boolean.TRUE, receiverOptions.getReuseAddress());
+
+        UdpSenderBuilder senderBuilder = new UdpSenderBuilder().setLocalAddress(SENDER_HOST).setLocalPort(SENDER_PORT)
+                .setRemoteAddress(RECEIVER_HOST).setRemotePort(RECEIVER_PORT)
+                .setDscp(46).setSendBufferSize(64 * 1024);
+        try (UdpSender sender = senderBuilder.build()) {
+            SocketOptions senderOptions = sender.getEffectiveSocketOptions();
+            assertEquals(46, senderOptions.getDscp());
+            assertTrue(senderOptions.getSendBufferSize() >= 64 * 1024);
+
+            sender.send(TESTMESSAGE);
+        }
+
+        Thread.sleep(100);
+        assertEquals(TESTMESSAGE, receivedMessage);
+
+        receiver.stop();
+        try {
+            receiver.getEffectiveSocketOptions();
+            fail("Exception should have been thrown!");
+        } catch (IllegalStateException e) {
+            // the sockets of a stopped receiver are gone
+        }
+    }
+
+    @Test
+    public void duplicatesAreDroppedBeforeTheHandlers() throws IOException, InterruptedException {
+        List<String> received = new CopyOnWriteArrayList<>();
+        DuplicateFilter byHash = DuplicateFilter.byPayloadHash(16, 1000);
+        receiver = new UdpReceiverBuilder().setLocalAddress(RECEIVER_HOST).setLocalPort(RECEIVER_PORT)
+                .setDuplicateFilter(byHash)
+                .setMessageHandler((address, port, message) -> received.add(message))
+                .build().start();
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+            sender.setRemoteAddress(RECEIVER_HOST).setRemotePort(RECEIVER_PORT);
+            for (String message : Arrays.asList("a", "a", "b", "a", "c", "b")) {
+                sender.send(message);
+            }
+            Thread.sleep(100);
+        }
+        receiver.stop();
+        assertEquals(Arrays.asList("a", "b", "c"), received);
+        assertEquals(3, byHash.getDuplicateCount());
+        assertEquals(1, byHash.getSourceCount());
+
+        // the sequence number is the first long of a message
+        List<Long> sequences = new CopyOnWriteArrayList<>();
+        DuplicateFilter bySequence = DuplicateFilter.bySequence((source, payload) -> payload.getLong(), 64, 1000);
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setDuplicateFilter(bySequence)
+                .setBufferHandler((source, payload) -> sequences.add(payload.getLong())).start();
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+            sender.setRemoteAddress(RECEIVER_HOST).setRemotePort(RECEIVER_PORT);
+            // 2 and 1 arrive again, 3 late, 10 is older than the window
+            for (long sequence : new long[]{1, 2, 2, 4, 1, 3, 100, 10, 100}) {
+                sender.send(ByteBuffer.allocate(Long.BYTES).putLong(0, sequence));
+            }
+            Thread.sleep(100);
+        }
+        assertEquals(Arrays.asList(1L, 2L, 4L, 3L, 100L), sequences);
+        assertEquals(4, bySequence.getDuplicateCount());
+    }
+
+    @Test
+    public void largeMessagesAreCompressed() throws IOException, InterruptedException {
+        List<String> received = new CopyOnWriteArrayList<>();
+        List<Boolean> readOnly = new CopyOnWriteArrayList<>();
+        receiver = new UdpReceiverBuilder().setLocalAddress(RECEIVER_HOST).setLocalPort(RECEIVER_PORT)
+                .setPayloadCodecs(64 * 1024, new DeflateCodec())
+                .setMessageHandler((address, port, message) -> received.add(message))
+                .setBufferHandler((source, payload) -> readOnly.add(payload.isReadOnly()))
+                .build().start();
+
+        StringBuilder snapshot = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            snapshot.append("MOTOR_").append(i % 10).append("=true;");
+        }
+        UdpSenderBuilder senderBuilder = new UdpSenderBuilder().setLocalAddress(SENDER_HOST).setLocalPort(SENDER_PORT)
+                .setRemoteAddress(RECEIVER_HOST).setRemotePort(RECEIVER_PORT)
+                .setPayloadCodec(new DeflateCodec(), 256);
+        try (UdpSender sender = senderBuilder.build()) {
+            // far larger than the receive buffer of 1024 bytes unless compressed
+            sender.send(snapshot.toString());
+            sender.send(TESTMESSAGE.getBytes(StandardCharsets.UTF_8));
+            sender.sendAsync(snapshot.toString(), InetAddress.getByName(RECEIVER_HOST), RECEIVER_PORT).join();
+        }
+
+        Thread.sleep(100);
+        assertEquals(Arrays.asList(snapshot.toString(), TESTMESSAGE, snapshot.toString()), received);
+        assertEquals(Arrays.asList(true, true, true), readOnly);
+        assertEquals(0, receiver.getTruncatedCount());
+        assertEquals(0, receiver.getInvalidFrameCount());
+    }
+
+    @Test
+    public void metricsCountSentAndReceivedDatagrams() throws Exception {
+        List<Integer> listened = new CopyOnWriteArrayList<>();
+        UdpMetrics metrics = new UdpMetrics().addListener(new MetricsListener() {
+            @Override
+            public void datagramReceived(InetSocketAddress source, int bytes) {
+                listened.add(bytes);
+            }
+        });
+        metrics.registerMBean("test");
+        try {
+            receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setMetrics(metrics)
+                    .setMessageHandler((address, port, message) -> setReceivedMessage(message)).start();
+
+            UdpSenderBuilder senderBuilder = new UdpSenderBuilder().setLocalAddress(SENDER_HOST)
+                    .setLocalPort(SENDER_PORT).setMetrics(metrics);
+            try (UdpSender sender = senderBuilder.build()) {
+                for (int i = 0; i < 5; i++) {
+                    sender.send(TESTMESSAGE, RECEIVER_HOST, RECEIVER_PORT);
+                }
+            }
+
+            // give the receiver some time to receive the messages
+            Thread.sleep(100);
+
+            assertEquals(5, metrics.getDatagramsSent());
+            assertEquals(5 * TESTMESSAGE.length(), metrics.getBytesSent());
+            assertEquals(5, metrics.getDatagramsReceived());
+            assertEquals(5, metrics.getHandlerCount());
+            assertTrue(metrics.getHandler99thPercentileNanos() <= metrics.getHandlerMaxNanos());
+            assertEquals(Arrays.asList(11, 11, 11, 11, 11), listened);
+            assertEquals(5L, ManagementFactory.getPlatformMBeanServer().getAttribute(
+                    new ObjectName("de.neiky.udp:type=UdpMetrics,name=\"test\""), "DatagramsReceived"));
+        } finally {
+            metrics.unregisterMBean();
+        }
+    }
+
+    @Test
+    public void multicastReachesEveryJoinedReceiver() throws IOException, InterruptedException {
+        InetAddress group = InetAddress.getByName("239.255.11.1");
+        NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        List<String> first = new CopyOnWriteArrayList<>();
+        List<String> second = new CopyOnWriteArrayList<>();
+        receiver = new UdpReceiver(RECEIVER_PORT).joinGroup(group, loopback)
+                .setMessageHandler((address, port, message) -> first.add(message)).start();
+        UdpReceiver other = new UdpReceiver(RECEIVER_PORT).joinGroup(group, loopback)
+                .setMessageHandler((address, port, message) -> second.add(message)).start();
+        try (UdpSender sender = new UdpSenderBuilder().setRemoteAddress(group).setRemotePort(RECEIVER_PORT)
+                .setMulticastInterface(loopback).setMulticastLoopback(true).setMulticastTtl(1).build()) {
+            sender.send(TESTMESSAGE);
+
+            // give the receivers some time to receive the message
+            Thread.sleep(100);
+            other.leaveGroup(group);
+            sender.send("after leave");
+
+            // give the receivers some time to receive the message
+            Thread.sleep(100);
+        } finally {
+            other.stop();
+        }
+
+        assertEquals(Arrays.asList(TESTMESSAGE, "after leave"), first);
+        assertEquals(Arrays.asList(TESTMESSAGE), second);
+    }
+
+    @Test
+    public void capturedDatagramsAreReplayed() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("capture");
+        List<String> received = new CopyOnWriteArrayList<>();
+        try (CaptureLog capture = new CaptureLog(directory, 128 << 10)) {
+            receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setCapture(capture)
+                    .setMessageHandler((address, port, message) -> received.add(message)).start();
+            try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+                sender.setRemoteAddress(RECEIVER_HOST).setRemotePort(RECEIVER_PORT);
+                sender.send("first").send("second");
+                sender.send(new byte[1000]);
+            }
+
+            // give the receiver some time to receive the messages
+            Thread.sleep(100);
+            receiver.stop();
+            assertEquals(3, capture.getRecordCount());
+        }
+
+        received.clear();
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT)
+                .setMessageHandler((address, port, message) -> received.add(message)).start();
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT);
+             CaptureReader reader = new CaptureReader(directory)) {
+            sender.setRemoteAddress(RECEIVER_HOST).setRemotePort(RECEIVER_PORT);
+            assertEquals(3, sender.replay(reader, 1.0));
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+
+        assertEquals(3, received.size());
+        assertEquals("first", received.get(0));
+        assertEquals("second", received.get(1));
+        assertEquals(1000, received.get(2).length());
+
+        try (CaptureReader reader = new CaptureReader(directory)) {
+            assertTrue(reader.next());
+            assertEquals(SENDER_PORT, reader.getSource().getPort());
+            assertEquals(5, reader.getPayload().remaining());
+        }
+    }
+
+    @Test
+    public void loadGeneratorIsMeasuredByLoadMonitor() throws IOException, InterruptedException {
+        LoadMonitor monitor = new LoadMonitor();
+        receiver = new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setBufferHandler(monitor).start();
+
+        LoadGenerator generator = new LoadGenerator().setThreads(2).setRate(1000)
+                .setPayloadSize(24, 200).setDuration(200, TimeUnit.MILLISECONDS);
+        try (UdpSender sender = new UdpSender(SENDER_HOST, SENDER_PORT)) {
+            sender.setRemoteAddress(RECEIVER_HOST).setRemotePort(RECEIVER_PORT).openSocket();
+            generator.run(sender);
+            generator.setVirtuos(true).setThreads(1).setRate(100).setDuration(100, TimeUnit.MILLISECONDS);
+            generator.run(sender);
+        }
+
+        // give the receiver some time to receive the messages
+        Thread.sleep(100);
+
+        assertEquals(0, generator.getFailureCount());
+        assertEquals(generator.getSentCount(), monitor.getReceivedCount());
+        assertEquals(0, monitor.getLostCount());
+        assertEquals(0, monitor.getForeignCount());
+        assertEquals(3, monitor.getStreamCount());
+        assertEquals(generator.getSentCount(), monitor.getLatency().getCount());
+    }
+
     @Test
     public void useINetAddress() throws IOException, InterruptedException {
         assertNull(receivedMessage);
@@ -176,6 +1206,21 @@ public class UdpTest {
         fail("Exception should have been thrown!");
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void batchAddressMustNotBeNull() {
+        new SendBatch().add(TESTMESSAGE.getBytes(StandardCharsets.UTF_8), null, RECEIVER_PORT);
+
+        fail("Exception should have been thrown!");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void destinationBurstMustBeAtLeastOne() throws IOException {
+        new UdpSenderBuilder().setPacing(100, 5)
+                .setPacing(new InetSocketAddress(RECEIVER_HOST, RECEIVER_PORT), 100, 0);
+
+        fail("Exception should have been thrown!");
+    }
+
     @Test(expected = UnknownHostException.class)
     public void wrongReciverAddressThrowsException() throws IOException, InterruptedException {
         assertNull(receivedMessage);
@@ -187,6 +1232,12 @@ public class UdpTest {
         fail("Exception should have been thrown!");
     }
 
+    private static void assumeReusePort() throws IOException {
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            assumeTrue("SO_REUSEPORT is not supported.", ReusePort.isSupported(channel));
+        }
+    }
+
     private UdpReceiver getUdpReceiver() throws UnknownHostException {
         return new UdpReceiver(RECEIVER_HOST, RECEIVER_PORT).setPacketHandler((packet) -> {
             InetAddress address = packet.getAddress();